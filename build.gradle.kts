@@ -76,8 +76,9 @@ dependencies {
     // A multiplatform Kotlin library for Result monads
     implementation("com.michael-bull.kotlin-result:kotlin-result:1.1.15")
 
-    runtimeOnly(libs.grpcNettyShaded)
+    implementation(libs.grpcNettyShaded)
 
+    testImplementation(libs.grpcTesting)
     testImplementation(libs.truth)
     testImplementation(libs.truthJava8Extension)
 }
@@ -113,6 +114,8 @@ sourceSets {
 
 tasks.getByName<Test>("test") {
     useJUnitPlatform()
+    // SpoiledBallotPrefetchTest needs an election record: ./gradlew test -Pelectionguard.recordDir=<dir>
+    project.findProperty("electionguard.recordDir")?.let { systemProperty("electionguard.recordDir", it) }
 }
 
 tasks {
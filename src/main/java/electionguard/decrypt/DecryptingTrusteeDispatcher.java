@@ -0,0 +1,497 @@
+package electionguard.decrypt;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.Futures;
+import electionguard.core.ElGamalCiphertext;
+import electionguard.core.ElementModP;
+import electionguard.core.ElementModQ;
+import electionguard.core.GroupContext;
+import electionguard.decrypt.RemoteDecryptingTrusteeProxy.AllDecryptions;
+import io.grpc.Context;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Formatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Fans out the Decryption engine's calls to all the remote trustees at once.
+ * <p>
+ * The Decryption engine calls each trustee in turn, waiting for each one to finish. The first time any trustee is
+ * asked to decrypt a list of texts, the same request is sent to every trustee concurrently, for the direct decryption
+ * and for the compensated decryption of every missing guardian, as one decryptAll call if the trustee supports it.
+ * The engine's later calls for those texts just wait for the result already in flight, so the wall time is that of
+ * the slowest trustee, not the sum of all of them.
+ * <p>
+ * If any trustee fails, the calls still in flight for those texts are cancelled, and every trustee returns an
+ * empty list, which the engine treats as a failure. The texts are then forgotten at once, since the engine may not
+ * ask every trustee for them after the first failure.
+ * <p>
+ * Each call of the engine is made through call(), one at a time; whatever texts it asked for are forgotten when it
+ * returns or throws, however many of the trustees it got to.
+ * <p>
+ * The texts of several ballots can also be prefetched as one batch, see prefetch(). Batching is best effort: it
+ * depends on guessing the texts the library's Decryption engine asks for, and their order (each contest's selections,
+ * in turn; see SpoiledBallotPipeline.ballotTexts). Nothing in the library promises that order. If the guess is wrong,
+ * prefetch turns itself off after the first batch, and the ballots are decrypted one at a time, with a warning in the
+ * log and in prefetchMisses(). SpoiledBallotPrefetchTest checks the guess, but only when given an election record.
+ */
+class DecryptingTrusteeDispatcher {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final List<RemoteDecryptingTrusteeProxy> proxies;
+  private final List<String> missingGuardians;
+  private final ExecutorService executor;
+  private final List<DecryptingTrusteeIF> trustees;
+  private final Map<List<ElGamalCiphertext>, Pending> inflight = new ConcurrentHashMap<>();
+  // the texts the engine asked for that werent prefetched, forgotten when its call returns
+  private final Set<Pending> owned = ConcurrentHashMap.newKeySet();
+  private final Object engineLock = new Object();
+  private final Map<String, Latency> latencies = new ConcurrentHashMap<>();
+  private final Map<String, PartialDecryptionMemo> checkpoints;
+  private final ElementModQ extendedBaseHash; // from the election record, for prefetch
+  // prefetched ballots the engine asked for, and those it didnt, so their texts were decrypted again
+  private final AtomicLong prefetchHits = new AtomicLong();
+  private final AtomicLong prefetchMisses = new AtomicLong();
+  // turned off after the first batch with misses, rather than decrypting every ballot twice
+  private volatile boolean prefetching = true;
+
+  /**
+   * @param extendedBaseHash of the election; prefetched texts are decrypted with it.
+   * @param checkpoints by trustee id, the results already received from that trustee; new results are added as they
+   *                    arrive. May be empty.
+   */
+  DecryptingTrusteeDispatcher(List<RemoteDecryptingTrusteeProxy> proxies, List<String> missingGuardians,
+                              ExecutorService executor, ElementModQ extendedBaseHash,
+                              Map<String, PartialDecryptionMemo> checkpoints) {
+    this.proxies = List.copyOf(proxies);
+    this.extendedBaseHash = Preconditions.checkNotNull(extendedBaseHash);
+    this.missingGuardians = List.copyOf(missingGuardians);
+    this.executor = executor;
+    this.checkpoints = Map.copyOf(checkpoints);
+    this.trustees = this.proxies.stream().map(p -> (DecryptingTrusteeIF) new DispatchedTrustee(p)).toList();
+    this.proxies.forEach(p -> latencies.put(p.id(), new Latency()));
+  }
+
+  /** The trustees to hand to the Decryption engine. Make the engine's calls through call(). */
+  List<DecryptingTrusteeIF> trustees() {
+    return trustees;
+  }
+
+  /**
+   * Make one call of the Decryption engine, eg decrypt(tally) or decryptBallot(ballot). When it returns or throws,
+   * the calls it started are released, whether or not every trustee took its results. Calls are made one at a time.
+   */
+  <T> T call(Supplier<T> engineCall) {
+    synchronized (engineLock) {
+      try {
+        return engineCall.get();
+      } finally {
+        for (Pending pending : owned) {
+          owned.remove(pending);
+          inflight.remove(pending.key, pending);
+          pending.fanOut.close();
+        }
+      }
+    }
+  }
+
+  /** Number of lists of texts whose calls are in flight or not yet taken, including prefetched ones. */
+  int pendingCount() {
+    return inflight.size();
+  }
+
+  /** Per-trustee call count and latency; the trustee with the largest total is the straggler. */
+  String showLatencies() {
+    Formatter f = new Formatter();
+    f.format("%-20s %6s %10s %10s%n", "trustee", "ncalls", "total ms", "max ms");
+    String straggler = null;
+    long worst = -1;
+    for (RemoteDecryptingTrusteeProxy proxy : proxies) {
+      Latency latency = latencies.get(proxy.id());
+      f.format("%-20s %6d %10d %10d%n", proxy.id(), latency.ncalls.get(), latency.totalMsecs.get(), latency.maxMsecs.get());
+      if (latency.totalMsecs.get() > worst) {
+        worst = latency.totalMsecs.get();
+        straggler = proxy.id();
+      }
+    }
+    f.format("straggler = %s%n", straggler);
+    if (prefetchHits.get() + prefetchMisses.get() > 0) {
+      f.format("prefetched ballots used = %d, not used = %d%n", prefetchHits.get(), prefetchMisses.get());
+    }
+    return f.toString();
+  }
+
+  /** Prefetched ballots the engine didnt ask for. */
+  long prefetchMisses() {
+    return prefetchMisses.get();
+  }
+
+  /** Prefetched ballots the engine asked for. */
+  long prefetchHits() {
+    return prefetchHits.get();
+  }
+
+  private Pending pending(GroupContext group, List<ElGamalCiphertext> texts, ElementModQ extendedBaseHash) {
+    Pending pending = inflight.get(texts);
+    if (pending != null) {
+      return pending;
+    }
+    List<ElGamalCiphertext> key = List.copyOf(texts);
+    FanOut fanOut = new FanOut(group, key, extendedBaseHash);
+    Pending mine = new Pending(key, fanOut, 0, key.size());
+    pending = inflight.putIfAbsent(key, mine);
+    if (pending != null) { // another call got there first
+      fanOut.close();
+      return pending;
+    }
+    owned.add(mine);
+    return mine;
+  }
+
+  /**
+   * Send the texts of several ballots to every trustee as one request, before the Decryption engine asks for them.
+   * The engine's later calls for any one ballot's texts are answered from its slice of the batch; that only works if
+   * each list is exactly the texts the engine will ask for, in its order. Close the Batch when the engine is done
+   * with those ballots; a slice the engine never asked for is then counted, and warned about, as not used.
+   * Once a batch has an unused slice, prefetch is turned off for the rest of the run, and this returns an empty Batch.
+   */
+  Batch prefetch(GroupContext group, List<List<ElGamalCiphertext>> textLists) {
+    if (!prefetching) {
+      return new Batch(null, List.of());
+    }
+    List<ElGamalCiphertext> all = textLists.stream().flatMap(List::stream).toList();
+    FanOut fanOut = new FanOut(group, all, extendedBaseHash);
+    List<Pending> slices = new ArrayList<>(textLists.size());
+    int start = 0;
+    for (List<ElGamalCiphertext> texts : textLists) {
+      List<ElGamalCiphertext> key = List.copyOf(texts);
+      Pending slice = new Pending(key, fanOut, start, start + key.size());
+      // if another call already has these texts, leave it alone; the slice is then never used
+      if (inflight.putIfAbsent(key, slice) == null) {
+        slices.add(slice);
+      }
+      start += key.size();
+    }
+    return new Batch(fanOut, slices);
+  }
+
+  /** A prefetched batch of ballots. */
+  class Batch implements AutoCloseable {
+    @Nullable private final FanOut fanOut;
+    private final List<Pending> slices;
+
+    private Batch(@Nullable FanOut fanOut, List<Pending> slices) {
+      this.fanOut = fanOut;
+      this.slices = slices;
+    }
+
+    /** Remove any slices the engine didnt ask for, and release the calls. */
+    @Override
+    public void close() {
+      int unused = 0;
+      for (Pending slice : slices) {
+        inflight.remove(slice.key, slice);
+        if (slice.used()) {
+          prefetchHits.incrementAndGet();
+        } else {
+          unused++;
+          prefetchMisses.incrementAndGet();
+        }
+      }
+      if (unused > 0 && prefetching) {
+        prefetching = false;
+        logger.atWarning().log("%d of %d prefetched ballots were not asked for by the Decryption engine, so they were" +
+                " decrypted twice; the prefetched texts dont match the engine's, so prefetch is turned off", unused, slices.size());
+      }
+      if (fanOut != null) {
+        fanOut.close();
+      }
+    }
+  }
+
+  /** The results for the texts, from the results of the texts in index; empty if any are missing. */
+  private static <T> List<T> pick(List<T> results, Map<ElGamalCiphertext, Integer> index, List<ElGamalCiphertext> texts) {
+    List<T> picked = new ArrayList<>(texts.size());
+    for (ElGamalCiphertext text : texts) {
+      Integer i = index.get(text);
+      if (i == null) {
+        return ImmutableList.of();
+      }
+      picked.add(results.get(i));
+    }
+    return picked;
+  }
+
+  private static class Latency {
+    final AtomicInteger ncalls = new AtomicInteger();
+    final AtomicLong totalMsecs = new AtomicLong();
+    final AtomicLong maxMsecs = new AtomicLong();
+
+    void add(long msecs) {
+      ncalls.incrementAndGet();
+      totalMsecs.addAndGet(msecs);
+      maxMsecs.accumulateAndGet(msecs, Math::max);
+    }
+  }
+
+  /** All the calls for one list of texts, in flight on every trustee. */
+  private class FanOut {
+    private final Context.CancellableContext context = Context.current().withCancellation();
+    // a call may fail while the others are still being submitted, so these must be concurrent
+    private final Map<String, Future<List<DirectDecryptionAndProof>>> direct = new ConcurrentHashMap<>();
+    private final Map<String, Future<List<CompensatedDecryptionAndProof>>> compensated = new ConcurrentHashMap<>();
+    private volatile String failed;
+
+    FanOut(GroupContext group, List<ElGamalCiphertext> texts, ElementModQ extendedBaseHash) {
+      for (RemoteDecryptingTrusteeProxy proxy : proxies) {
+        if (!missingGuardians.isEmpty() && proxy.supportsDecryptAll()) {
+          // one call for the direct and all the compensated decryptions
+          Future<AllDecryptions> all = submit(proxy, "decryptAll",
+                  () -> decryptAll(proxy, group, texts, extendedBaseHash), r -> !texts.isEmpty() && r.isEmpty());
+          direct.put(proxy.id(), Futures.lazyTransform(all, r -> r.direct));
+          for (String missing : missingGuardians) {
+            compensated.put(proxy.id() + "/" + missing, Futures.lazyTransform(all, r -> r.compensated.get(missing)));
+          }
+          continue;
+        }
+        direct.put(proxy.id(), submit(proxy, "directDecrypt",
+                () -> directDecrypt(proxy, group, texts, extendedBaseHash), r -> !texts.isEmpty() && r.isEmpty()));
+        for (String missing : missingGuardians) {
+          compensated.put(proxy.id() + "/" + missing, submit(proxy, "compensatedDecrypt " + missing,
+                  () -> compensatedDecrypt(proxy, group, missing, texts, extendedBaseHash), r -> !texts.isEmpty() && r.isEmpty()));
+        }
+      }
+    }
+
+    private List<DirectDecryptionAndProof> directDecrypt(RemoteDecryptingTrusteeProxy proxy, GroupContext group,
+                                                         List<ElGamalCiphertext> texts, ElementModQ extendedBaseHash) {
+      PartialDecryptionMemo checkpoint = checkpoints.get(proxy.id());
+      if (checkpoint == null) {
+        return proxy.directDecrypt(group, texts, extendedBaseHash, null);
+      }
+      return checkpoint.direct(extendedBaseHash, texts, misses -> proxy.directDecrypt(group, misses, extendedBaseHash, null));
+    }
+
+    private List<CompensatedDecryptionAndProof> compensatedDecrypt(RemoteDecryptingTrusteeProxy proxy, GroupContext group,
+                                                                   String missing, List<ElGamalCiphertext> texts,
+                                                                   ElementModQ extendedBaseHash) {
+      PartialDecryptionMemo checkpoint = checkpoints.get(proxy.id());
+      if (checkpoint == null) {
+        return proxy.compensatedDecrypt(group, missing, texts, extendedBaseHash, null);
+      }
+      return checkpoint.compensated(extendedBaseHash, missing, texts,
+              misses -> proxy.compensatedDecrypt(group, missing, misses, extendedBaseHash, null));
+    }
+
+    /** With a checkpoint, only the texts that are missing any result are sent to the trustee. */
+    private AllDecryptions decryptAll(RemoteDecryptingTrusteeProxy proxy, GroupContext group,
+                                      List<ElGamalCiphertext> texts, ElementModQ extendedBaseHash) {
+      PartialDecryptionMemo checkpoint = checkpoints.get(proxy.id());
+      if (checkpoint == null) {
+        return fetchAll(proxy, group, texts, extendedBaseHash);
+      }
+      List<ElGamalCiphertext> todo = texts.stream()
+              .filter(text -> !checkpoint.hasAll(extendedBaseHash, text, missingGuardians))
+              .distinct()
+              .toList();
+      AllDecryptions fetched = new AllDecryptions(missingGuardians);
+      if (!todo.isEmpty()) {
+        fetched = fetchAll(proxy, group, todo, extendedBaseHash);
+        if (fetched.isEmpty()) {
+          return fetched;
+        }
+      }
+      Map<ElGamalCiphertext, Integer> todoIndex = new HashMap<>();
+      for (int i = 0; i < todo.size(); i++) {
+        todoIndex.put(todo.get(i), i);
+      }
+
+      AllDecryptions all = new AllDecryptions(missingGuardians);
+      List<DirectDecryptionAndProof> fetchedDirect = fetched.direct;
+      all.direct.addAll(checkpoint.direct(extendedBaseHash, texts, misses -> pick(fetchedDirect, todoIndex, misses)));
+      for (String missing : missingGuardians) {
+        List<CompensatedDecryptionAndProof> fetchedCompensated = fetched.compensated.get(missing);
+        all.compensated.get(missing).addAll(checkpoint.compensated(extendedBaseHash, missing, texts,
+                misses -> pick(fetchedCompensated, todoIndex, misses)));
+      }
+      return all;
+    }
+
+    /** If the trustee turns out not to implement decryptAll, make the separate calls, this once. */
+    private AllDecryptions fetchAll(RemoteDecryptingTrusteeProxy proxy, GroupContext group,
+                                    List<ElGamalCiphertext> texts, ElementModQ extendedBaseHash) {
+      AllDecryptions all = proxy.decryptAll(group, texts, extendedBaseHash, missingGuardians);
+      if (all == null) {
+        all = new AllDecryptions(missingGuardians);
+        all.direct.addAll(proxy.directDecrypt(group, texts, extendedBaseHash, null));
+        for (String missing : missingGuardians) {
+          all.compensated.get(missing).addAll(proxy.compensatedDecrypt(group, missing, texts, extendedBaseHash, null));
+        }
+      }
+      return all;
+    }
+
+    private <R> Future<R> submit(RemoteDecryptingTrusteeProxy proxy, String what, Callable<R> call, Predicate<R> failed) {
+      return executor.submit(context.wrap(() -> {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        R result = call.call();
+        long msecs = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+        latencies.get(proxy.id()).add(msecs);
+        logger.atInfo().log("%s %s took %d ms", proxy.id(), what, msecs);
+        if (failed.test(result)) {
+          fail(proxy.id() + " " + what);
+        }
+        return result;
+      }));
+    }
+
+    private void fail(String who) {
+      if (failed == null) {
+        failed = who;
+        logger.atSevere().log("%s failed, cancelling the other trustees", who);
+        direct.values().forEach(f -> f.cancel(false));
+        compensated.values().forEach(f -> f.cancel(false));
+        context.cancel(new CancellationException(who + " failed"));
+        // the engine may stop here, so dont wait for every trustee to take its results before letting go of them
+        inflight.values().removeIf(pending -> pending.fanOut == this);
+      }
+    }
+
+    List<DirectDecryptionAndProof> direct(String trusteeId) {
+      return get(direct.get(trusteeId));
+    }
+
+    @Nullable
+    List<CompensatedDecryptionAndProof> compensated(String trusteeId, String missingGuardianId) {
+      Future<List<CompensatedDecryptionAndProof>> future = compensated.get(trusteeId + "/" + missingGuardianId);
+      return future == null ? null : get(future);
+    }
+
+    private <T> List<T> get(Future<List<T>> future) {
+      try {
+        List<T> result = future.get();
+        return failed == null ? result : ImmutableList.of();
+      } catch (CancellationException | ExecutionException e) {
+        return ImmutableList.of();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        fail("interrupted");
+        return ImmutableList.of();
+      }
+    }
+
+    void close() {
+      context.close();
+    }
+  }
+
+  /**
+   * The engine's view of the texts [start, end) of a FanOut. Removed when the engine's call returns, or for a
+   * prefetched slice, when its Batch is closed.
+   */
+  private class Pending {
+    private final List<ElGamalCiphertext> key;
+    private final FanOut fanOut;
+    private final int start;
+    private final int end;
+    private final AtomicBoolean used = new AtomicBoolean();
+
+    Pending(List<ElGamalCiphertext> key, FanOut fanOut, int start, int end) {
+      this.key = key;
+      this.fanOut = fanOut;
+      this.start = start;
+      this.end = end;
+    }
+
+    List<DirectDecryptionAndProof> takeDirect(String trusteeId) {
+      used.set(true);
+      return slice(fanOut.direct(trusteeId));
+    }
+
+    @Nullable
+    List<CompensatedDecryptionAndProof> takeCompensated(String trusteeId, String missingGuardianId) {
+      List<CompensatedDecryptionAndProof> result = fanOut.compensated(trusteeId, missingGuardianId);
+      if (result == null) {
+        return null;
+      }
+      used.set(true);
+      return slice(result);
+    }
+
+    private <T> List<T> slice(List<T> result) {
+      if (result.isEmpty() || (start == 0 && end == result.size())) {
+        return result;
+      }
+      return List.copyOf(result.subList(start, end));
+    }
+
+    /** If the engine has asked for any of these results. */
+    boolean used() {
+      return used.get();
+    }
+  }
+
+  /** Stands in for one remote trustee in the Decryption engine. */
+  private class DispatchedTrustee implements DecryptingTrusteeIF {
+    private final RemoteDecryptingTrusteeProxy proxy;
+
+    DispatchedTrustee(RemoteDecryptingTrusteeProxy proxy) {
+      this.proxy = proxy;
+    }
+
+    @Override
+    public String id() {
+      return proxy.id();
+    }
+
+    @Override
+    public int xCoordinate() {
+      return proxy.xCoordinate();
+    }
+
+    @Override
+    public ElementModP electionPublicKey() {
+      return proxy.electionPublicKey();
+    }
+
+    @Override
+    public List<DirectDecryptionAndProof> directDecrypt(
+            GroupContext group,
+            List<ElGamalCiphertext> texts,
+            ElementModQ extendedBaseHash,
+            @Nullable ElementModQ nonce) {
+      return pending(group, texts, extendedBaseHash).takeDirect(proxy.id());
+    }
+
+    @Override
+    public List<CompensatedDecryptionAndProof> compensatedDecrypt(
+            GroupContext group,
+            String missingGuardianId,
+            List<ElGamalCiphertext> texts,
+            ElementModQ extendedBaseHash,
+            @Nullable ElementModQ nonce) {
+      List<CompensatedDecryptionAndProof> result = pending(group, texts, extendedBaseHash).takeCompensated(proxy.id(), missingGuardianId);
+      // not one of the missing guardians we were told about
+      return result != null ? result : proxy.compensatedDecrypt(group, missingGuardianId, texts, extendedBaseHash, nonce);
+    }
+  }
+}
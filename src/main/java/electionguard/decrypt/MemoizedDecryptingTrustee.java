@@ -0,0 +1,58 @@
+package electionguard.decrypt;
+
+import electionguard.core.ElGamalCiphertext;
+import electionguard.core.ElementModP;
+import electionguard.core.ElementModQ;
+import electionguard.core.GroupContext;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * A DecryptingTrusteeIF that returns the partial decryptions found in a PartialDecryptionMemo,
+ * and only asks its delegate for the rest, adding them to the memo.
+ */
+class MemoizedDecryptingTrustee implements DecryptingTrusteeIF {
+  private final DecryptingTrusteeIF delegate;
+  private final PartialDecryptionMemo memo;
+
+  MemoizedDecryptingTrustee(DecryptingTrusteeIF delegate, PartialDecryptionMemo memo) {
+    this.delegate = delegate;
+    this.memo = memo;
+  }
+
+  @Override
+  public String id() {
+    return delegate.id();
+  }
+
+  @Override
+  public int xCoordinate() {
+    return delegate.xCoordinate();
+  }
+
+  @Override
+  public ElementModP electionPublicKey() {
+    return delegate.electionPublicKey();
+  }
+
+  @Override
+  public List<DirectDecryptionAndProof> directDecrypt(
+          GroupContext group,
+          List<ElGamalCiphertext> texts,
+          ElementModQ extendedBaseHash,
+          @Nullable ElementModQ nonce) {
+    return memo.direct(extendedBaseHash, texts, misses -> delegate.directDecrypt(group, misses, extendedBaseHash, nonce));
+  }
+
+  @Override
+  public List<CompensatedDecryptionAndProof> compensatedDecrypt(
+          GroupContext group,
+          String missingGuardianId,
+          List<ElGamalCiphertext> texts,
+          ElementModQ extendedBaseHash,
+          @Nullable ElementModQ nonce) {
+    return memo.compensated(extendedBaseHash, missingGuardianId, texts,
+            misses -> delegate.compensatedDecrypt(group, missingGuardianId, misses, extendedBaseHash, nonce));
+  }
+}
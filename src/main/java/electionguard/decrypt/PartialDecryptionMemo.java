@@ -0,0 +1,449 @@
+package electionguard.decrypt;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.protobuf.ByteString;
+import electionguard.core.ElGamalCiphertext;
+import electionguard.core.ElementModP;
+import electionguard.core.ElementModQ;
+import electionguard.core.GenericChaumPedersenProof;
+import electionguard.core.GroupContext;
+import electionguard.core.ProductionElementModP;
+import electionguard.core.ProductionElementModQ;
+import electionguard.core.ProductionGroupContext;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only file of the partial decryptions a trustee has already computed, so that a rerun can return them
+ * without redoing the exponentiations. Each record is keyed by the SHA-256 of (extended base hash, ciphertext,
+ * missing guardian id); the missing guardian id is empty for a direct decryption.
+ * <p>
+ * Record layout: int length, then length bytes of [32 byte key, elements as (short length, bytes)...], then a CRC32
+ * of those bytes. A torn record at the end of the file (from a crash) is dropped when the file is opened; a corrupt
+ * record before the end is skipped, or if its length can't be trusted, the file is refused. Each batch of new records
+ * is forced to disk before the batch is returned.
+ * <p>
+ * Only the file offset of each record is kept in memory. When the file grows past maxBytes it is compacted:
+ * duplicate records are dropped, and then the oldest records, until it is under 3/4 of maxBytes.
+ */
+class PartialDecryptionMemo implements Closeable {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+  private static final int KEY_BYTES = 32;
+  private static final int MAX_LENGTH = KEY_BYTES + 4 * (2 + 0xffff); // at most 4 elements with a short length
+
+  private final GroupContext group;
+  private final Path path;
+  private final long maxBytes;
+  private final Map<ByteString, Long> index = new ConcurrentHashMap<>();
+  // lookups share the lock, appends and compaction take it exclusively
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private FileChannel channel;
+  private volatile long size;
+  private final AtomicInteger hits = new AtomicInteger();
+  private final AtomicInteger misses = new AtomicInteger();
+
+  PartialDecryptionMemo(GroupContext group, Path path, long maxBytes) throws IOException {
+    this.group = group;
+    this.path = path;
+    this.maxBytes = maxBytes;
+    this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    load();
+    logger.atInfo().log("PartialDecryptionMemo %s has %d records, %d bytes", path, index.size(), size);
+    if (size > maxBytes) {
+      compact();
+    }
+  }
+
+  /** The key for one text; missingGuardianId is null for a direct decryption. */
+  static ByteString key(ElementModQ extendedBaseHash, ElGamalCiphertext text, @Nullable String missingGuardianId) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      update(digest, extendedBaseHash.byteArray());
+      update(digest, text.getPad().byteArray());
+      update(digest, text.getData().byteArray());
+      update(digest, missingGuardianId == null ? new byte[0] : missingGuardianId.getBytes(StandardCharsets.UTF_8));
+      return ByteString.copyFrom(digest.digest());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void update(MessageDigest digest, byte[] bytes) {
+    digest.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+    digest.update(bytes);
+  }
+
+  @Nullable
+  DirectDecryptionAndProof getDirect(ByteString key) {
+    List<byte[]> elems = read(key, 3);
+    return elems == null ? null : new DirectDecryptionAndProof(elementModP(elems.get(0)),
+            new GenericChaumPedersenProof(elementModQ(elems.get(1)), elementModQ(elems.get(2))));
+  }
+
+  @Nullable
+  CompensatedDecryptionAndProof getCompensated(ByteString key) {
+    List<byte[]> elems = read(key, 4);
+    return elems == null ? null : new CompensatedDecryptionAndProof(elementModP(elems.get(0)),
+            new GenericChaumPedersenProof(elementModQ(elems.get(1)), elementModQ(elems.get(2))),
+            elementModP(elems.get(3)));
+  }
+
+  void putDirect(ByteString key, DirectDecryptionAndProof result) throws IOException {
+    append(key, List.of(result.getPartialDecryption().byteArray(),
+            result.getProof().getC().byteArray(), result.getProof().getR().byteArray()));
+  }
+
+  void putCompensated(ByteString key, CompensatedDecryptionAndProof result) throws IOException {
+    append(key, List.of(result.getPartialDecryption().byteArray(),
+            result.getProof().getC().byteArray(), result.getProof().getR().byteArray(),
+            result.getRecoveredPublicKeyShare().byteArray()));
+  }
+
+  /** The direct decryptions of the texts, from the memo if there, the rest from compute, which are then added to the memo. */
+  List<DirectDecryptionAndProof> direct(ElementModQ extendedBaseHash, List<ElGamalCiphertext> texts,
+                                        Function<List<ElGamalCiphertext>, List<DirectDecryptionAndProof>> compute) {
+    return memoized(texts, text -> key(extendedBaseHash, text, null), this::getDirect, compute, this::putDirect);
+  }
+
+  /** The compensated decryptions of the texts, from the memo if there, the rest from compute, which are then added to the memo. */
+  List<CompensatedDecryptionAndProof> compensated(ElementModQ extendedBaseHash, String missingGuardianId, List<ElGamalCiphertext> texts,
+                                                  Function<List<ElGamalCiphertext>, List<CompensatedDecryptionAndProof>> compute) {
+    return memoized(texts, text -> key(extendedBaseHash, text, missingGuardianId), this::getCompensated, compute, this::putCompensated);
+  }
+
+  /** If the direct and all the compensated decryptions of the text are in the memo. */
+  boolean hasAll(ElementModQ extendedBaseHash, ElGamalCiphertext text, List<String> missingGuardianIds) {
+    if (!index.containsKey(key(extendedBaseHash, text, null))) {
+      return false;
+    }
+    return missingGuardianIds.stream().allMatch(id -> index.containsKey(key(extendedBaseHash, text, id)));
+  }
+
+  private interface Put<T> {
+    void put(ByteString key, T result) throws IOException;
+  }
+
+  /** Look up each text, compute the ones not found in one call, and merge them back in order. */
+  private <T> List<T> memoized(List<ElGamalCiphertext> texts,
+                               Function<ElGamalCiphertext, ByteString> keyOf,
+                               Function<ByteString, T> get,
+                               Function<List<ElGamalCiphertext>, List<T>> compute,
+                               Put<T> put) {
+    List<ByteString> keys = new ArrayList<>(texts.size());
+    List<T> results = new ArrayList<>(texts.size());
+    List<ElGamalCiphertext> misses = new ArrayList<>();
+    List<Integer> missIndex = new ArrayList<>();
+    for (int i = 0; i < texts.size(); i++) {
+      ByteString key = keyOf.apply(texts.get(i));
+      T found = get.apply(key);
+      keys.add(key);
+      results.add(found);
+      if (found == null) {
+        misses.add(texts.get(i));
+        missIndex.add(i);
+      }
+    }
+    if (misses.isEmpty()) {
+      return results;
+    }
+
+    List<T> computed = compute.apply(misses);
+    if (computed.size() != misses.size()) {
+      return computed; // failed, let the caller see it
+    }
+    for (int j = 0; j < computed.size(); j++) {
+      int i = missIndex.get(j);
+      results.set(i, computed.get(j));
+      try {
+        put.put(keys.get(i), computed.get(j));
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("PartialDecryptionMemo %s write failed, continuing without it", path);
+      }
+    }
+    try {
+      force();
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("PartialDecryptionMemo %s force failed, continuing without it", path);
+    }
+    return results;
+  }
+
+  String stats() {
+    return String.format("PartialDecryptionMemo %s records=%d bytes=%d hits=%d misses=%d",
+            path, index.size(), size, hits.get(), misses.get());
+  }
+
+  @Override
+  public void close() throws IOException {
+    lock.writeLock().lock();
+    try {
+      channel.force(true);
+      channel.close();
+      logger.atInfo().log("%s", stats());
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  ////////////////////////////////////////////////////////////////////////////////
+
+  @Nullable
+  private List<byte[]> read(ByteString key, int nelems) {
+    lock.readLock().lock();
+    try {
+      Long offset = index.get(key);
+      List<byte[]> elems = null;
+      if (offset != null) {
+        try {
+          elems = readRecord(channel, offset, key);
+        } catch (IOException e) {
+          logger.atWarning().withCause(e).log("PartialDecryptionMemo read failed at %d", offset);
+        }
+      }
+      if (elems == null || elems.size() != nelems) {
+        misses.incrementAndGet();
+        return null;
+      }
+      hits.incrementAndGet();
+      return elems;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private void append(ByteString key, List<byte[]> elems) throws IOException {
+    lock.writeLock().lock();
+    try {
+      if (index.containsKey(key)) {
+        return;
+      }
+      ByteBuffer record = makeRecord(key, elems);
+      long offset = size;
+      while (record.hasRemaining()) {
+        channel.write(record, size + record.position());
+      }
+      size += record.limit();
+      index.put(key, offset);
+      if (size > maxBytes) {
+        compact();
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Force the records appended so far to disk. */
+  private void force() throws IOException {
+    lock.writeLock().lock();
+    try {
+      channel.force(false);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Read all the records, dropping a torn record at the end, and skipping a corrupt one before it. */
+  private void load() throws IOException {
+    long offset = 0;
+    long fileSize = channel.size();
+    while (offset < fileSize) {
+      Record record = readHeader(channel, offset, fileSize);
+      if (record != null) {
+        index.put(record.key, offset);
+        offset += record.totalBytes;
+        continue;
+      }
+      long end = recordEnd(channel, offset, fileSize);
+      if (end < 0) {
+        throw new IOException(String.format("PartialDecryptionMemo %s is corrupt at %d of %d bytes", path, offset, fileSize));
+      }
+      if (end >= fileSize) {
+        logger.atWarning().log("PartialDecryptionMemo %s truncated at %d of %d bytes", path, offset, fileSize);
+        channel.truncate(offset);
+        channel.force(true);
+        break;
+      }
+      logger.atWarning().log("PartialDecryptionMemo %s skipped corrupt record at %d of %d bytes", path, offset, fileSize);
+      offset = end;
+    }
+    this.size = offset;
+  }
+
+  /** Where the record at offset ends, going by its length alone, or -1 if the length can't be a record's. */
+  private static long recordEnd(FileChannel channel, long offset, long fileSize) throws IOException {
+    if (offset + 4 > fileSize) {
+      return fileSize;
+    }
+    int length = readFully(channel, offset, 4).getInt();
+    if (length < KEY_BYTES || length > MAX_LENGTH) {
+      return -1;
+    }
+    return offset + 4 + length + 4;
+  }
+
+  /** Rewrite the file with one record per key, dropping the oldest records if its still too big. Call with the write lock. */
+  private void compact() throws IOException {
+    List<Map.Entry<ByteString, Long>> live = new ArrayList<>(index.entrySet());
+    live.sort(Map.Entry.comparingByValue(Comparator.reverseOrder())); // newest first
+
+    Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+    Map<ByteString, Long> compacted = new HashMap<>();
+    List<ByteBuffer> records = new ArrayList<>();
+    long target = maxBytes * 3 / 4;
+    long newSize = 0;
+    for (Map.Entry<ByteString, Long> entry : live) {
+      List<byte[]> elems = readRecord(channel, entry.getValue(), entry.getKey());
+      if (elems == null) {
+        continue;
+      }
+      ByteBuffer record = makeRecord(entry.getKey(), elems);
+      if (newSize + record.limit() > target) {
+        break;
+      }
+      records.add(record);
+      newSize += record.limit();
+    }
+
+    // write oldest first, so the order of the records stays oldest to newest
+    try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      long offset = 0;
+      for (int i = records.size() - 1; i >= 0; i--) {
+        ByteBuffer record = records.get(i);
+        compacted.put(key(record), offset);
+        while (record.hasRemaining()) {
+          out.write(record);
+        }
+        offset += record.limit();
+      }
+      out.force(true);
+    }
+    // the old file stays open until the new one is in place, so a failed move leaves the memo as it was
+    try {
+      Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      Files.deleteIfExists(tmp);
+      throw e;
+    }
+    FileChannel old = channel;
+    channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    old.close();
+
+    logger.atInfo().log("PartialDecryptionMemo %s compacted from %d records, %d bytes to %d records, %d bytes",
+            path, index.size(), size, compacted.size(), newSize);
+    index.clear();
+    index.putAll(compacted);
+    size = newSize;
+  }
+
+  private static ByteBuffer makeRecord(ByteString key, List<byte[]> elems) {
+    int length = KEY_BYTES + elems.stream().mapToInt(e -> 2 + e.length).sum();
+    ByteBuffer record = ByteBuffer.allocate(4 + length + 4);
+    record.putInt(length);
+    key.copyTo(record);
+    for (byte[] elem : elems) {
+      record.putShort((short) elem.length);
+      record.put(elem);
+    }
+    CRC32 crc = new CRC32();
+    crc.update(record.array(), 4, length);
+    record.putInt((int) crc.getValue());
+    record.flip();
+    return record;
+  }
+
+  private static ByteString key(ByteBuffer record) {
+    return ByteString.copyFrom(record.array(), 4, KEY_BYTES);
+  }
+
+  private static class Record {
+    final ByteString key;
+    final ByteBuffer payload;
+    final long totalBytes;
+
+    Record(ByteString key, ByteBuffer payload, long totalBytes) {
+      this.key = key;
+      this.payload = payload;
+      this.totalBytes = totalBytes;
+    }
+  }
+
+  /** Read and check the record at offset, or null if its incomplete or corrupt. */
+  @Nullable
+  private static Record readHeader(FileChannel channel, long offset, long fileSize) throws IOException {
+    if (offset + 4 > fileSize) {
+      return null;
+    }
+    ByteBuffer lengthBuf = readFully(channel, offset, 4);
+    int length = lengthBuf.getInt();
+    if (length < KEY_BYTES || offset + 4 + length + 4 > fileSize) {
+      return null;
+    }
+    ByteBuffer payload = readFully(channel, offset + 4, length + 4);
+    CRC32 crc = new CRC32();
+    crc.update(payload.array(), 0, length);
+    if ((int) crc.getValue() != payload.getInt(length)) {
+      return null;
+    }
+    payload.limit(length);
+    return new Record(ByteString.copyFrom(payload.array(), 0, KEY_BYTES), payload, 4 + length + 4);
+  }
+
+  @Nullable
+  private static List<byte[]> readRecord(FileChannel channel, long offset, ByteString key) throws IOException {
+    Record record = readHeader(channel, offset, channel.size());
+    if (record == null || !record.key.equals(key)) {
+      return null;
+    }
+    ByteBuffer payload = record.payload;
+    payload.position(KEY_BYTES);
+    List<byte[]> elems = new ArrayList<>(4);
+    while (payload.hasRemaining()) {
+      byte[] elem = new byte[payload.getShort() & 0xffff];
+      payload.get(elem);
+      elems.add(elem);
+    }
+    return elems;
+  }
+
+  private static ByteBuffer readFully(FileChannel channel, long offset, int n) throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate(n);
+    while (buf.hasRemaining()) {
+      if (channel.read(buf, offset + buf.position()) < 0) {
+        throw new IOException("unexpected end of file");
+      }
+    }
+    buf.flip();
+    return buf;
+  }
+
+  private ElementModP elementModP(byte[] bytes) {
+    return new ProductionElementModP(new BigInteger(1, bytes), (ProductionGroupContext) group);
+  }
+
+  private ElementModQ elementModQ(byte[] bytes) {
+    return new ProductionElementModQ(new BigInteger(1, bytes), (ProductionGroupContext) group);
+  }
+}
@@ -6,22 +6,39 @@ import com.google.common.flogger.FluentLogger;
 import electionguard.core.ElGamalCiphertext;
 import electionguard.core.ElementModP;
 import electionguard.core.ElementModQ;
+import electionguard.core.GenericChaumPedersenProof;
 import electionguard.core.GroupContext;
 import electionguard.protogen2.CommonProto;
 import electionguard.protogen2.CommonRpcProto;
 import electionguard.protogen2.DecryptingTrusteeProto;
 import electionguard.protogen2.DecryptingTrusteeServiceGrpc;
 import electionguard.util.ConvertCommonProto;
+import electionguard.util.ConvertPackedProto;
+import electionguard.util.GrpcChannels;
+import electionguard.util.GuardianRoute;
+import electionguard.util.Priority;
+import electionguard.util.RpcPolicy;
 
+import io.grpc.ClientInterceptor;
 import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
+import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.StreamObserver;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
-
-import static electionguard.util.KUtils.productionGroup;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
 
 /**
  * A Remote Trustee client proxy, communicating over gRpc.
@@ -29,6 +46,8 @@ import static electionguard.util.KUtils.productionGroup;
  */
 class RemoteDecryptingTrusteeProxy implements DecryptingTrusteeIF  {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+  static final int SHUTDOWN_SECS = 5; // to wait for the channel to close
+  static final int DEFAULT_CHUNK_SIZE = 500; // each 4096-bit ciphertext is ~1 Kb, so ~500 Kb per message
 
   @Override
   public String id() {
@@ -51,23 +70,38 @@ class RemoteDecryptingTrusteeProxy implements DecryptingTrusteeIF  {
           List<ElGamalCiphertext> texts,
           ElementModQ extendedBaseHash,
           @Nullable ElementModQ nonce) {
-    try {
-      List<CommonProto.ElGamalCiphertext> ptexts = texts.stream()
-              .map(ConvertCommonProto::publishCiphertext)
-              .toList();
+    if (useStreaming && texts.size() > chunkSize) {
+      try {
+        return directDecryptStream(group, texts, extendedBaseHash);
+      } catch (StatusRuntimeException e) {
+        if (e.getStatus().getCode() != Status.Code.UNIMPLEMENTED) {
+          logger.atSevere().withCause(e).log("directDecryptStream failed: ");
+          return ImmutableList.of();
+        }
+        logger.atWarning().log("%s does not implement directDecryptStream, using directDecrypt", trusteeId);
+        useStreaming = false;
+      }
+    }
 
+    try {
       DecryptingTrusteeProto.DirectDecryptionRequest.Builder request = DecryptingTrusteeProto.DirectDecryptionRequest.newBuilder()
-              .addAllText(ptexts)
-              .setExtendedBaseHash(ConvertCommonProto.publishElementModQ(extendedBaseHash));
+              .setExtendedBaseHash(ConvertCommonProto.publishElementModQ(extendedBaseHash))
+              .setRequestId(UUID.randomUUID().toString());
+      if (packedEncoding) {
+        request.setPackedText(ConvertPackedProto.publishCiphertextBatch(group, texts));
+      } else {
+        request.addAllText(ConvertCommonProto.publishCiphertexts(texts));
+      }
 
-      DecryptingTrusteeProto.DirectDecryptionResponse response = blockingStub.directDecrypt(request.build());
+      DecryptingTrusteeProto.DirectDecryptionRequest built = request.build();
+      DecryptingTrusteeProto.DirectDecryptionResponse response = rpcPolicy.callHedged(trusteeId + " directDecrypt", texts.size(),
+              deadline -> futureStub.withDeadline(deadline).directDecrypt(built),
+              deadline -> hedgeStub.withDeadline(deadline).directDecrypt(built));
       if (!response.getError().isEmpty()) {
         logger.atSevere().log("directDecrypt failed: %s", response.getError());
         return ImmutableList.of();
       }
-      return response.getResultsList().stream()
-              .map(r -> convertDecryptionProofTuple(group, r))
-              .toList();
+      return importDirectResults(group, texts.size(), response.getResultsList(), response.hasPackedResults() ? response.getPackedResults() : null);
 
     } catch (StatusRuntimeException e) {
       logger.atSevere().withCause(e).log("directDecrypt failed: ");
@@ -75,6 +109,82 @@ class RemoteDecryptingTrusteeProxy implements DecryptingTrusteeIF  {
     }
   }
 
+  /** Send the texts in chunks of chunkSize, and collect the results as they are streamed back. */
+  private List<DirectDecryptionAndProof> directDecryptStream(
+          GroupContext group,
+          List<ElGamalCiphertext> texts,
+          ElementModQ extendedBaseHash) {
+
+    CommonProto.ElementModQ hash = ConvertCommonProto.publishElementModQ(extendedBaseHash);
+    return rpcPolicy.call(trusteeId + " directDecryptStream", texts.size(), deadline -> {
+      ChunkedCall<DecryptingTrusteeProto.DirectDecryptionChunk, DecryptingTrusteeProto.DirectDecryptionResultChunk, DirectDecryptionAndProof> call =
+              new ChunkedCall<>(texts.size(),
+                      DecryptingTrusteeProto.DirectDecryptionResultChunk::getError,
+                      DecryptingTrusteeProto.DirectDecryptionResultChunk::getStartIndex,
+                      (chunk, expected) -> importDirectResults(group, expected, chunk.getResultsList(), chunk.hasPackedResults() ? chunk.getPackedResults() : null));
+
+      StreamObserver<DecryptingTrusteeProto.DirectDecryptionChunk> requestStream = asyncStub.withDeadline(deadline).directDecryptStream(call);
+      return call.run(requestStream, texts, (start, chunkTexts) -> directChunk(group, hash, start, chunkTexts));
+    });
+  }
+
+  private DecryptingTrusteeProto.DirectDecryptionChunk directChunk(GroupContext group, CommonProto.ElementModQ hash,
+                                                                   int start, List<ElGamalCiphertext> chunkTexts) {
+    DecryptingTrusteeProto.DirectDecryptionChunk.Builder chunk = DecryptingTrusteeProto.DirectDecryptionChunk.newBuilder()
+            .setExtendedBaseHash(hash)
+            .setStartIndex(start);
+    if (packedEncoding) {
+      chunk.setPackedText(ConvertPackedProto.publishCiphertextBatch(group, chunkTexts));
+    } else {
+      chunk.addAllText(ConvertCommonProto.publishCiphertexts(chunkTexts));
+    }
+    return chunk.build();
+  }
+
+  /** The results, which must be one for each of the expected texts; otherwise empty, which is a failure. */
+  private List<DirectDecryptionAndProof> importDirectResults(GroupContext group, int expected,
+                                                             List<DecryptingTrusteeProto.DirectDecryptionResult> results,
+                                                             @Nullable DecryptingTrusteeProto.PackedDecryptionResults packed) {
+    if (packed == null) {
+      if (!checkCount("direct results", expected, results.size())) {
+        return ImmutableList.of();
+      }
+      return results.stream()
+              .map(r -> convertDecryptionProofTuple(group, r))
+              .toList();
+    }
+    List<ElementModP> decryptions;
+    List<ElementModQ> challenges;
+    List<ElementModQ> responses;
+    try {
+      decryptions = ConvertPackedProto.importElementModPBatch(group, packed.getDecryptions());
+      challenges = ConvertPackedProto.importElementModQBatch(group, packed.getProofChallenges());
+      responses = ConvertPackedProto.importElementModQBatch(group, packed.getProofResponses());
+    } catch (IllegalArgumentException e) {
+      logger.atSevere().log("%s sent bad packed direct results: %s", trusteeId, e.getMessage());
+      return ImmutableList.of();
+    }
+    if (!checkCount("packed decryptions", expected, decryptions.size())
+            || !checkCount("packed challenges", expected, challenges.size())
+            || !checkCount("packed responses", expected, responses.size())) {
+      return ImmutableList.of();
+    }
+    List<DirectDecryptionAndProof> tuples = new ArrayList<>(decryptions.size());
+    for (int i = 0; i < decryptions.size(); i++) {
+      tuples.add(new DirectDecryptionAndProof(decryptions.get(i),
+              new GenericChaumPedersenProof(challenges.get(i), responses.get(i))));
+    }
+    return tuples;
+  }
+
+  private boolean checkCount(String what, int expected, int count) {
+    if (count != expected) {
+      logger.atSevere().log("%s sent %d %s, expected %d", trusteeId, count, what, expected);
+      return false;
+    }
+    return true;
+  }
+
   private DirectDecryptionAndProof convertDecryptionProofTuple(GroupContext group, DecryptingTrusteeProto.DirectDecryptionResult proto) {
     return new DirectDecryptionAndProof(
             ConvertCommonProto.importElementModP(group, proto.getDecryption()),
@@ -88,25 +198,39 @@ class RemoteDecryptingTrusteeProxy implements DecryptingTrusteeIF  {
           List<ElGamalCiphertext> texts,
           ElementModQ extendedBaseHash,
           @Nullable ElementModQ nonce) {
+    if (useStreaming && texts.size() > chunkSize) {
+      try {
+        return compensatedDecryptStream(group, missingGuardianId, texts, extendedBaseHash);
+      } catch (StatusRuntimeException e) {
+        if (e.getStatus().getCode() != Status.Code.UNIMPLEMENTED) {
+          logger.atSevere().withCause(e).log("compensatedDecryptStream failed");
+          return ImmutableList.of();
+        }
+        logger.atWarning().log("%s does not implement compensatedDecryptStream, using compensatedDecrypt", trusteeId);
+        useStreaming = false;
+      }
+    }
 
     try {
-      List<CommonProto.ElGamalCiphertext> ptexts = texts.stream()
-              .map(ConvertCommonProto::publishCiphertext)
-              .toList();
-
       DecryptingTrusteeProto.CompensatedDecryptionRequest.Builder request = DecryptingTrusteeProto.CompensatedDecryptionRequest.newBuilder()
               .setMissingGuardianId(missingGuardianId)
-              .addAllText(ptexts)
-              .setExtendedBaseHash(ConvertCommonProto.publishElementModQ(extendedBaseHash));
+              .setExtendedBaseHash(ConvertCommonProto.publishElementModQ(extendedBaseHash))
+              .setRequestId(UUID.randomUUID().toString());
+      if (packedEncoding) {
+        request.setPackedText(ConvertPackedProto.publishCiphertextBatch(group, texts));
+      } else {
+        request.addAllText(ConvertCommonProto.publishCiphertexts(texts));
+      }
 
-      DecryptingTrusteeProto.CompensatedDecryptionResponse response = blockingStub.compensatedDecrypt(request.build());
+      DecryptingTrusteeProto.CompensatedDecryptionRequest built = request.build();
+      DecryptingTrusteeProto.CompensatedDecryptionResponse response = rpcPolicy.callHedged(trusteeId + " compensatedDecrypt", texts.size(),
+              deadline -> futureStub.withDeadline(deadline).compensatedDecrypt(built),
+              deadline -> hedgeStub.withDeadline(deadline).compensatedDecrypt(built));
       if (!response.getError().isEmpty()) {
         logger.atSevere().log("compensatedDecrypt failed: %s", response.getError());
         return ImmutableList.of();
       }
-      return response.getResultsList().stream()
-              .map(r -> convertDecryptionProofRecovery(group, r))
-              .toList();
+      return importCompensatedResults(group, texts.size(), response.getResultsList(), response.hasPackedResults() ? response.getPackedResults() : null);
 
     } catch (StatusRuntimeException e) {
       logger.atSevere().withCause(e).log("compensatedDecrypt failed");
@@ -114,6 +238,165 @@ class RemoteDecryptingTrusteeProxy implements DecryptingTrusteeIF  {
     }
   }
 
+  /** Send the texts in chunks of chunkSize, and collect the results as they are streamed back. */
+  private List<CompensatedDecryptionAndProof> compensatedDecryptStream(
+          GroupContext group,
+          String missingGuardianId,
+          List<ElGamalCiphertext> texts,
+          ElementModQ extendedBaseHash) {
+
+    CommonProto.ElementModQ hash = ConvertCommonProto.publishElementModQ(extendedBaseHash);
+    return rpcPolicy.call(trusteeId + " compensatedDecryptStream", texts.size(), deadline -> {
+      ChunkedCall<DecryptingTrusteeProto.CompensatedDecryptionChunk, DecryptingTrusteeProto.CompensatedDecryptionResultChunk, CompensatedDecryptionAndProof> call =
+              new ChunkedCall<>(texts.size(),
+                      DecryptingTrusteeProto.CompensatedDecryptionResultChunk::getError,
+                      DecryptingTrusteeProto.CompensatedDecryptionResultChunk::getStartIndex,
+                      (chunk, expected) -> importCompensatedResults(group, expected, chunk.getResultsList(), chunk.hasPackedResults() ? chunk.getPackedResults() : null));
+
+      StreamObserver<DecryptingTrusteeProto.CompensatedDecryptionChunk> requestStream = asyncStub.withDeadline(deadline).compensatedDecryptStream(call);
+      return call.run(requestStream, texts, (start, chunkTexts) -> compensatedChunk(group, hash, missingGuardianId, start, chunkTexts));
+    });
+  }
+
+  private DecryptingTrusteeProto.CompensatedDecryptionChunk compensatedChunk(GroupContext group, CommonProto.ElementModQ hash,
+                                                                             String missingGuardianId, int start,
+                                                                             List<ElGamalCiphertext> chunkTexts) {
+    DecryptingTrusteeProto.CompensatedDecryptionChunk.Builder chunk = DecryptingTrusteeProto.CompensatedDecryptionChunk.newBuilder()
+            .setExtendedBaseHash(hash)
+            .setMissingGuardianId(missingGuardianId)
+            .setStartIndex(start);
+    if (packedEncoding) {
+      chunk.setPackedText(ConvertPackedProto.publishCiphertextBatch(group, chunkTexts));
+    } else {
+      chunk.addAllText(ConvertCommonProto.publishCiphertexts(chunkTexts));
+    }
+    return chunk.build();
+  }
+
+  /** The results, which must be one for each of the expected texts; otherwise empty, which is a failure. */
+  private List<CompensatedDecryptionAndProof> importCompensatedResults(GroupContext group, int expected,
+                                                                       List<DecryptingTrusteeProto.CompensatedDecryptionResult> results,
+                                                                       @Nullable DecryptingTrusteeProto.PackedDecryptionResults packed) {
+    if (packed == null) {
+      if (!checkCount("compensated results", expected, results.size())) {
+        return ImmutableList.of();
+      }
+      return results.stream()
+              .map(r -> convertDecryptionProofRecovery(group, r))
+              .toList();
+    }
+    List<ElementModP> decryptions;
+    List<ElementModQ> challenges;
+    List<ElementModQ> responses;
+    List<ElementModP> recoveryKeys;
+    try {
+      decryptions = ConvertPackedProto.importElementModPBatch(group, packed.getDecryptions());
+      challenges = ConvertPackedProto.importElementModQBatch(group, packed.getProofChallenges());
+      responses = ConvertPackedProto.importElementModQBatch(group, packed.getProofResponses());
+      recoveryKeys = ConvertPackedProto.importElementModPBatch(group, packed.getRecoveryPublicKeys());
+    } catch (IllegalArgumentException e) {
+      logger.atSevere().log("%s sent bad packed compensated results: %s", trusteeId, e.getMessage());
+      return ImmutableList.of();
+    }
+    if (!checkCount("packed decryptions", expected, decryptions.size())
+            || !checkCount("packed challenges", expected, challenges.size())
+            || !checkCount("packed responses", expected, responses.size())
+            || !checkCount("packed recovery keys", expected, recoveryKeys.size())) {
+      return ImmutableList.of();
+    }
+    List<CompensatedDecryptionAndProof> tuples = new ArrayList<>(decryptions.size());
+    for (int i = 0; i < decryptions.size(); i++) {
+      tuples.add(new CompensatedDecryptionAndProof(decryptions.get(i),
+              new GenericChaumPedersenProof(challenges.get(i), responses.get(i)),
+              recoveryKeys.get(i)));
+    }
+    return tuples;
+  }
+
+  /**
+   * The direct decryption and the compensated decryption for each of the missing guardians, sending each chunk of
+   * texts once. Returns null if the trustee doesnt implement decryptAll; the caller should then make the separate calls.
+   * On failure, the lists in the result are empty.
+   */
+  @Nullable
+  AllDecryptions decryptAll(GroupContext group, List<ElGamalCiphertext> texts, ElementModQ extendedBaseHash,
+                            List<String> missingGuardianIds) {
+    CommonProto.ElementModQ hash = ConvertCommonProto.publishElementModQ(extendedBaseHash);
+    AllDecryptions all = new AllDecryptions(missingGuardianIds);
+    try {
+      for (int start = 0; start < texts.size(); start += chunkSize) {
+        List<ElGamalCiphertext> chunk = texts.subList(start, Math.min(start + chunkSize, texts.size()));
+        DecryptingTrusteeProto.DecryptAllRequest.Builder request = DecryptingTrusteeProto.DecryptAllRequest.newBuilder()
+                .setExtendedBaseHash(hash)
+                .addAllMissingGuardianIds(missingGuardianIds)
+                .setRequestId(UUID.randomUUID().toString());
+        if (packedEncoding) {
+          request.setPackedText(ConvertPackedProto.publishCiphertextBatch(group, chunk));
+        } else {
+          request.addAllText(ConvertCommonProto.publishCiphertexts(chunk));
+        }
+
+        DecryptingTrusteeProto.DecryptAllRequest built = request.build();
+        DecryptingTrusteeProto.DecryptAllResponse response = rpcPolicy.callHedged(trusteeId + " decryptAll",
+                chunk.size() * (1 + missingGuardianIds.size()),
+                deadline -> futureStub.withDeadline(deadline).decryptAll(built),
+                deadline -> hedgeStub.withDeadline(deadline).decryptAll(built));
+        if (!response.getError().isEmpty()) {
+          logger.atSevere().log("decryptAll failed: %s", response.getError());
+          return new AllDecryptions(missingGuardianIds);
+        }
+        if (response.getCompensatedResultsCount() != missingGuardianIds.size()) {
+          logger.atSevere().log("decryptAll returned %d compensated results, expected %d",
+                  response.getCompensatedResultsCount(), missingGuardianIds.size());
+          return new AllDecryptions(missingGuardianIds);
+        }
+        List<DirectDecryptionAndProof> direct = importDirectResults(group, chunk.size(), ImmutableList.of(), response.getDirectResults());
+        if (direct.isEmpty() && !chunk.isEmpty()) {
+          return new AllDecryptions(missingGuardianIds);
+        }
+        all.direct.addAll(direct);
+        for (int i = 0; i < missingGuardianIds.size(); i++) {
+          List<CompensatedDecryptionAndProof> compensated =
+                  importCompensatedResults(group, chunk.size(), ImmutableList.of(), response.getCompensatedResults(i));
+          if (compensated.isEmpty() && !chunk.isEmpty()) {
+            return new AllDecryptions(missingGuardianIds);
+          }
+          all.compensated.get(missingGuardianIds.get(i)).addAll(compensated);
+        }
+      }
+      return all;
+
+    } catch (StatusRuntimeException e) {
+      if (e.getStatus().getCode() == Status.Code.UNIMPLEMENTED) {
+        logger.atWarning().log("%s does not implement decryptAll, using directDecrypt and compensatedDecrypt", trusteeId);
+        useDecryptAll = false;
+        return null;
+      }
+      logger.atSevere().withCause(e).log("decryptAll failed");
+      return new AllDecryptions(missingGuardianIds);
+    }
+  }
+
+  /** False once the trustee has said it doesnt implement decryptAll. */
+  boolean supportsDecryptAll() {
+    return useDecryptAll;
+  }
+
+  /** The results of decryptAll. */
+  static class AllDecryptions {
+    final List<DirectDecryptionAndProof> direct = new ArrayList<>();
+    final Map<String, List<CompensatedDecryptionAndProof>> compensated = new HashMap<>();
+
+    AllDecryptions(List<String> missingGuardianIds) {
+      missingGuardianIds.forEach(id -> compensated.put(id, new ArrayList<>()));
+    }
+
+    /** If any of the results are missing, the call failed. */
+    boolean isEmpty() {
+      return direct.isEmpty() || compensated.values().stream().anyMatch(List::isEmpty);
+    }
+  }
+
   private CompensatedDecryptionAndProof convertDecryptionProofRecovery(GroupContext group, DecryptingTrusteeProto.CompensatedDecryptionResult proto) {
     return new CompensatedDecryptionAndProof(
             ConvertCommonProto.importElementModP(group, proto.getDecryption()),
@@ -123,10 +406,139 @@ class RemoteDecryptingTrusteeProxy implements DecryptingTrusteeIF  {
 
 
 
+  /**
+   * One bidirectional streaming call. The texts are sent in chunks, respecting the transport's flow control,
+   * and each result chunk is converted and placed at its index as soon as it arrives.
+   * Throws StatusRuntimeException if the call fails, so the caller can fall back to the unary call.
+   */
+  private class ChunkedCall<Req, Resp, T> implements ClientResponseObserver<Req, Resp> {
+    private final Object[] results;
+    private final Function<Resp, String> errorOf;
+    private final ToIntFunction<Resp> startOf;
+    private final BiFunction<Resp, Integer, List<T>> resultsOf; // (chunk, expected count); empty if not as expected
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final Object readyLock = new Object();
+    private volatile ClientCallStreamObserver<Req> requestStream;
+    private volatile String error;
+    private volatile Throwable failure;
+
+    ChunkedCall(int n, Function<Resp, String> errorOf, ToIntFunction<Resp> startOf, BiFunction<Resp, Integer, List<T>> resultsOf) {
+      this.results = new Object[n];
+      this.errorOf = errorOf;
+      this.startOf = startOf;
+      this.resultsOf = resultsOf;
+    }
+
+    @Override
+    public void beforeStart(ClientCallStreamObserver<Req> requestStream) {
+      this.requestStream = requestStream;
+      requestStream.setOnReadyHandler(() -> {
+        synchronized (readyLock) {
+          readyLock.notifyAll();
+        }
+      });
+    }
+
+    @Override
+    public void onNext(Resp chunk) {
+      if (error != null) {
+        return;
+      }
+      if (!errorOf.apply(chunk).isEmpty()) {
+        fail(errorOf.apply(chunk));
+        return;
+      }
+      int start = startOf.applyAsInt(chunk);
+      if (start < 0 || start >= results.length || start % chunkSize != 0) {
+        fail("result chunk has bad start index " + start);
+        return;
+      }
+      List<T> converted = resultsOf.apply(chunk, Math.min(chunkSize, results.length - start));
+      if (converted.isEmpty()) {
+        fail("result chunk at " + start + " has the wrong number of results");
+        return;
+      }
+      for (int i = 0; i < converted.size(); i++) {
+        results[start + i] = converted.get(i);
+      }
+    }
+
+    /** The call has failed, so stop the trustee computing the rest of it. */
+    private void fail(String why) {
+      synchronized (readyLock) { // so the request stream isnt written after its cancelled
+        error = why;
+        requestStream.cancel(why, null);
+        readyLock.notifyAll();
+      }
+      done.countDown();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      if (error == null) { // else its our own cancel
+        failure = t;
+      }
+      done.countDown();
+    }
+
+    @Override
+    public void onCompleted() {
+      done.countDown();
+    }
+
+    @SuppressWarnings("unchecked")
+    List<T> run(StreamObserver<Req> requestObserver, List<ElGamalCiphertext> texts,
+                BiFunction<Integer, List<ElGamalCiphertext>, Req> makeChunk) {
+      ClientCallStreamObserver<Req> requestStream = (ClientCallStreamObserver<Req>) requestObserver;
+      try {
+        for (int start = 0; start < texts.size() && done.getCount() > 0; start += chunkSize) {
+          Req chunk = makeChunk.apply(start, texts.subList(start, Math.min(start + chunkSize, texts.size())));
+          synchronized (readyLock) {
+            while (!requestStream.isReady() && done.getCount() > 0) {
+              readyLock.wait(100);
+            }
+            if (error == null) {
+              requestStream.onNext(chunk);
+            }
+          }
+        }
+        synchronized (readyLock) {
+          if (error == null) {
+            requestStream.onCompleted();
+          }
+        }
+        done.await();
+
+      } catch (InterruptedException e) {
+        requestStream.cancel("interrupted", e);
+        Thread.currentThread().interrupt();
+        return ImmutableList.of();
+      } catch (RuntimeException e) {
+        requestStream.cancel("failed", e);
+        throw e;
+      }
+
+      if (failure != null) {
+        throw Status.fromThrowable(failure).asRuntimeException();
+      }
+      if (error != null) {
+        logger.atSevere().log("%s decrypt stream failed: %s", trusteeId, error);
+        return ImmutableList.of();
+      }
+      for (Object result : results) {
+        if (result == null) {
+          logger.atSevere().log("%s decrypt stream is missing results", trusteeId);
+          return ImmutableList.of();
+        }
+      }
+      return (List<T>) Arrays.asList(results);
+    }
+  }
+
   boolean finish(boolean allOk) {
     try {
       CommonRpcProto.FinishRequest request = CommonRpcProto.FinishRequest.newBuilder().setAllOk(allOk).build();
-      CommonRpcProto.ErrorResponse response = blockingStub.finish(request);
+      CommonRpcProto.ErrorResponse response = blockingStub.withDeadline(rpcPolicy.deadline(0)).finish(request);
       if (!response.getError().isEmpty()) {
         logger.atSevere().log("commit failed: %s", response.getError());
         return false;
@@ -140,9 +552,17 @@ class RemoteDecryptingTrusteeProxy implements DecryptingTrusteeIF  {
     }
   }
 
+  /** Wait until the channel to the trustee is connected; false if it isnt ready within the timeout. */
+  boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+    return GrpcChannels.awaitReady(channel, timeout, unit);
+  }
+
   boolean shutdown() {
     try {
-      channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+      channel.shutdownNow().awaitTermination(SHUTDOWN_SECS, TimeUnit.SECONDS);
+      if (hedgeChannel != channel) {
+        hedgeChannel.shutdownNow().awaitTermination(SHUTDOWN_SECS, TimeUnit.SECONDS);
+      }
       return true;
     } catch (InterruptedException e) {
       e.printStackTrace();
@@ -151,33 +571,56 @@ class RemoteDecryptingTrusteeProxy implements DecryptingTrusteeIF  {
   }
 
   ////////////////////////////////////////////
-  private final GroupContext group;
   private final String trusteeId;
   private final int xCoordinate;
   private final ElementModP electionPublicKey;
   private final ManagedChannel channel;
+  private final ManagedChannel hedgeChannel; // another connection to the trustee, for hedged attempts; idle until used
   private final DecryptingTrusteeServiceGrpc.DecryptingTrusteeServiceBlockingStub blockingStub;
+  private final DecryptingTrusteeServiceGrpc.DecryptingTrusteeServiceStub asyncStub;
+  private final DecryptingTrusteeServiceGrpc.DecryptingTrusteeServiceFutureStub futureStub;
+  private final DecryptingTrusteeServiceGrpc.DecryptingTrusteeServiceFutureStub hedgeStub;
+  private final RpcPolicy rpcPolicy;
+  private final int chunkSize;
+  private final boolean packedEncoding; // the trustee accepts CiphertextBatch
+  private volatile boolean useStreaming = true; // set false if the trustee doesnt implement the streaming calls
+  private volatile boolean useDecryptAll = true; // set false if the trustee doesnt implement decryptAll
 
   static Builder builder() {
     return new Builder();
   }
 
-  private RemoteDecryptingTrusteeProxy(String trusteeId, int xCoordinate, ElementModP electionPublicKey, ManagedChannel channel) {
+  private RemoteDecryptingTrusteeProxy(String trusteeId, int xCoordinate, ElementModP electionPublicKey, ManagedChannel channel,
+                                       ManagedChannel hedgeChannel, int chunkSize, boolean packedEncoding, RpcPolicy rpcPolicy) {
     this.trusteeId = Preconditions.checkNotNull(trusteeId);
     Preconditions.checkArgument(xCoordinate > 0);
     this.xCoordinate = xCoordinate;
     this.electionPublicKey = Preconditions.checkNotNull(electionPublicKey);
     this.channel = Preconditions.checkNotNull(channel);
-    this.blockingStub = DecryptingTrusteeServiceGrpc.newBlockingStub(channel);
-
-    this.group = productionGroup();
+    this.hedgeChannel = Preconditions.checkNotNull(hedgeChannel);
+    // each call carries the Priority of the Context it is made in, and the trustee id in case the trustee is hosted
+    ClientInterceptor route = GuardianRoute.clientInterceptor(trusteeId);
+    this.blockingStub = DecryptingTrusteeServiceGrpc.newBlockingStub(channel).withInterceptors(Priority.clientInterceptor(), route);
+    this.asyncStub = DecryptingTrusteeServiceGrpc.newStub(channel).withInterceptors(Priority.clientInterceptor(), route);
+    this.futureStub = DecryptingTrusteeServiceGrpc.newFutureStub(channel).withInterceptors(Priority.clientInterceptor(), route);
+    this.hedgeStub = DecryptingTrusteeServiceGrpc.newFutureStub(hedgeChannel).withInterceptors(Priority.clientInterceptor(), route);
+    this.rpcPolicy = Preconditions.checkNotNull(rpcPolicy);
+    Preconditions.checkArgument(chunkSize > 0);
+    this.chunkSize = chunkSize;
+    this.packedEncoding = packedEncoding;
+    channel.getState(true); // start connecting now, not on the first call
   }
 
   static class Builder {
     String trusteeId;
     String target;
+    ManagedChannel channel;
+    ManagedChannel hedgeChannel;
     int xCoordinate;
     ElementModP electionPublicKey;
+    int chunkSize = DEFAULT_CHUNK_SIZE;
+    boolean packedEncoding;
+    RpcPolicy rpcPolicy = RpcPolicy.DEFAULT;
 
     Builder setTrusteeId(String trusteeId) {
       this.trusteeId = trusteeId;
@@ -189,6 +632,18 @@ class RemoteDecryptingTrusteeProxy implements DecryptingTrusteeIF  {
       return this;
     }
 
+    /** Use this channel instead of one to the url, eg an in-process channel. */
+    Builder setChannel(ManagedChannel channel) {
+      this.channel = channel;
+      return this;
+    }
+
+    /** Send hedged attempts on this channel; by default another channel to the url, or the same channel as setChannel. */
+    Builder setHedgeChannel(ManagedChannel hedgeChannel) {
+      this.hedgeChannel = hedgeChannel;
+      return this;
+    }
+
     Builder setXCoordinate(int xCoordinate) {
       this.xCoordinate = xCoordinate;
       return this;
@@ -199,14 +654,30 @@ class RemoteDecryptingTrusteeProxy implements DecryptingTrusteeIF  {
       return this;
     }
 
+    /** Texts lists larger than this are streamed in chunks of this size. */
+    Builder setChunkSize(int chunkSize) {
+      this.chunkSize = chunkSize;
+      return this;
+    }
+
+    /** Set if the trustee registered as accepting CiphertextBatch. */
+    Builder setPackedEncoding(boolean packedEncoding) {
+      this.packedEncoding = packedEncoding;
+      return this;
+    }
+
+    /** Deadlines and retries of the calls to the trustee. */
+    Builder setRpcPolicy(RpcPolicy rpcPolicy) {
+      this.rpcPolicy = rpcPolicy;
+      return this;
+    }
+
     RemoteDecryptingTrusteeProxy build() {
-      ManagedChannel channel = ManagedChannelBuilder.forTarget(target)
-              .usePlaintext()
-              .keepAliveTime(1, TimeUnit.MINUTES)
-              // .enableFullStreamDecompression()
-              // .maxInboundMessageSize(MAX_MESSAGE)
-              .build();
-      return new RemoteDecryptingTrusteeProxy(trusteeId, xCoordinate, electionPublicKey, channel);
+      ManagedChannel channel = this.channel != null ? this.channel : GrpcChannels.forTarget(target).build();
+      ManagedChannel hedgeChannel = this.hedgeChannel != null ? this.hedgeChannel :
+              this.channel != null ? this.channel : GrpcChannels.forTarget(target).build();
+      return new RemoteDecryptingTrusteeProxy(trusteeId, xCoordinate, electionPublicKey, channel, hedgeChannel, chunkSize,
+              packedEncoding, rpcPolicy);
     }
   }
 }
@@ -5,8 +5,8 @@ import electionguard.core.ElementModP;
 import electionguard.protogen2.DecryptingProto;
 import electionguard.protogen2.DecryptingServiceGrpc;
 import electionguard.util.ConvertCommonProto;
+import electionguard.util.GrpcChannels;
 import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
 import io.grpc.StatusRuntimeException;
 
 import javax.annotation.Nullable;
@@ -19,11 +19,7 @@ class RemoteDecryptorProxy {
   private final DecryptingServiceGrpc.DecryptingServiceBlockingStub blockingStub;
 
   RemoteDecryptorProxy(String url) {
-    this.channel = ManagedChannelBuilder.forTarget(url)
-            .usePlaintext()
-            // .enableFullStreamDecompression()
-            // .maxInboundMessageSize(2000)
-            .build();
+    this.channel = GrpcChannels.forTarget(url).build();
 
     blockingStub = DecryptingServiceGrpc.newBlockingStub(channel);
   }
@@ -40,13 +36,14 @@ class RemoteDecryptorProxy {
 
   @Nullable
   DecryptingProto.RegisterDecryptingTrusteeResponse registerTrustee(String guardianId, String remoteUrl, int coordinate,
-                                               ElementModP publicKey) {
+                                               ElementModP publicKey, boolean packedEncoding) {
     try {
       DecryptingProto.RegisterDecryptingTrusteeRequest request = DecryptingProto.RegisterDecryptingTrusteeRequest.newBuilder()
               .setGuardianId(guardianId)
               .setRemoteUrl(remoteUrl)
               .setGuardianXCoordinate(coordinate)
               .setPublicKey(ConvertCommonProto.publishElementModP(publicKey))
+              .setPackedEncoding(packedEncoding)
               .build();
 
       DecryptingProto.RegisterDecryptingTrusteeResponse response = blockingStub.registerTrustee(request);
@@ -3,23 +3,43 @@ package electionguard.decrypt;
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
+import com.google.common.base.Preconditions;
 import com.google.common.flogger.FluentLogger;
 import electionguard.core.ElGamalCiphertext;
+import electionguard.core.ElementModQ;
 import electionguard.core.GroupContext;
+import electionguard.core.PowRadixOption;
+import electionguard.core.ProductionMode;
+import electionguard.protogen2.CommonProto;
 import electionguard.protogen2.CommonRpcProto;
 import electionguard.protogen2.DecryptingProto;
 import electionguard.protogen2.DecryptingTrusteeProto;
 import electionguard.protogen2.DecryptingTrusteeServiceGrpc;
+import electionguard.util.AnswerCache;
 import electionguard.util.ConvertCommonProto;
+import electionguard.util.ConvertPackedProto;
+import electionguard.util.CryptoExecutor;
+import electionguard.util.KUtils;
+import electionguard.util.Priority;
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 
 import java.io.IOException;
 import java.net.ServerSocket;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static electionguard.publish.ReaderKt.readTrustee;
 import static electionguard.util.KUtils.productionGroup;
@@ -39,7 +59,28 @@ public class RunRemoteDecryptingTrustee extends DecryptingTrusteeServiceGrpc.Dec
     @Parameter(names = {"-serverPort"}, order = 4, description = "The DecryptingRemote server port")
     int serverPort = 17711;
 
-    @Parameter(names = {"-h", "--help"}, order = 9, description = "Display this help and exit", help = true)
+    @Parameter(names = {"-threads"}, order = 5, description = "Number of threads used to compute partial decryptions")
+    int nthreads = Runtime.getRuntime().availableProcessors();
+
+    @Parameter(names = {"-memo"}, order = 6, description = "Keep computed partial decryptions in a file in the trustee's directory, and reuse them on a rerun")
+    boolean memo = false;
+
+    @Parameter(names = {"-memoMaxMB"}, order = 7, description = "Compact the memo file when it grows past this many megabytes")
+    int memoMaxMB = 1024;
+
+    @Parameter(names = {"-maxBatches"}, order = 8, description = "Number of requests that may be decrypting at once")
+    int maxBatches = DEFAULT_MAX_BATCHES;
+
+    @Parameter(names = {"-maxQueued"}, order = 9, description = "Number of requests that may wait to be decrypted; more are rejected as busy")
+    int maxQueued = DEFAULT_MAX_QUEUED;
+
+    @Parameter(names = {"-powRadix"}, order = 10, description = "Size of the fixed-base g^x tables, which each process keeps in memory")
+    PowRadixOption powRadix = KUtils.DEFAULT_POW_RADIX;
+
+    @Parameter(names = {"-productionMode"}, order = 11, description = "The group, which must match the election record")
+    ProductionMode productionMode = KUtils.DEFAULT_PRODUCTION_MODE;
+
+    @Parameter(names = {"-h", "--help"}, order = 12, description = "Display this help and exit", help = true)
     boolean help = false;
 
     private final JCommander jc;
@@ -70,6 +111,7 @@ public class RunRemoteDecryptingTrustee extends DecryptingTrusteeServiceGrpc.Dec
       System.err.printf("Try '%s --help' for more information.%n", progName);
       System.exit(1);
     }
+    KUtils.configureGroup(cmdLine.powRadix, cmdLine.productionMode);
 
     // which port? if not assigned, pick one at random
     int port = cmdLine.port;
@@ -81,20 +123,26 @@ public class RunRemoteDecryptingTrustee extends DecryptingTrusteeServiceGrpc.Dec
     }
     String url = "localhost:"+port;
     String serverUrl = "localhost:" + cmdLine.serverPort;
-    System.out.printf("*** DecryptingRemoteTrustee from file %s url %s server %s%n",
-            cmdLine.trusteeFile, url, serverUrl);
+    System.out.printf("*** DecryptingRemoteTrustee from file %s url %s server %s threads %d%n",
+            cmdLine.trusteeFile, url, serverUrl, cmdLine.nthreads);
 
     // Now start up our own 'DecryptingRemoteTrustee' Service
     try {
       GroupContext group = productionGroup();
-      DecryptingTrustee delegate = readTrustee(group, cmdLine.trusteeFile);
-      RunRemoteDecryptingTrustee trustee = new RunRemoteDecryptingTrustee(group, delegate);
+      DecryptingTrusteeIF delegate = readTrustee(group, cmdLine.trusteeFile);
+      if (cmdLine.memo) {
+        delegate = withMemo(group, delegate, Path.of(cmdLine.trusteeFile), cmdLine.memoMaxMB);
+      }
+      RunRemoteDecryptingTrustee trustee = new RunRemoteDecryptingTrustee(group, delegate, cmdLine.nthreads,
+              cmdLine.maxBatches, cmdLine.maxQueued);
+      // listen before registering, so the DecryptingRemote can connect as soon as it knows our url
+      trustee.start(port);
 
       if (cmdLine.serverPort != 0) {
         // register with the DecryptingRemote "server".
         RemoteDecryptorProxy proxy = new RemoteDecryptorProxy(serverUrl);
         DecryptingProto.RegisterDecryptingTrusteeResponse response = proxy.registerTrustee(trustee.id(), url,
-                trustee.delegate.xCoordinate(), trustee.delegate.electionPublicKey());
+                trustee.delegate.xCoordinate(), trustee.delegate.electionPublicKey(), true);
         proxy.shutdown();
 
         if (response == null) {
@@ -108,7 +156,6 @@ public class RunRemoteDecryptingTrustee extends DecryptingTrusteeServiceGrpc.Dec
         System.out.printf("    registered with DecryptingRemote %n");
       }
 
-      trustee.start(port);
       trustee.blockUntilShutdown();
       System.exit(0);
 
@@ -119,7 +166,23 @@ public class RunRemoteDecryptingTrustee extends DecryptingTrusteeServiceGrpc.Dec
     }
   }
 
-  private static boolean isLocalPortFree(int port) {
+  /** Keep the trustee's partial decryptions in a memo file next to its trustee file, closed when the JVM exits. */
+  static DecryptingTrusteeIF withMemo(GroupContext group, DecryptingTrusteeIF delegate, Path trusteeFile, int memoMaxMB)
+          throws IOException {
+    Path trusteeDir = trusteeFile.toAbsolutePath().getParent();
+    PartialDecryptionMemo memo = new PartialDecryptionMemo(group,
+            trusteeDir.resolve("partial_decryption_memo_" + delegate.id() + ".dat"), memoMaxMB * 1024L * 1024L);
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      try {
+        memo.close();
+      } catch (IOException e) {
+        e.printStackTrace(System.err);
+      }
+    }));
+    return new MemoizedDecryptingTrustee(delegate, memo);
+  }
+
+  static boolean isLocalPortFree(int port) {
     try {
       new ServerSocket(port).close();
       return true;
@@ -134,7 +197,7 @@ public class RunRemoteDecryptingTrustee extends DecryptingTrusteeServiceGrpc.Dec
   private void start(int port) throws IOException {
     server = ServerBuilder.forPort(port) //
             .addService(this) //
-            // .intercept(new MyServerInterceptor())
+            .intercept(Priority.serverInterceptor())
             .build().start();
 
     Runtime.getRuntime().addShutdownHook(new Thread(() -> {
@@ -151,10 +214,12 @@ public class RunRemoteDecryptingTrustee extends DecryptingTrusteeServiceGrpc.Dec
     System.out.printf("---- DecryptingRemoteTrustee started, listening on %d ----%n", port);
   }
 
-  private void stopit() throws InterruptedException {
+  void stopit() throws InterruptedException {
     if (server != null) {
       server.shutdown().awaitTermination(30, TimeUnit.SECONDS);
     }
+    cryptoExecutor.shutdownNow();
+    computePool.shutdownNow();
   }
 
   /** Await termination on the main thread since the grpc library uses daemon threads. */
@@ -165,37 +230,143 @@ public class RunRemoteDecryptingTrustee extends DecryptingTrusteeServiceGrpc.Dec
   }
 
   ////////////////////////////////////////////////////////////////////////////////
+  private static final int MIN_SHARD = 10; // dont bother splitting lists smaller than this
+  static final int DEFAULT_MAX_BATCHES = 2; // each batch is decrypted on all nthreads, so two keeps them busy
+  static final int DEFAULT_MAX_QUEUED = 8;
+
   private final GroupContext group;
   private final DecryptingTrusteeIF delegate;
+  private final int nthreads;
+  private final ExecutorService computePool;
+  private final CryptoExecutor cryptoExecutor;
+  private final AnswerCache answers; // so a retried or hedged request isnt computed again
+
+  RunRemoteDecryptingTrustee(GroupContext group, DecryptingTrusteeIF delegate, int nthreads) {
+    this(group, delegate, nthreads, DEFAULT_MAX_BATCHES, DEFAULT_MAX_QUEUED);
+  }
+
+  /**
+   * @param nthreads number of threads that compute the partial decryptions of a batch in parallel.
+   * @param maxBatches number of requests (or stream chunks) that may be decrypting at once.
+   * @param maxQueued number of requests that may wait; past that they are rejected with RESOURCE_EXHAUSTED.
+   */
+  RunRemoteDecryptingTrustee(GroupContext group, DecryptingTrusteeIF delegate, int nthreads, int maxBatches, int maxQueued) {
+    this(group, delegate, nthreads, Executors.newFixedThreadPool(nthreads),
+            new CryptoExecutor("decrypt-" + delegate.id(), maxBatches, maxQueued));
+  }
 
-  RunRemoteDecryptingTrustee(GroupContext group, DecryptingTrusteeIF delegate) {
+  /**
+   * A trustee whose decryptions run on a compute pool and crypto executor shared with other trustees in the JVM.
+   * The executor takes turns between the trustees. See RunRemoteDecryptingTrusteeHost.
+   */
+  RunRemoteDecryptingTrustee(GroupContext group, DecryptingTrusteeIF delegate, int nthreads,
+                             ExecutorService computePool, CryptoExecutor cryptoExecutor) {
+    Preconditions.checkArgument(nthreads > 0, "nthreads must be > 0");
     this.group = group;
     this.delegate = delegate;
+    this.nthreads = nthreads;
+    this.computePool = Preconditions.checkNotNull(computePool);
+    this.cryptoExecutor = Preconditions.checkNotNull(cryptoExecutor);
+    this.answers = new AnswerCache(delegate.id(), cryptoExecutor);
   }
 
   String id() {
     return delegate.id();
   }
 
+  /**
+   * Computes the response to each chunk of a stream on the crypto executor, and completes the response stream
+   * once the request stream is complete and all its chunks are answered. The responses carry their start index,
+   * so they may be sent in any order.
+   * The next chunk is only requested once the last one is answered, so a long stream holds one place on the crypto
+   * executor at a time, instead of being rejected as busy once it outruns it; the client waits on flow control.
+   * Must be made in the stream's call handler, before it returns.
+   */
+  private class ChunkResponder<Resp> {
+    private final String what;
+    private final ServerCallStreamObserver<Resp> responseObserver;
+    private int pending = 0; // guarded by this
+    private boolean requestsDone = false; // guarded by this
+    private boolean failed = false; // guarded by this
+
+    ChunkResponder(String what, StreamObserver<Resp> responseObserver) {
+      this.what = what;
+      this.responseObserver = (ServerCallStreamObserver<Resp>) responseObserver;
+      this.responseObserver.disableAutoRequest();
+      this.responseObserver.request(1);
+    }
+
+    void submit(Supplier<Resp> compute) {
+      synchronized (this) {
+        if (failed) {
+          return;
+        }
+        pending++;
+      }
+      boolean admitted = cryptoExecutor.execute(delegate.id(), what, () -> {
+        Resp response = compute.get();
+        synchronized (this) {
+          pending--;
+          if (!failed) {
+            responseObserver.onNext(response);
+            maybeComplete();
+            if (!requestsDone) {
+              responseObserver.request(1);
+            }
+          }
+        }
+      }, failure -> {
+        synchronized (this) {
+          fail(CryptoExecutor.asStatus(failure)); // once failed, pending no longer matters
+        }
+      });
+      if (!admitted) {
+        synchronized (this) {
+          pending--;
+          fail(cryptoExecutor.rejection(what));
+        }
+      }
+    }
+
+    synchronized void requestsDone() {
+      requestsDone = true;
+      maybeComplete();
+    }
+
+    /** The client cancelled, so dont send anything more. */
+    synchronized void cancelled() {
+      failed = true;
+    }
+
+    private void maybeComplete() {
+      if (requestsDone && pending == 0 && !failed) {
+        responseObserver.onCompleted();
+      }
+    }
+
+    private void fail(StatusRuntimeException e) {
+      if (!failed) {
+        failed = true;
+        responseObserver.onError(e);
+      }
+    }
+  }
+
   @Override
   public void directDecrypt(DecryptingTrusteeProto.DirectDecryptionRequest request,
                             StreamObserver<DecryptingTrusteeProto.DirectDecryptionResponse> responseObserver) {
+    answers.respond("directDecrypt", request.getRequestId(), () -> directDecryptResponse(request),
+            DecryptingTrusteeProto.DirectDecryptionResponse::getError, responseObserver);
+  }
 
+  private DecryptingTrusteeProto.DirectDecryptionResponse directDecryptResponse(DecryptingTrusteeProto.DirectDecryptionRequest request) {
     DecryptingTrusteeProto.DirectDecryptionResponse.Builder response = DecryptingTrusteeProto.DirectDecryptionResponse.newBuilder();
     try {
-      List<ElGamalCiphertext> texts = request.getTextList().stream()
-              .map(t -> ConvertCommonProto.importCiphertext(group, t))
-              .toList();
-      List<DirectDecryptionAndProof> tuples = delegate.directDecrypt(
-              group,
-              texts,
-              ConvertCommonProto.importElementModQ(group, request.getExtendedBaseHash()),
-              null);
-
-      List<DecryptingTrusteeProto.DirectDecryptionResult> protos = tuples.stream()
-              .map(this::convertDecryptionProofTuple)
-              .toList();
-      response.addAllResults(protos);
+      if (request.hasPackedText()) {
+        response.setPackedResults(directDecryptPacked(request.getExtendedBaseHash(), request.getPackedText()));
+      } else {
+        response.addAllResults(directDecrypt(request.getExtendedBaseHash(), request.getTextList()));
+      }
       logger.atInfo().log("DecryptingRemoteTrustee partialDecrypt %s", delegate.id());
     } catch (Throwable t) {
       logger.atSevere().withCause(t).log("DecryptingRemoteTrustee partialDecrypt failed");
@@ -203,8 +374,81 @@ public class RunRemoteDecryptingTrustee extends DecryptingTrusteeServiceGrpc.Dec
       response.setError(mess);
     }
 
-    responseObserver.onNext(response.build());
-    responseObserver.onCompleted();
+    return response.build();
+  }
+
+  @Override
+  public StreamObserver<DecryptingTrusteeProto.DirectDecryptionChunk> directDecryptStream(
+          StreamObserver<DecryptingTrusteeProto.DirectDecryptionResultChunk> responseObserver) {
+
+    ChunkResponder<DecryptingTrusteeProto.DirectDecryptionResultChunk> responder = new ChunkResponder<>("directDecryptStream", responseObserver);
+    return new StreamObserver<>() {
+      int nchunks = 0;
+
+      @Override
+      public void onNext(DecryptingTrusteeProto.DirectDecryptionChunk chunk) {
+        nchunks++;
+        responder.submit(() -> {
+          DecryptingTrusteeProto.DirectDecryptionResultChunk.Builder response = DecryptingTrusteeProto.DirectDecryptionResultChunk.newBuilder()
+                  .setStartIndex(chunk.getStartIndex());
+          try {
+            if (chunk.hasPackedText()) {
+              response.setPackedResults(directDecryptPacked(chunk.getExtendedBaseHash(), chunk.getPackedText()));
+            } else {
+              response.addAllResults(directDecrypt(chunk.getExtendedBaseHash(), chunk.getTextList()));
+            }
+          } catch (Throwable t) {
+            logger.atSevere().withCause(t).log("DecryptingRemoteTrustee directDecryptStream failed at %d", chunk.getStartIndex());
+            String mess = t.getMessage() != null ? t.getMessage() : "Unknown";
+            response.setError(mess);
+          }
+          return response.build();
+        });
+      }
+
+      @Override
+      public void onError(Throwable t) {
+        responder.cancelled();
+        logger.atWarning().withCause(t).log("DecryptingRemoteTrustee directDecryptStream cancelled after %d chunks", nchunks);
+      }
+
+      @Override
+      public void onCompleted() {
+        logger.atInfo().log("DecryptingRemoteTrustee directDecryptStream %s chunks=%d", delegate.id(), nchunks);
+        responder.requestsDone();
+      }
+    };
+  }
+
+  List<DecryptingTrusteeProto.DirectDecryptionResult> directDecrypt(CommonProto.ElementModQ extendedBaseHash,
+                                                                    List<CommonProto.ElGamalCiphertext> ptexts) {
+    ElementModQ hash = ConvertCommonProto.importElementModQ(group, extendedBaseHash);
+    return inParallel(ptexts, shard -> {
+      List<ElGamalCiphertext> texts = ConvertCommonProto.importCiphertexts(group, shard);
+      List<DirectDecryptionAndProof> tuples = delegate.directDecrypt(group, texts, hash, null);
+
+      return tuples.stream()
+              .map(this::convertDecryptionProofTuple)
+              .toList();
+    });
+  }
+
+  DecryptingTrusteeProto.PackedDecryptionResults directDecryptPacked(CommonProto.ElementModQ extendedBaseHash,
+                                                                     CommonProto.CiphertextBatch batch) {
+    ElementModQ hash = ConvertCommonProto.importElementModQ(group, extendedBaseHash);
+    List<ElGamalCiphertext> texts = ConvertPackedProto.importCiphertextBatch(group, batch);
+    return packDirect(inParallel(texts, shard -> delegate.directDecrypt(group, shard, hash, null)));
+  }
+
+  private DecryptingTrusteeProto.PackedDecryptionResults packDirect(List<DirectDecryptionAndProof> tuples) {
+    return DecryptingTrusteeProto.PackedDecryptionResults.newBuilder()
+            .setDecryptions(ConvertPackedProto.publishElementModPBatch(group,
+                    tuples.stream().map(DirectDecryptionAndProof::getPartialDecryption).toList()))
+            .setProofChallenges(ConvertPackedProto.publishElementModQBatch(group,
+                    tuples.stream().map(t -> t.getProof().getC()).toList()))
+            .setProofResponses(ConvertPackedProto.publishElementModQBatch(group,
+                    tuples.stream().map(t -> t.getProof().getR()).toList()))
+            .build();
   }
 
   private DecryptingTrusteeProto.DirectDecryptionResult convertDecryptionProofTuple(DirectDecryptionAndProof tuple) {
@@ -217,33 +461,177 @@ public class RunRemoteDecryptingTrustee extends DecryptingTrusteeServiceGrpc.Dec
   @Override
   public void compensatedDecrypt(DecryptingTrusteeProto.CompensatedDecryptionRequest request,
                                  StreamObserver<DecryptingTrusteeProto.CompensatedDecryptionResponse> responseObserver) {
+    answers.respond("compensatedDecrypt", request.getRequestId(), () -> compensatedDecryptResponse(request),
+            DecryptingTrusteeProto.CompensatedDecryptionResponse::getError, responseObserver);
+  }
 
+  private DecryptingTrusteeProto.CompensatedDecryptionResponse compensatedDecryptResponse(DecryptingTrusteeProto.CompensatedDecryptionRequest request) {
     DecryptingTrusteeProto.CompensatedDecryptionResponse.Builder response = DecryptingTrusteeProto.CompensatedDecryptionResponse.newBuilder();
     try {
-      List<ElGamalCiphertext > texts = request.getTextList().stream()
-              .map(t -> ConvertCommonProto.importCiphertext(group, t))
-              .toList();
+      if (request.hasPackedText()) {
+        response.setPackedResults(compensatedDecryptPacked(request.getExtendedBaseHash(), request.getMissingGuardianId(), request.getPackedText()));
+      } else {
+        response.addAllResults(compensatedDecrypt(request.getExtendedBaseHash(), request.getMissingGuardianId(), request.getTextList()));
+      }
+      logger.atInfo().log("DecryptingRemoteTrustee compensatedDecrypt %s", request.getMissingGuardianId());
+    } catch (Throwable t) {
+      logger.atSevere().withCause(t).log("DecryptingRemoteTrustee compensatedDecrypt failed");
+      String mess = t.getMessage() != null ? t.getMessage() : "Unknown";
+      response.setError(mess);
+    }
+
+    return response.build();
+  }
 
-      List<CompensatedDecryptionAndProof> tuples = delegate.compensatedDecrypt(
-              group,
-              request.getMissingGuardianId(),
-              texts,
-              ConvertCommonProto.importElementModQ(group, request.getExtendedBaseHash()),
-              null);
+  @Override
+  public StreamObserver<DecryptingTrusteeProto.CompensatedDecryptionChunk> compensatedDecryptStream(
+          StreamObserver<DecryptingTrusteeProto.CompensatedDecryptionResultChunk> responseObserver) {
+
+    ChunkResponder<DecryptingTrusteeProto.CompensatedDecryptionResultChunk> responder = new ChunkResponder<>("compensatedDecryptStream", responseObserver);
+    return new StreamObserver<>() {
+      int nchunks = 0;
+
+      @Override
+      public void onNext(DecryptingTrusteeProto.CompensatedDecryptionChunk chunk) {
+        nchunks++;
+        responder.submit(() -> {
+          DecryptingTrusteeProto.CompensatedDecryptionResultChunk.Builder response = DecryptingTrusteeProto.CompensatedDecryptionResultChunk.newBuilder()
+                  .setStartIndex(chunk.getStartIndex());
+          try {
+            if (chunk.hasPackedText()) {
+              response.setPackedResults(compensatedDecryptPacked(chunk.getExtendedBaseHash(), chunk.getMissingGuardianId(), chunk.getPackedText()));
+            } else {
+              response.addAllResults(compensatedDecrypt(chunk.getExtendedBaseHash(), chunk.getMissingGuardianId(), chunk.getTextList()));
+            }
+          } catch (Throwable t) {
+            logger.atSevere().withCause(t).log("DecryptingRemoteTrustee compensatedDecryptStream failed at %d", chunk.getStartIndex());
+            String mess = t.getMessage() != null ? t.getMessage() : "Unknown";
+            response.setError(mess);
+          }
+          return response.build();
+        });
+      }
 
-      List<DecryptingTrusteeProto.CompensatedDecryptionResult> protos = tuples.stream()
+      @Override
+      public void onError(Throwable t) {
+        responder.cancelled();
+        logger.atWarning().withCause(t).log("DecryptingRemoteTrustee compensatedDecryptStream cancelled after %d chunks", nchunks);
+      }
+
+      @Override
+      public void onCompleted() {
+        logger.atInfo().log("DecryptingRemoteTrustee compensatedDecryptStream %s chunks=%d", delegate.id(), nchunks);
+        responder.requestsDone();
+      }
+    };
+  }
+
+  List<DecryptingTrusteeProto.CompensatedDecryptionResult> compensatedDecrypt(CommonProto.ElementModQ extendedBaseHash,
+                                                                              String missingGuardianId,
+                                                                              List<CommonProto.ElGamalCiphertext> ptexts) {
+    ElementModQ hash = ConvertCommonProto.importElementModQ(group, extendedBaseHash);
+    return inParallel(ptexts, shard -> {
+      List<ElGamalCiphertext> texts = ConvertCommonProto.importCiphertexts(group, shard);
+      List<CompensatedDecryptionAndProof> tuples = delegate.compensatedDecrypt(group, missingGuardianId, texts, hash, null);
+
+      return tuples.stream()
               .map(this::convertDecryptionProofRecovery)
               .toList();
-      response.addAllResults(protos);
-      logger.atInfo().log("DecryptingRemoteTrustee compensatedDecrypt %s", request.getMissingGuardianId());
+    });
+  }
+
+  DecryptingTrusteeProto.PackedDecryptionResults compensatedDecryptPacked(CommonProto.ElementModQ extendedBaseHash,
+                                                                          String missingGuardianId,
+                                                                          CommonProto.CiphertextBatch batch) {
+    ElementModQ hash = ConvertCommonProto.importElementModQ(group, extendedBaseHash);
+    List<ElGamalCiphertext> texts = ConvertPackedProto.importCiphertextBatch(group, batch);
+    return packCompensated(inParallel(texts, shard -> delegate.compensatedDecrypt(group, missingGuardianId, shard, hash, null)));
+  }
+
+  private DecryptingTrusteeProto.PackedDecryptionResults packCompensated(List<CompensatedDecryptionAndProof> tuples) {
+    return DecryptingTrusteeProto.PackedDecryptionResults.newBuilder()
+            .setDecryptions(ConvertPackedProto.publishElementModPBatch(group,
+                    tuples.stream().map(CompensatedDecryptionAndProof::getPartialDecryption).toList()))
+            .setProofChallenges(ConvertPackedProto.publishElementModQBatch(group,
+                    tuples.stream().map(t -> t.getProof().getC()).toList()))
+            .setProofResponses(ConvertPackedProto.publishElementModQBatch(group,
+                    tuples.stream().map(t -> t.getProof().getR()).toList()))
+            .setRecoveryPublicKeys(ConvertPackedProto.publishElementModPBatch(group,
+                    tuples.stream().map(CompensatedDecryptionAndProof::getRecoveredPublicKeyShare).toList()))
+            .build();
+  }
+
+  @Override
+  public void decryptAll(DecryptingTrusteeProto.DecryptAllRequest request,
+                         StreamObserver<DecryptingTrusteeProto.DecryptAllResponse> responseObserver) {
+    answers.respond("decryptAll", request.getRequestId(), () -> decryptAllResponse(request),
+            DecryptingTrusteeProto.DecryptAllResponse::getError, responseObserver);
+  }
+
+  private DecryptingTrusteeProto.DecryptAllResponse decryptAllResponse(DecryptingTrusteeProto.DecryptAllRequest request) {
+    DecryptingTrusteeProto.DecryptAllResponse.Builder response = DecryptingTrusteeProto.DecryptAllResponse.newBuilder();
+    try {
+      List<ElGamalCiphertext> texts = request.hasPackedText() ?
+              ConvertPackedProto.importCiphertextBatch(group, request.getPackedText()) :
+              ConvertCommonProto.importCiphertexts(group, request.getTextList());
+      decryptAll(request.getExtendedBaseHash(), request.getMissingGuardianIdsList(), texts, response);
+      logger.atInfo().log("DecryptingRemoteTrustee decryptAll %s ntexts=%d missing=%s",
+              delegate.id(), texts.size(), request.getMissingGuardianIdsList());
     } catch (Throwable t) {
-      logger.atSevere().withCause(t).log("DecryptingRemoteTrustee compensatedDecrypt failed");
+      logger.atSevere().withCause(t).log("DecryptingRemoteTrustee decryptAll failed");
       String mess = t.getMessage() != null ? t.getMessage() : "Unknown";
-      response.setError(mess);
+      response.clear().setError(mess);
     }
 
-    responseObserver.onNext(response.build());
-    responseObserver.onCompleted();
+    return response.build();
+  }
+
+  /** The texts are imported once, and used for the direct and all the compensated decryptions. */
+  void decryptAll(CommonProto.ElementModQ extendedBaseHash, List<String> missingGuardianIds, List<ElGamalCiphertext> texts,
+                  DecryptingTrusteeProto.DecryptAllResponse.Builder response) {
+    ElementModQ hash = ConvertCommonProto.importElementModQ(group, extendedBaseHash);
+    response.setDirectResults(packDirect(inParallel(texts, shard -> delegate.directDecrypt(group, shard, hash, null))));
+    for (String missingGuardianId : missingGuardianIds) {
+      response.addCompensatedResults(packCompensated(
+              inParallel(texts, shard -> delegate.compensatedDecrypt(group, missingGuardianId, shard, hash, null))));
+    }
+  }
+
+  /** Split the texts into shards, decrypt the shards in parallel on the compute pool, and return the results in order. */
+  private <S, T> List<T> inParallel(List<S> ptexts, Function<List<S>, List<T>> decryptShard) {
+    int nshards = Math.min(nthreads, ptexts.size() / MIN_SHARD);
+    if (nshards <= 1) {
+      return checkSize(decryptShard.apply(ptexts), ptexts.size());
+    }
+
+    int shardSize = (ptexts.size() + nshards - 1) / nshards;
+    List<Future<List<T>>> futures = new ArrayList<>(nshards);
+    for (int start = 0; start < ptexts.size(); start += shardSize) {
+      List<S> shard = ptexts.subList(start, Math.min(start + shardSize, ptexts.size()));
+      futures.add(computePool.submit(() -> checkSize(decryptShard.apply(shard), shard.size())));
+    }
+
+    List<T> results = new ArrayList<>(ptexts.size());
+    try {
+      for (Future<List<T>> future : futures) {
+        results.addAll(future.get());
+      }
+    } catch (InterruptedException e) {
+      futures.forEach(f -> f.cancel(true));
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("interrupted", e);
+    } catch (ExecutionException e) {
+      futures.forEach(f -> f.cancel(true));
+      throw new RuntimeException(e.getCause().getMessage(), e.getCause());
+    }
+    return results;
+  }
+
+  private static <T> List<T> checkSize(List<T> results, int expected) {
+    if (results.size() != expected) {
+      throw new IllegalStateException(String.format("Expected %d results, got %d", expected, results.size()));
+    }
+    return results;
   }
 
   private DecryptingTrusteeProto.CompensatedDecryptionResult convertDecryptionProofRecovery(CompensatedDecryptionAndProof tuple) {
@@ -260,7 +648,7 @@ public class RunRemoteDecryptingTrustee extends DecryptingTrusteeServiceGrpc.Dec
     CommonRpcProto.ErrorResponse.Builder response = CommonRpcProto.ErrorResponse.newBuilder();
     boolean ok = true;
     try {
-      logger.atInfo().log("DecryptingTrusteeProto finish ok = %s", request.getAllOk());
+      logger.atInfo().log("DecryptingTrusteeProto finish ok = %s; %s", request.getAllOk(), cryptoExecutor.stats());
 
     } catch (Throwable t) {
       logger.atSevere().withCause(t).log("DecryptingTrusteeProto finish failed");
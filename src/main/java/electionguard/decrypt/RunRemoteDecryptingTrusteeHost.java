@@ -0,0 +1,385 @@
+package electionguard.decrypt;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+import com.google.common.flogger.FluentLogger;
+import electionguard.core.GroupContext;
+import electionguard.core.PowRadixOption;
+import electionguard.core.ProductionMode;
+import electionguard.protogen2.CommonRpcProto;
+import electionguard.protogen2.DecryptingProto;
+import electionguard.protogen2.DecryptingTrusteeProto;
+import electionguard.protogen2.DecryptingTrusteeServiceGrpc;
+import electionguard.util.CryptoExecutor;
+import electionguard.util.GuardianRoute;
+import electionguard.util.KUtils;
+import electionguard.util.Priority;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static electionguard.publish.ReaderKt.readTrustee;
+import static electionguard.util.KUtils.productionGroup;
+
+/**
+ * Serves several DecryptingTrustees from one JVM behind one port, for a site that holds more than one guardian's keys.
+ * The trustees share the GroupContext, the compute pool and the crypto executor, which takes turns between them.
+ * Each call is routed to its trustee by the guardian id the coordinator sends in the eg-guardian-id header.
+ */
+public class RunRemoteDecryptingTrusteeHost extends DecryptingTrusteeServiceGrpc.DecryptingTrusteeServiceImplBase {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+  private static final Random random = new Random();
+
+  private static class CommandLine {
+    @Parameter(names = {"-trusteeDir"}, order = 1, description = "directory of serialized trustee files", required = true)
+    String trusteeDir;
+
+    @Parameter(names = {"-trusteeGlob"}, order = 2, description = "which files in trusteeDir are trustee files")
+    String trusteeGlob = "decryptingTrustee-*";
+
+    @Parameter(names = {"-port"}, order = 3, description = "This DecryptingRemoteTrusteeHost port")
+    int port = 0;
+
+    @Parameter(names = {"-serverPort"}, order = 4, description = "The DecryptingRemote server port")
+    int serverPort = 17711;
+
+    @Parameter(names = {"-threads"}, order = 5, description = "Number of threads used to compute partial decryptions, for all the trustees")
+    int nthreads = Runtime.getRuntime().availableProcessors();
+
+    @Parameter(names = {"-memo"}, order = 6, description = "Keep computed partial decryptions in a file in the trustee's directory, and reuse them on a rerun")
+    boolean memo = false;
+
+    @Parameter(names = {"-memoMaxMB"}, order = 7, description = "Compact each memo file when it grows past this many megabytes")
+    int memoMaxMB = 1024;
+
+    @Parameter(names = {"-maxBatches"}, order = 8, description = "Number of requests that may be decrypting at once, for all the trustees")
+    int maxBatches = RunRemoteDecryptingTrustee.DEFAULT_MAX_BATCHES;
+
+    @Parameter(names = {"-maxQueued"}, order = 9, description = "Number of requests that may wait to be decrypted, for all the trustees; more are rejected as busy")
+    int maxQueued = RunRemoteDecryptingTrustee.DEFAULT_MAX_QUEUED;
+
+    @Parameter(names = {"-powRadix"}, order = 10, description = "Size of the fixed-base g^x tables, which each process keeps in memory")
+    PowRadixOption powRadix = KUtils.DEFAULT_POW_RADIX;
+
+    @Parameter(names = {"-productionMode"}, order = 11, description = "The group, which must match the election record")
+    ProductionMode productionMode = KUtils.DEFAULT_PRODUCTION_MODE;
+
+    @Parameter(names = {"-h", "--help"}, order = 12, description = "Display this help and exit", help = true)
+    boolean help = false;
+
+    private final JCommander jc;
+
+    CommandLine(String progName, String[] args) throws ParameterException {
+      this.jc = new JCommander(this);
+      this.jc.parse(args);
+      jc.setProgramName(String.format("java -classpath electionguard-java-all.jar %s", progName));
+    }
+
+    void printUsage() {
+      jc.usage();
+    }
+  }
+
+  public static void main(String[] args) {
+    String progName = RunRemoteDecryptingTrusteeHost.class.getName();
+    CommandLine cmdLine = null;
+
+    try {
+      cmdLine = new CommandLine(progName, args);
+      if (cmdLine.help) {
+        cmdLine.printUsage();
+        return;
+      }
+    } catch (ParameterException e) {
+      System.err.println(e.getMessage());
+      System.err.printf("Try '%s --help' for more information.%n", progName);
+      System.exit(1);
+    }
+    KUtils.configureGroup(cmdLine.powRadix, cmdLine.productionMode);
+
+    int port = cmdLine.port;
+    if (port == 0) {
+      port = cmdLine.serverPort + 1 + random.nextInt(10000);
+      while (!RunRemoteDecryptingTrustee.isLocalPortFree(port)) {
+        port = cmdLine.serverPort + 1 + random.nextInt(10000);
+      }
+    }
+    String url = "localhost:" + port;
+    String serverUrl = "localhost:" + cmdLine.serverPort;
+    System.out.printf("*** DecryptingRemoteTrusteeHost from dir %s url %s server %s threads %d%n",
+            cmdLine.trusteeDir, url, serverUrl, cmdLine.nthreads);
+
+    try {
+      GroupContext group = productionGroup();
+      List<DecryptingTrusteeIF> delegates = new ArrayList<>();
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(Path.of(cmdLine.trusteeDir), cmdLine.trusteeGlob)) {
+        for (Path file : files) {
+          DecryptingTrusteeIF delegate = readTrustee(group, file.toString());
+          if (cmdLine.memo) {
+            delegate = RunRemoteDecryptingTrustee.withMemo(group, delegate, file, cmdLine.memoMaxMB);
+          }
+          System.out.printf("    trustee %s from %s%n", delegate.id(), file);
+          delegates.add(delegate);
+        }
+      }
+      if (delegates.isEmpty()) {
+        throw new IllegalArgumentException(String.format("No trustee files %s in %s", cmdLine.trusteeGlob, cmdLine.trusteeDir));
+      }
+
+      RunRemoteDecryptingTrusteeHost host = new RunRemoteDecryptingTrusteeHost(group, delegates, cmdLine.nthreads,
+              cmdLine.maxBatches, cmdLine.maxQueued);
+      // listen before registering, so the DecryptingRemote can connect as soon as it knows our url
+      host.start(port);
+
+      if (cmdLine.serverPort != 0) {
+        // register each trustee with the DecryptingRemote "server", all at our url; it may not need all of them
+        RemoteDecryptorProxy proxy = new RemoteDecryptorProxy(serverUrl);
+        try {
+          for (DecryptingTrusteeIF delegate : delegates) {
+            DecryptingProto.RegisterDecryptingTrusteeResponse response = proxy.registerTrustee(delegate.id(), url,
+                    delegate.xCoordinate(), delegate.electionPublicKey(), true);
+            if (response == null) {
+              System.out.printf("    registerTrustee %s returns null response, skipping it%n", delegate.id());
+            } else if (!response.getError().isEmpty()) {
+              System.out.printf("    registerTrustee %s error %s, skipping it%n", delegate.id(), response.getError());
+            } else {
+              System.out.printf("    registered %s with DecryptingRemote %n", delegate.id());
+              host.registered(delegate.id());
+            }
+          }
+        } finally {
+          proxy.shutdown();
+        }
+      } else {
+        delegates.forEach(delegate -> host.registered(delegate.id()));
+      }
+      if (!host.registrationDone()) {
+        throw new RuntimeException("DecryptingRemote accepted none of the trustees " + host.trustees.keySet());
+      }
+
+      host.blockUntilShutdown();
+      System.exit(host.allOk() ? 0 : 1);
+
+    } catch (Throwable t) {
+      System.out.printf("*** DecryptingRemoteTrusteeHost FAILURE%n");
+      t.printStackTrace();
+      System.exit(3);
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  private Server server;
+
+  private void start(int port) throws IOException {
+    server = ServerBuilder.forPort(port) //
+            .addService(this) //
+            .intercept(Priority.serverInterceptor())
+            .intercept(GuardianRoute.serverInterceptor())
+            .build().start();
+
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      // Use stderr here since the logger may have been reset by its JVM shutdown hook.
+      System.err.println("*** shutting down gRPC server since JVM is shutting down");
+      try {
+        stopit();
+      } catch (InterruptedException e) {
+        e.printStackTrace(System.err);
+      }
+      System.err.println("*** server shut down");
+    }));
+
+    System.out.printf("---- DecryptingRemoteTrusteeHost started, listening on %d for %s ----%n", port, trustees.keySet());
+  }
+
+  private void stopit() throws InterruptedException {
+    if (server != null) {
+      server.shutdown().awaitTermination(30, TimeUnit.SECONDS);
+    }
+    cryptoExecutor.shutdownNow();
+    computePool.shutdownNow();
+  }
+
+  /** Await termination on the main thread since the grpc library uses daemon threads. */
+  private void blockUntilShutdown() throws InterruptedException {
+    if (server != null) {
+      server.awaitTermination();
+    }
+  }
+
+  ////////////////////////////////////////////////////////////////////////////////
+  private final Map<String, RunRemoteDecryptingTrustee> trustees = new LinkedHashMap<>();
+  private final ExecutorService computePool;
+  private final CryptoExecutor cryptoExecutor;
+  private final Set<String> registered = new LinkedHashSet<>(); // guarded by this
+  private final Set<String> finished = new HashSet<>(); // guarded by this
+  private boolean registering = true; // guarded by this
+  private boolean allOk = true; // guarded by this
+
+  /**
+   * @param nthreads number of threads that compute the partial decryptions, shared by the trustees.
+   * @param maxBatches number of requests (or stream chunks) that may be decrypting at once, for all the trustees.
+   * @param maxQueued number of requests that may wait, for all the trustees; past that they are rejected with RESOURCE_EXHAUSTED.
+   */
+  RunRemoteDecryptingTrusteeHost(GroupContext group, List<DecryptingTrusteeIF> delegates, int nthreads, int maxBatches, int maxQueued) {
+    this.computePool = Executors.newFixedThreadPool(nthreads);
+    this.cryptoExecutor = new CryptoExecutor("decrypt-host", maxBatches, maxQueued);
+    for (DecryptingTrusteeIF delegate : delegates) {
+      if (trustees.containsKey(delegate.id())) {
+        throw new IllegalArgumentException("Already have a guardian id=" + delegate.id());
+      }
+      trustees.put(delegate.id(), new RunRemoteDecryptingTrustee(group, delegate, nthreads, computePool, cryptoExecutor));
+    }
+  }
+
+  private synchronized boolean allOk() {
+    return allOk;
+  }
+
+  /** The DecryptingRemote accepted this trustee, so the host waits for it to be finished. */
+  private synchronized void registered(String id) {
+    registered.add(id);
+  }
+
+  /** All the trustees have been offered to the DecryptingRemote. Returns false if it accepted none. */
+  private boolean registrationDone() {
+    Set<String> accepted;
+    synchronized (this) {
+      registering = false;
+      accepted = Set.copyOf(registered);
+    }
+    if (accepted.isEmpty()) {
+      return false;
+    }
+    logger.atInfo().log("DecryptingRemoteTrusteeHost registered %s of %s", accepted, trustees.keySet());
+    maybeShutdown();
+    return true;
+  }
+
+  /** Once every registered trustee is finished, stop the server, and so the host. */
+  private void maybeShutdown() {
+    synchronized (this) {
+      if (registering || !finished.containsAll(registered)) {
+        return;
+      }
+    }
+    if (server != null) {
+      server.shutdown();
+    }
+  }
+
+  /**
+   * The trustee the current call is for, or null after failing the call with NOT_FOUND.
+   * A caller that doesnt send a guardian id can only be served if there is just one trustee.
+   */
+  @Nullable
+  private RunRemoteDecryptingTrustee route(StreamObserver<?> responseObserver) {
+    String guardianId = GuardianRoute.current();
+    RunRemoteDecryptingTrustee trustee = (guardianId.isEmpty() && trustees.size() == 1) ?
+            trustees.values().iterator().next() : trustees.get(guardianId);
+    if (trustee == null) {
+      logger.atWarning().log("DecryptingRemoteTrusteeHost has no trustee '%s'", guardianId);
+      responseObserver.onError(Status.NOT_FOUND
+              .withDescription(String.format("no trustee '%s' here; have %s", guardianId, trustees.keySet()))
+              .asRuntimeException());
+    }
+    return trustee;
+  }
+
+  @Override
+  public void directDecrypt(DecryptingTrusteeProto.DirectDecryptionRequest request,
+                            StreamObserver<DecryptingTrusteeProto.DirectDecryptionResponse> responseObserver) {
+    RunRemoteDecryptingTrustee trustee = route(responseObserver);
+    if (trustee != null) {
+      trustee.directDecrypt(request, responseObserver);
+    }
+  }
+
+  @Override
+  public void compensatedDecrypt(DecryptingTrusteeProto.CompensatedDecryptionRequest request,
+                                 StreamObserver<DecryptingTrusteeProto.CompensatedDecryptionResponse> responseObserver) {
+    RunRemoteDecryptingTrustee trustee = route(responseObserver);
+    if (trustee != null) {
+      trustee.compensatedDecrypt(request, responseObserver);
+    }
+  }
+
+  @Override
+  public StreamObserver<DecryptingTrusteeProto.DirectDecryptionChunk> directDecryptStream(
+          StreamObserver<DecryptingTrusteeProto.DirectDecryptionResultChunk> responseObserver) {
+    RunRemoteDecryptingTrustee trustee = route(responseObserver);
+    return (trustee != null) ? trustee.directDecryptStream(responseObserver) : ignoreRequests();
+  }
+
+  @Override
+  public StreamObserver<DecryptingTrusteeProto.CompensatedDecryptionChunk> compensatedDecryptStream(
+          StreamObserver<DecryptingTrusteeProto.CompensatedDecryptionResultChunk> responseObserver) {
+    RunRemoteDecryptingTrustee trustee = route(responseObserver);
+    return (trustee != null) ? trustee.compensatedDecryptStream(responseObserver) : ignoreRequests();
+  }
+
+  @Override
+  public void decryptAll(DecryptingTrusteeProto.DecryptAllRequest request,
+                         StreamObserver<DecryptingTrusteeProto.DecryptAllResponse> responseObserver) {
+    RunRemoteDecryptingTrustee trustee = route(responseObserver);
+    if (trustee != null) {
+      trustee.decryptAll(request, responseObserver);
+    }
+  }
+
+  /** Each trustee is finished on its own; the host exits once all the registered ones are. */
+  @Override
+  public void finish(CommonRpcProto.FinishRequest request,
+                     StreamObserver<CommonRpcProto.ErrorResponse> responseObserver) {
+    RunRemoteDecryptingTrustee trustee = route(responseObserver);
+    if (trustee == null) {
+      return;
+    }
+    trustee.finish(request, responseObserver);
+    int nfinished;
+    int nregistered;
+    synchronized (this) {
+      finished.add(trustee.id());
+      allOk &= request.getAllOk();
+      nfinished = finished.size();
+      nregistered = registered.size();
+    }
+    logger.atInfo().log("DecryptingRemoteTrusteeHost finished %s (%d of %d registered)", trustee.id(), nfinished, nregistered);
+    maybeShutdown();
+  }
+
+  /** For a stream whose call has already failed. */
+  private static <T> StreamObserver<T> ignoreRequests() {
+    return new StreamObserver<>() {
+      @Override
+      public void onNext(T value) {
+      }
+
+      @Override
+      public void onError(Throwable t) {
+      }
+
+      @Override
+      public void onCompleted() {
+      }
+    };
+  }
+}
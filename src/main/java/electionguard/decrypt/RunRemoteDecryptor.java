@@ -6,36 +6,54 @@ import com.beust.jcommander.ParameterException;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Stopwatch;
 import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.Hashing;
 import electionguard.ballot.ElectionInitialized;
-import electionguard.ballot.EncryptedBallot;
 import electionguard.ballot.PlaintextTally;
 import electionguard.ballot.DecryptingGuardian;
 import electionguard.ballot.EncryptedTally;
+import electionguard.core.ElementModQ;
 import electionguard.core.GroupContext;
+import electionguard.core.PowRadixOption;
+import electionguard.core.ProductionMode;
+import electionguard.core.UInt256Kt;
 import electionguard.input.ManifestInputValidation;
 import electionguard.input.ValidationMessages;
 import electionguard.publish.Consumer;
 import electionguard.publish.ElectionRecord;
+import electionguard.publish.PlaintextTallySinkIF;
 import electionguard.publish.Publisher;
 import electionguard.ballot.DecryptionResult;
 import electionguard.ballot.TallyResult;
 import electionguard.protogen2.DecryptingProto;
 import electionguard.protogen2.DecryptingServiceGrpc;
 import electionguard.publish.PublisherMode;
+import electionguard.util.Broadcast;
 import electionguard.util.ConvertCommonProto;
+import electionguard.util.GrpcChannels;
+import electionguard.util.KUtils;
+import electionguard.util.RpcPolicy;
+import io.grpc.Deadline;
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
 import io.grpc.stub.StreamObserver;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Formatter;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import static electionguard.publish.ElectionRecordFactoryKt.electionRecordFromConsumer;
 import static electionguard.util.KUtils.productionGroup;
@@ -44,6 +62,7 @@ import static electionguard.util.KUtils.productionGroup;
  * A command line program to decrypt a tally and optionally a collection of ballots with remote Guardians.
  * It opens up a channel to allow guardians to register with it.
  * It waits until navailable guardians register, then starts the decryption.
+ * Unless -noCheckpoint, the partial decryptions are checkpointed as they arrive, and a failed run can be resumed with -resume.
  * <p>
  * For command line help:
  * <strong>
@@ -70,10 +89,55 @@ public class RunRemoteDecryptor {
     @Parameter(names = {"-port"}, order = 3, description = "The port to run the server on")
     int port = 17711;
 
-    @Parameter(names = {"-decryptSpoiled"}, order = 3, description = "Decrypt the spoiled ballots")
+    @Parameter(names = {"-decryptSpoiled"}, order = 4, description = "Decrypt the spoiled ballots")
     boolean decryptSpoiled = false;
 
-    @Parameter(names = {"-h", "--help"}, order = 9, description = "Display this help and exit", help = true)
+    @Parameter(names = {"-spoiledBatchSize"}, order = 5, description = "Number of spoiled ballots sent to the trustees in one request")
+    int spoiledBatchSize = 50;
+
+    @Parameter(names = {"-spoiledConcurrency"}, order = 6, description = "Number of spoiled ballot batches in flight at once")
+    int spoiledConcurrency = 4;
+
+    @Parameter(names = {"-resume"}, order = 7, description = "Reuse the partial decryptions checkpointed by a failed run")
+    boolean resume = false;
+
+    @Parameter(names = {"-noCheckpoint"}, order = 8, description = "Dont checkpoint the partial decryptions as they arrive")
+    boolean noCheckpoint = false;
+
+    @Parameter(names = {"-checkpointMaxMB"}, order = 9, description = "Compact each trustee's checkpoint file when it grows past this many megabytes")
+    int checkpointMaxMB = 1024;
+
+    @Parameter(names = {"-rpcDeadlineSecs"}, order = 10, description = "Deadline in seconds of each call to a trustee, not counting its texts")
+    int rpcDeadlineSecs = 30;
+
+    @Parameter(names = {"-rpcMsecsPerText"}, order = 11, description = "Deadline in msecs added to a call to a trustee for each text in it")
+    int rpcMsecsPerText = 100;
+
+    @Parameter(names = {"-rpcMaxAttempts"}, order = 12, description = "Number of attempts of a call that fails with a transient status")
+    int rpcMaxAttempts = 4;
+
+    @Parameter(names = {"-eventLoopThreads"}, order = 13, description = "Number of gRPC event loop threads shared by all the trustee channels")
+    int eventLoopThreads = GrpcChannels.Settings.DEFAULT.eventLoopThreads;
+
+    @Parameter(names = {"-channelThreads"}, order = 14, description = "Number of gRPC executor threads shared by all the trustee channels")
+    int channelThreads = GrpcChannels.Settings.DEFAULT.executorThreads;
+
+    @Parameter(names = {"-flowControlWindowKB"}, order = 15, description = "gRPC flow control window of each trustee channel, in KB")
+    int flowControlWindowKB = GrpcChannels.Settings.DEFAULT.flowControlWindowKB;
+
+    @Parameter(names = {"-keepAliveSecs"}, order = 16, description = "gRPC keepalive time of each trustee channel, in seconds")
+    int keepAliveSecs = GrpcChannels.Settings.DEFAULT.keepAliveSecs;
+
+    @Parameter(names = {"-maxMessageMB"}, order = 17, description = "Largest gRPC message accepted from a trustee, in MB")
+    int maxMessageMB = GrpcChannels.Settings.DEFAULT.maxMessageMB;
+
+    @Parameter(names = {"-powRadix"}, order = 18, description = "Size of the fixed-base g^x tables, which each process keeps in memory")
+    PowRadixOption powRadix = KUtils.DEFAULT_POW_RADIX;
+
+    @Parameter(names = {"-productionMode"}, order = 19, description = "The group, which must match the election record")
+    ProductionMode productionMode = KUtils.DEFAULT_PRODUCTION_MODE;
+
+    @Parameter(names = {"-h", "--help"}, order = 20, description = "Display this help and exit", help = true)
     boolean help = false;
 
     private final JCommander jc;
@@ -90,7 +154,6 @@ public class RunRemoteDecryptor {
   }
 
   public static void main(String[] args) {
-    GroupContext group = productionGroup();
     String progName = RunRemoteDecryptor.class.getName();
     CommandLine cmdLine = null;
 
@@ -105,7 +168,11 @@ public class RunRemoteDecryptor {
       System.err.printf("Try '%s --help' for more information.%n", progName);
       System.exit(1);
     }
+    KUtils.configureGroup(cmdLine.powRadix, cmdLine.productionMode);
+    GroupContext group = productionGroup();
 
+    GrpcChannels.configure(new GrpcChannels.Settings(cmdLine.eventLoopThreads, cmdLine.channelThreads,
+            cmdLine.flowControlWindowKB, cmdLine.keepAliveSecs, cmdLine.maxMessageMB));
     boolean allOk = false;
     RunRemoteDecryptor decryptor = null;
     try {
@@ -127,18 +194,15 @@ public class RunRemoteDecryptor {
       }
 
       decryptor = new RunRemoteDecryptor(group, consumer, electionRecord,
-              cmdLine.encryptDir, cmdLine.outputDir, cmdLine.navailable, cmdLine.decryptSpoiled, publisher);
+              cmdLine.encryptDir, cmdLine.outputDir, cmdLine.navailable, cmdLine.decryptSpoiled,
+              cmdLine.spoiledBatchSize, cmdLine.spoiledConcurrency, !cmdLine.noCheckpoint, cmdLine.checkpointMaxMB, cmdLine.resume,
+              new RpcPolicy(cmdLine.rpcDeadlineSecs, cmdLine.rpcMsecsPerText, cmdLine.rpcMaxAttempts), publisher);
       decryptor.start(cmdLine.port);
 
       System.out.print("Waiting for guardians to register: elapsed seconds = ");
       Stopwatch stopwatch = Stopwatch.createStarted();
-      while (!decryptor.ready()) {
+      while (!decryptor.awaitRegistration(5, TimeUnit.SECONDS)) {
         System.out.printf("%s ", stopwatch.elapsed(TimeUnit.SECONDS));
-        try {
-          Thread.sleep(5000);
-        } catch (InterruptedException e) {
-          e.printStackTrace();
-        }
       }
       System.out.printf("%n");
 
@@ -195,6 +259,9 @@ public class RunRemoteDecryptor {
   }
 
   ///////////////////////////////////////////////////////////////////////////
+  private static final int CONNECT_TIMEOUT_SECS = 30;
+  private static final String CHECKPOINT_DIR = "decryption_checkpoint";
+
   final Stopwatch stopwatch = Stopwatch.createUnstarted();
 
   final GroupContext group;
@@ -204,6 +271,12 @@ public class RunRemoteDecryptor {
   final String outputDir;
   final int navailable;
   final boolean decryptSpoiled;
+  final int spoiledBatchSize;
+  final int spoiledConcurrency;
+  final boolean checkpoint;
+  final int checkpointMaxMB;
+  final boolean resume;
+  final RpcPolicy rpcPolicy;
   final Publisher publisher;
 
   final int nguardians;
@@ -212,15 +285,20 @@ public class RunRemoteDecryptor {
   final EncryptedTally encryptedTally;
   final ElectionInitialized electionInitialized;
   final List<RemoteDecryptingTrusteeProxy> trusteeProxies = Collections.synchronizedList(new ArrayList<>());
+  // the trustee calls block, so use one thread for each call in flight
+  final ExecutorService dispatchExecutor = Executors.newCachedThreadPool();
+  // counted down when a registered trustee's channel is connected
+  final CountDownLatch allRegistered;
+  volatile long lastRegisteredNanos;
 
-  List<PlaintextTally> spoiledDecryptedTallies;
   List<DecryptingGuardian> availableGuardians;
-  boolean startedDecryption = false;
+  volatile boolean startedDecryption = false;
   PlaintextTally decryptedTally;
 
   RunRemoteDecryptor(GroupContext group, Consumer consumer, ElectionRecord electionRecord,
                      String encryptDir, String outputDir,
-                     int navailable, boolean decryptSpoiled, Publisher publisher) {
+                     int navailable, boolean decryptSpoiled, int spoiledBatchSize, int spoiledConcurrency,
+                     boolean checkpoint, int checkpointMaxMB, boolean resume, RpcPolicy rpcPolicy, Publisher publisher) {
     this.group = group;
     this.consumer = consumer;
     this.electionRecord = electionRecord;
@@ -229,6 +307,13 @@ public class RunRemoteDecryptor {
     this.navailable = navailable;
     this.publisher = publisher;
     this.decryptSpoiled = decryptSpoiled;
+    this.spoiledBatchSize = spoiledBatchSize;
+    this.spoiledConcurrency = spoiledConcurrency;
+    this.checkpoint = checkpoint;
+    this.checkpointMaxMB = checkpointMaxMB;
+    this.resume = resume;
+    this.rpcPolicy = rpcPolicy;
+    this.allRegistered = new CountDownLatch(navailable);
 
     this.nguardians = electionRecord.numberOfGuardians();
     this.quorum = electionRecord.quorum();
@@ -240,17 +325,26 @@ public class RunRemoteDecryptor {
             String.format("Available guardians (%d) must be >= quorum (%d)", this.navailable, this.quorum));
     Preconditions.checkArgument(this.navailable <= this.nguardians,
             String.format("Available guardians (%d) must be <= nguardians (%d)", this.navailable, this.nguardians));
+    Preconditions.checkArgument(spoiledBatchSize > 0 && spoiledConcurrency > 0,
+            "spoiledBatchSize and spoiledConcurrency must be > 0");
+    Preconditions.checkArgument(!checkpoint || checkpointMaxMB > 0, "checkpointMaxMB must be > 0");
+    Preconditions.checkArgument(checkpoint || !resume, "cant -resume with -noCheckpoint");
 
     System.out.printf("DecryptingRemote startup at %s%n", LocalDateTime.now());
     System.out.printf("DecryptingRemote quorum = %d available = %d nguardians = %d%n", this.quorum, this.navailable, this.nguardians);
     stopwatch.start();
   }
 
-  boolean ready() {
-    return trusteeProxies.size() == this.navailable;
+  /** Wait until navailable trustees have registered and are connected; starts the decryption if so. */
+  boolean awaitRegistration(long timeout, TimeUnit unit) throws InterruptedException {
+    if (allRegistered.await(timeout, unit)) {
+      startedDecryption = true;
+      return true;
+    }
+    return false;
   }
 
-  private boolean runDecryption() {
+  private boolean runDecryption() throws IOException {
 
     List<String> trusteeNames = trusteeProxies.stream().map(it -> it.id()).toList();
     List<String> missingGuardians = electionRecord.guardians().stream()
@@ -258,49 +352,126 @@ public class RunRemoteDecryptor {
                     .filter(guardianId -> !trusteeNames.contains(guardianId))
                     .toList();
 
-    Decryption decryptor = new Decryption(group, electionInitialized, trusteeProxies, missingGuardians);
-    this.decryptedTally = decryptor.decrypt(this.encryptedTally);
+    Map<String, PartialDecryptionMemo> checkpoints = openCheckpoints();
+    boolean ok = false;
+    try {
+      // send each decryption request to all the trustees at once
+      ElementModQ extendedBaseHash = UInt256Kt.toElementModQ(electionInitialized.getCryptoExtendedBaseHash(), group);
+      DecryptingTrusteeDispatcher dispatcher = new DecryptingTrusteeDispatcher(trusteeProxies, missingGuardians,
+              dispatchExecutor, extendedBaseHash, checkpoints);
+      Decryption decryptor = new Decryption(group, electionInitialized, dispatcher.trustees(), missingGuardians);
+      long idleMsecs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastRegisteredNanos);
+      logger.atInfo().log("last registration to first decryption call = %d ms", idleMsecs);
+      System.out.printf("registration to first decryption call = %d ms%n", idleMsecs);
+      this.decryptedTally = dispatcher.call(() -> decryptor.decrypt(this.encryptedTally));
 
-    if (this.decryptSpoiled) {
-      for (EncryptedBallot spoiled : consumer.iterateSpoiledBallots()) {
-        this.spoiledDecryptedTallies.add(decryptor.decryptBallot(spoiled));
+      ok = true;
+      if (this.decryptSpoiled) {
+        ok = decryptSpoiledBallots(decryptor, dispatcher);
       }
-      System.out.printf("spoiledDecryptedTallies count = %d%n", spoiledDecryptedTallies.size());
+
+      try {
+        publish(encryptDir, this.tallyResult, decryptor.getAvailableGuardians());
+      } catch (IOException e) {
+        e.printStackTrace();
+        ok = false;
+      }
+
+      System.out.printf("Trustee latencies%n%s", dispatcher.showLatencies());
+      System.out.printf("*** RunRemoteDecryptor %s%n", ok ? "SUCCESS" : "FAILURE");
+      return ok;
+
+    } finally {
+      closeCheckpoints(checkpoints, ok);
     }
+  }
 
-    boolean ok;
-    try {
-      publish(encryptDir, this.tallyResult, decryptor.getAvailableGuardians());
-      ok = true;
-    } catch (IOException e) {
-      e.printStackTrace();
-      ok = false;
+  /**
+   * One checkpoint file for each trustee, holding the partial decryptions received from it so far.
+   * Unless resuming, any old checkpoint is removed first. Empty if not checkpointing.
+   */
+  private Map<String, PartialDecryptionMemo> openCheckpoints() throws IOException {
+    if (!checkpoint) {
+      return Map.of();
+    }
+    Path dir = Path.of(outputDir, CHECKPOINT_DIR);
+    if (!resume) {
+      deleteCheckpoints(dir);
     }
+    Files.createDirectories(dir);
+    Map<String, PartialDecryptionMemo> checkpoints = new HashMap<>();
+    for (RemoteDecryptingTrusteeProxy trustee : trusteeProxies) {
+      checkpoints.put(trustee.id(), new PartialDecryptionMemo(group, dir.resolve(checkpointFileName(trustee.id())),
+              checkpointMaxMB * 1024L * 1024L));
+    }
+    return checkpoints;
+  }
 
-    System.out.printf("*** RunRemoteDecryptor %s%n", ok ? "SUCCESS" : "FAILURE");
-    return ok;
+  /** The trustee id comes from the trustee, so only keep its safe characters, and add its hash to keep the names distinct. */
+  static String checkpointFileName(String trusteeId) {
+    String safe = trusteeId.replaceAll("[^A-Za-z0-9_-]", "_");
+    String hash = Hashing.sha256().hashString(trusteeId, StandardCharsets.UTF_8).toString().substring(0, 16);
+    return safe + "-" + hash + ".dat";
   }
 
-  private void shutdownRemoteTrustees(boolean allOk) {
-    System.out.printf("Shutdown Remote Trustees%n");
-    // tell the remote trustees to finish
-    for (RemoteDecryptingTrusteeProxy trustee : trusteeProxies) {
-      try {
-        boolean ok = trustee.finish(allOk);
-        System.out.printf(" DecryptingRemoteTrusteeProxy %s shutdown was success = %s%n", trustee.id(), ok);
-      } catch (Throwable t) {
-        t.printStackTrace();
+  /** Keep the checkpoint for a later -resume if the decryption failed. */
+  private void closeCheckpoints(Map<String, PartialDecryptionMemo> checkpoints, boolean ok) throws IOException {
+    if (!checkpoint) {
+      return;
+    }
+    for (PartialDecryptionMemo checkpoint : checkpoints.values()) {
+      System.out.printf(" checkpoint %s%n", checkpoint.stats());
+      checkpoint.close();
+    }
+    if (ok) {
+      deleteCheckpoints(Path.of(outputDir, CHECKPOINT_DIR));
+    } else {
+      System.out.printf("Decryption failed; rerun with -resume to reuse the checkpoint in %s%n", Path.of(outputDir, CHECKPOINT_DIR));
+    }
+  }
+
+  private static void deleteCheckpoints(Path dir) throws IOException {
+    if (Files.exists(dir)) {
+      try (Stream<Path> files = Files.list(dir)) {
+        for (Path file : files.toList()) {
+          Files.delete(file);
+        }
       }
+      Files.delete(dir);
     }
+  }
 
-    // close the proxy channels
-    boolean shutdownOk = true;
-    for (RemoteDecryptingTrusteeProxy trustee : trusteeProxies) {
-      if (!trustee.shutdown()) {
-        shutdownOk = false;
+  /** Decrypt the spoiled ballots and write them as they are decrypted, so they are never all in memory. */
+  private boolean decryptSpoiledBallots(Decryption decryptor, DecryptingTrusteeDispatcher dispatcher) {
+    Stopwatch spoiledStopwatch = Stopwatch.createStarted();
+    SpoiledBallotPipeline pipeline = null;
+    try (PlaintextTallySinkIF sink = publisher.plaintextTallySink()) {
+      pipeline = new SpoiledBallotPipeline(group, decryptor, dispatcher, consumer.iterateSpoiledBallots(), sink,
+              spoiledBatchSize, spoiledConcurrency);
+      long count = pipeline.run();
+      System.out.printf("spoiled ballots decrypted count = %d took %s%n", count, spoiledStopwatch);
+      return true;
+    } catch (Throwable t) {
+      logger.atSevere().withCause(t).log("spoiled ballot decryption failed");
+      t.printStackTrace();
+      return false;
+    } finally {
+      if (pipeline != null) {
+        System.out.printf("Spoiled ballot stages%n%s", pipeline.showStages());
       }
     }
-    System.out.printf(" Proxy channel shutdown was success = %s%n", shutdownOk);
+  }
+
+  private void shutdownRemoteTrustees(boolean allOk) {
+    System.out.printf("Shutdown Remote Trustees%n");
+    // tell the remote trustees to finish
+    System.out.print(Broadcast.call("finish", trusteeProxies, RemoteDecryptingTrusteeProxy::id,
+            trustee -> trustee.finish(allOk), rpcPolicy.deadline(0)));
+
+    // close the proxy channels
+    System.out.print(Broadcast.call("channel shutdown", trusteeProxies, RemoteDecryptingTrusteeProxy::id,
+            RemoteDecryptingTrusteeProxy::shutdown, Deadline.after(RemoteDecryptingTrusteeProxy.SHUTDOWN_SECS + 1, TimeUnit.SECONDS)));
+    dispatchExecutor.shutdownNow();
   }
 
   void publish(String inputDir, TallyResult tallyResult, List<DecryptingGuardian> decryptingGuardians) throws IOException {
@@ -328,16 +499,48 @@ public class RunRemoteDecryptor {
         throw new IllegalArgumentException("Already have a guardian id=" + request.getGuardianId());
       }
     }
+    if (trusteeProxies.size() >= navailable) {
+      throw new IllegalArgumentException("Already have navailable=" + navailable + " guardians");
+    }
     RemoteDecryptingTrusteeProxy.Builder builder = RemoteDecryptingTrusteeProxy.builder();
     builder.setTrusteeId(request.getGuardianId());
     builder.setUrl(request.getRemoteUrl());
     builder.setXCoordinate(request.getGuardianXCoordinate());
     builder.setElectionPublicKey(ConvertCommonProto.importElementModP(group, request.getPublicKey()));
+    builder.setPackedEncoding(request.getPackedEncoding());
+    builder.setRpcPolicy(rpcPolicy);
     RemoteDecryptingTrusteeProxy trustee = builder.build();
     trusteeProxies.add(trustee);
     return trustee;
   }
 
+  /**
+   * Wait for the registered trustee's channel to connect; if it cant be reached, drop it.
+   * The trustee is listening before it registers, so this is checked before answering its registration.
+   */
+  private boolean awaitConnection(RemoteDecryptingTrusteeProxy trustee) {
+    boolean ready;
+    try {
+      ready = trustee.awaitReady(CONNECT_TIMEOUT_SECS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      ready = false;
+    }
+    if (!ready) {
+      logger.atSevere().log("DecryptingRemote trustee %s not reachable after %d secs, dropping it", trustee.id(), CONNECT_TIMEOUT_SECS);
+      trusteeProxies.remove(trustee);
+      trustee.shutdown();
+    }
+    return ready;
+  }
+
+  /** The trustee counts as registered once it has been told its registration succeeded. */
+  private void connected(RemoteDecryptingTrusteeProxy trustee) {
+    lastRegisteredNanos = System.nanoTime();
+    allRegistered.countDown();
+    logger.atInfo().log("DecryptingRemote trustee %s connected, waiting for %d more", trustee.id(), allRegistered.getCount());
+  }
+
   private class DecryptingRegistrationService extends DecryptingServiceGrpc.DecryptingServiceImplBase {
 
     @Override
@@ -356,9 +559,17 @@ public class RunRemoteDecryptor {
       DecryptingProto.RegisterDecryptingTrusteeResponse.Builder response = DecryptingProto.RegisterDecryptingTrusteeResponse.newBuilder();
       try {
         RemoteDecryptingTrusteeProxy trustee = RunRemoteDecryptor.this.registerTrustee(request);
-        responseObserver.onNext(response.build());
-        responseObserver.onCompleted();
-        logger.atInfo().log("DecryptingRemote registerTrustee %s", trustee.id());
+        dispatchExecutor.execute(() -> {
+          if (!awaitConnection(trustee)) {
+            response.setError(String.format("cant connect to %s within %d secs", request.getRemoteUrl(), CONNECT_TIMEOUT_SECS));
+          }
+          responseObserver.onNext(response.build());
+          responseObserver.onCompleted();
+          if (response.getError().isEmpty()) {
+            logger.atInfo().log("DecryptingRemote registerTrustee %s", trustee.id());
+            connected(trustee);
+          }
+        });
 
       } catch (Throwable t) {
         logger.atSevere().withCause(t).log("DecryptingRemote registerTrustee failed");
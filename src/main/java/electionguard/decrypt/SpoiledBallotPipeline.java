@@ -0,0 +1,258 @@
+package electionguard.decrypt;
+
+import com.google.common.flogger.FluentLogger;
+import electionguard.ballot.EncryptedBallot;
+import electionguard.ballot.PlaintextTally;
+import electionguard.core.ElGamalCiphertext;
+import electionguard.core.GroupContext;
+import electionguard.publish.PlaintextTallySinkIF;
+import electionguard.util.Priority;
+
+import java.util.ArrayList;
+import java.util.Formatter;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decrypts the spoiled ballots and writes them out in three stages, each on its own thread:
+ * <ol>
+ *   <li>prefetch: reads the spoiled ballots and sends each batch of them to the trustees, see DecryptingTrusteeDispatcher.prefetch()</li>
+ *   <li>decrypt: the Decryption engine decrypts each ballot of a batch, from the partial decryptions already fetched</li>
+ *   <li>write: writes each decrypted ballot to the sink</li>
+ * </ol>
+ * The stages are connected by bounded queues, so a slow stage blocks the ones before it, and no more than
+ * about (2 * concurrency + 3) batches are in memory, however many spoiled ballots there are.
+ * If any stage fails, the others are cancelled.
+ */
+class SpoiledBallotPipeline {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+  private static final int STAGE_EXIT_SECS = 30;
+
+  // marks the end of a queue
+  private static final SpoiledBatch END_BATCHES = new SpoiledBatch(List.of(), null);
+  private static final List<PlaintextTally> END_TALLIES = new ArrayList<>();
+
+  private final GroupContext group;
+  private final Decryption decryptor;
+  private final DecryptingTrusteeDispatcher dispatcher;
+  private final Iterable<EncryptedBallot> spoiledBallots;
+  private final PlaintextTallySinkIF sink;
+  private final int batchSize;
+  private final BlockingQueue<SpoiledBatch> batches;
+  private final BlockingQueue<List<PlaintextTally>> tallies;
+
+  private final Stage prefetchStage = new Stage("prefetch");
+  private final Stage decryptStage = new Stage("decrypt");
+  private final Stage writeStage = new Stage("write");
+
+  /**
+   * @param batchSize number of ballots sent to the trustees in one request.
+   * @param concurrency number of batches in flight to the trustees ahead of the Decryption engine.
+   */
+  SpoiledBallotPipeline(GroupContext group, Decryption decryptor, DecryptingTrusteeDispatcher dispatcher,
+                        Iterable<EncryptedBallot> spoiledBallots, PlaintextTallySinkIF sink,
+                        int batchSize, int concurrency) {
+    this.group = group;
+    this.decryptor = decryptor;
+    this.dispatcher = dispatcher;
+    this.spoiledBallots = spoiledBallots;
+    this.sink = sink;
+    this.batchSize = batchSize;
+    this.batches = new ArrayBlockingQueue<>(concurrency);
+    this.tallies = new ArrayBlockingQueue<>(concurrency);
+  }
+
+  /** Run all the stages to completion. Returns the number of spoiled ballots written. */
+  long run() throws InterruptedException, ExecutionException {
+    ExecutorService stages = Executors.newFixedThreadPool(3);
+    ExecutorCompletionService<Void> completion = new ExecutorCompletionService<>(stages);
+    List<Future<Void>> futures = new ArrayList<>();
+    try {
+      // the trustees serve the tally before the spoiled ballots
+      futures.add(completion.submit(Priority.SPOILED.wrap(this::prefetch), null));
+      futures.add(completion.submit(Priority.SPOILED.wrap(this::decrypt), null));
+      futures.add(completion.submit(this::write, null));
+      for (int i = 0; i < futures.size(); i++) {
+        completion.take().get(); // throws if the stage failed
+      }
+      return writeStage.count.get();
+
+    } finally {
+      futures.forEach(f -> f.cancel(true));
+      stages.shutdownNow();
+      // a prefetch may still be putting its batch; wait for it, so the sweep below sees it
+      try {
+        if (!stages.awaitTermination(STAGE_EXIT_SECS, TimeUnit.SECONDS)) {
+          logger.atWarning().log("spoiled ballot stages didnt stop within %d secs", STAGE_EXIT_SECS);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      // release any batches prefetched but not decrypted
+      for (SpoiledBatch batch : batches) {
+        if (batch != END_BATCHES) {
+          batch.prefetched.close();
+        }
+      }
+    }
+  }
+
+  /** The throughput of each stage. */
+  String showStages() {
+    Formatter f = new Formatter();
+    f.format("%-10s %8s %10s %10s %12s%n", "stage", "nballots", "total ms", "blocked ms", "ballots/sec");
+    for (Stage stage : List.of(prefetchStage, decryptStage, writeStage)) {
+      stage.show(f);
+    }
+    return f.toString();
+  }
+
+  private void prefetch() {
+    prefetchStage.start();
+    try {
+      Iterator<EncryptedBallot> iter = spoiledBallots.iterator();
+      while (iter.hasNext()) {
+        List<EncryptedBallot> ballots = new ArrayList<>(batchSize);
+        while (ballots.size() < batchSize && iter.hasNext()) {
+          ballots.add(iter.next());
+        }
+        List<List<ElGamalCiphertext>> texts = ballots.stream().map(SpoiledBallotPipeline::ballotTexts).toList();
+        SpoiledBatch batch = new SpoiledBatch(ballots, dispatcher.prefetch(group, texts));
+        prefetchStage.count.addAndGet(ballots.size());
+        try {
+          put(batches, batch, prefetchStage);
+        } catch (RuntimeException e) {
+          batch.prefetched.close();
+          throw e;
+        }
+      }
+      put(batches, END_BATCHES, prefetchStage);
+    } finally {
+      prefetchStage.stop();
+    }
+  }
+
+  private void decrypt() {
+    decryptStage.start();
+    try {
+      while (true) {
+        SpoiledBatch batch = take(batches, decryptStage);
+        if (batch == END_BATCHES) {
+          break;
+        }
+        List<PlaintextTally> decrypted = new ArrayList<>(batch.ballots.size());
+        try (DecryptingTrusteeDispatcher.Batch prefetched = batch.prefetched) {
+          for (EncryptedBallot ballot : batch.ballots) {
+            decrypted.add(dispatcher.call(() -> decryptor.decryptBallot(ballot)));
+          }
+        }
+        decryptStage.count.addAndGet(decrypted.size());
+        put(tallies, decrypted, decryptStage);
+      }
+      put(tallies, END_TALLIES, decryptStage);
+    } finally {
+      decryptStage.stop();
+    }
+  }
+
+  private void write() {
+    writeStage.start();
+    try {
+      while (true) {
+        List<PlaintextTally> decrypted = take(tallies, writeStage);
+        if (decrypted == END_TALLIES) {
+          break;
+        }
+        for (PlaintextTally tally : decrypted) {
+          sink.writePlaintextTally(tally);
+        }
+        writeStage.count.addAndGet(decrypted.size());
+      }
+    } finally {
+      writeStage.stop();
+    }
+  }
+
+  /**
+   * The texts of a ballot, in the order the Decryption engine is expected to ask the trustees for them. This is a
+   * guess from the library's current code, not part of its API; see DecryptingTrusteeDispatcher.
+   */
+  static List<ElGamalCiphertext> ballotTexts(EncryptedBallot ballot) {
+    return ballot.getContests().stream()
+            .flatMap(contest -> contest.getSelections().stream())
+            .map(selection -> selection.getCiphertext())
+            .toList();
+  }
+
+  private static <T> void put(BlockingQueue<T> queue, T item, Stage stage) {
+    long start = System.nanoTime();
+    try {
+      queue.put(item);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(stage.name + " stage was cancelled");
+    } finally {
+      stage.blockedNanos.addAndGet(System.nanoTime() - start);
+    }
+  }
+
+  private static <T> T take(BlockingQueue<T> queue, Stage stage) {
+    long start = System.nanoTime();
+    try {
+      return queue.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(stage.name + " stage was cancelled");
+    } finally {
+      stage.blockedNanos.addAndGet(System.nanoTime() - start);
+    }
+  }
+
+  private static class SpoiledBatch {
+    final List<EncryptedBallot> ballots;
+    final DecryptingTrusteeDispatcher.Batch prefetched;
+
+    SpoiledBatch(List<EncryptedBallot> ballots, DecryptingTrusteeDispatcher.Batch prefetched) {
+      this.ballots = ballots;
+      this.prefetched = prefetched;
+    }
+  }
+
+  private static class Stage {
+    final String name;
+    final AtomicLong count = new AtomicLong();
+    final AtomicLong blockedNanos = new AtomicLong();
+    volatile long startNanos;
+    volatile long stopNanos;
+
+    Stage(String name) {
+      this.name = name;
+    }
+
+    void start() {
+      startNanos = System.nanoTime();
+    }
+
+    void stop() {
+      stopNanos = System.nanoTime();
+      logger.atInfo().log("spoiled ballot %s stage done, nballots = %d", name, count.get());
+    }
+
+    /** A stage that never started, or never stopped, shows no time. */
+    void show(Formatter f) {
+      long totalMsecs = (startNanos == 0 || stopNanos < startNanos) ? 0 : TimeUnit.NANOSECONDS.toMillis(stopNanos - startNanos);
+      double rate = totalMsecs == 0 ? 0.0 : count.get() * 1000.0 / totalMsecs;
+      f.format("%-10s %8d %10d %10d %12.1f%n", name, count.get(), totalMsecs,
+              TimeUnit.NANOSECONDS.toMillis(blockedNanos.get()), rate);
+    }
+  }
+}
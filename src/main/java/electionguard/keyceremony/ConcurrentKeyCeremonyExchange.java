@@ -0,0 +1,261 @@
+package electionguard.keyceremony;
+
+import com.github.michaelbull.result.Err;
+import com.github.michaelbull.result.Ok;
+import com.github.michaelbull.result.Result;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import com.google.common.flogger.FluentLogger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * The key ceremony exchange of KeyCeremonyKt.keyCeremonyExchange, with the pairwise transfers done concurrently.
+ * <p>
+ * Each trustee's public keys are sent to every other trustee as soon as they arrive, and every secret key share is
+ * sent and received independently of the others. At most maxCallsPerTrustee calls are made to any one trustee at once.
+ * As in the library, the exchange fails if any public key transfer fails, before any shares are sent, and then if any
+ * share transfer fails. The results are the public keys of the trustees, in the trustees' order.
+ * <p>
+ * The critical path is the longest chain of calls that had to follow each other; it is the wall time the exchange
+ * would take if no call waited for another.
+ * <p>
+ * When all the trustees are remote, each receiver is sent all the others' keys in one receiveAllPublicKeys call once
+ * every trustee's keys have arrived, instead of one call per pair.
+ * <p>
+ * Each trustee is asked for its shares in the order of the designated trustees' x coordinates, which is the order
+ * RunRemoteTrustee precomputes them in.
+ */
+class ConcurrentKeyCeremonyExchange {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+  static final int DEFAULT_MAX_CALLS_PER_TRUSTEE = 4;
+
+  private final List<KeyCeremonyTrusteeIF> trustees;
+  private final int maxCallsPerTrustee;
+  private final Map<String, Semaphore> permits = new HashMap<>();
+  private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+
+  private final AtomicInteger ncalls = new AtomicInteger();
+  private final AtomicLong totalCallNanos = new AtomicLong();
+  private long wallMsecs;
+  private long criticalPathNanos;
+
+  ConcurrentKeyCeremonyExchange(List<KeyCeremonyTrusteeIF> trustees, int maxCallsPerTrustee) {
+    Preconditions.checkArgument(maxCallsPerTrustee > 0, "maxCallsPerTrustee must be > 0");
+    this.trustees = List.copyOf(trustees);
+    this.maxCallsPerTrustee = maxCallsPerTrustee;
+    // fair, so a trustee's calls are made in the order they were asked for
+    this.trustees.forEach(t -> permits.put(t.id(), new Semaphore(maxCallsPerTrustee, true)));
+  }
+
+  Result<KeyCeremonyResults, String> run() {
+    String invalid = validate();
+    if (invalid != null) {
+      return new Err(invalid);
+    }
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    ExecutorService executor = Executors.newFixedThreadPool(trustees.size() * maxCallsPerTrustee);
+    try {
+      PublicKeys[] publicKeys = new PublicKeys[trustees.size()];
+      criticalPathNanos = allRemote() ? exchangePublicKeysBatched(executor, publicKeys) : exchangePublicKeys(executor, publicKeys);
+      if (!errors.isEmpty()) {
+        return new Err("keyCeremonyExchange failed exchanging public keys:\n  " + String.join("\n  ", errors));
+      }
+      criticalPathNanos += exchangeSecretKeyShares(executor);
+      if (!errors.isEmpty()) {
+        return new Err("keyCeremonyExchange failed exchanging secret keys:\n  " + String.join("\n  ", errors));
+      }
+      return new Ok(new KeyCeremonyResults(Arrays.asList(publicKeys)));
+
+    } finally {
+      executor.shutdownNow();
+      wallMsecs = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+      logger.atInfo().log("keyCeremonyExchange %s", stats());
+    }
+  }
+
+  /** The same checks as the library makes before the exchange. */
+  private String validate() {
+    Set<String> ids = new HashSet<>();
+    Set<Integer> xcoords = new HashSet<>();
+    for (KeyCeremonyTrusteeIF trustee : trustees) {
+      if (!ids.add(trustee.id())) {
+        return "keyCeremonyExchange trustees have non-unique ids = " + trustees.stream().map(KeyCeremonyTrusteeIF::id).toList();
+      }
+      if (!xcoords.add(trustee.xCoordinate())) {
+        return "keyCeremonyExchange trustees have non-unique xcoordinates = " + trustees.stream().map(KeyCeremonyTrusteeIF::xCoordinate).toList();
+      }
+    }
+    return null;
+  }
+
+  /** Each trustee's keys are sent to the others as soon as they arrive. Returns the critical path in nanos. */
+  private long exchangePublicKeys(ExecutorService executor, PublicKeys[] publicKeys) {
+    List<CompletableFuture<Long>> chains = new ArrayList<>();
+    for (int i = 0; i < trustees.size(); i++) {
+      KeyCeremonyTrusteeIF owner = trustees.get(i);
+      int index = i;
+      chains.add(CompletableFuture.<Timed<PublicKeys>>supplyAsync(() -> call(owner, "sendPublicKeys", owner::sendPublicKeys), executor)
+              .thenCompose(sent -> {
+                if (sent.result.component2() != null) {
+                  errors.add(String.format("%s sendPublicKeys: %s", owner.id(), sent.result.component2()));
+                  return CompletableFuture.completedFuture(sent.nanos);
+                }
+                PublicKeys keys = sent.result.component1();
+                publicKeys[index] = keys;
+                List<CompletableFuture<Long>> receives = others(owner).stream()
+                        .map(receiver -> CompletableFuture.supplyAsync(() -> {
+                          Timed<PublicKeys> received = call(receiver, "receivePublicKeys", () -> receiver.receivePublicKeys(keys));
+                          if (received.result.component2() != null) {
+                            errors.add(String.format("%s receivePublicKeys from %s: %s", receiver.id(), owner.id(), received.result.component2()));
+                          }
+                          return received.nanos;
+                        }, executor))
+                        .toList();
+                return longest(receives).thenApply(nanos -> sent.nanos + nanos);
+              }));
+    }
+    return longest(chains).join();
+  }
+
+  private boolean allRemote() {
+    return trustees.stream().allMatch(t -> t instanceof RemoteTrusteeProxy);
+  }
+
+  /** All the keys are gathered, then each trustee is sent the others' keys in one call. Returns the critical path in nanos. */
+  private long exchangePublicKeysBatched(ExecutorService executor, PublicKeys[] publicKeys) {
+    List<CompletableFuture<Long>> sends = new ArrayList<>();
+    for (int i = 0; i < trustees.size(); i++) {
+      KeyCeremonyTrusteeIF owner = trustees.get(i);
+      int index = i;
+      sends.add(CompletableFuture.supplyAsync(() -> {
+        Timed<PublicKeys> sent = call(owner, "sendPublicKeys", owner::sendPublicKeys);
+        if (sent.result.component2() != null) {
+          errors.add(String.format("%s sendPublicKeys: %s", owner.id(), sent.result.component2()));
+        } else {
+          publicKeys[index] = sent.result.component1();
+        }
+        return sent.nanos;
+      }, executor));
+    }
+    long sendNanos = longest(sends).join();
+    if (!errors.isEmpty()) {
+      return sendNanos;
+    }
+
+    List<CompletableFuture<Long>> receives = new ArrayList<>();
+    for (int i = 0; i < trustees.size(); i++) {
+      RemoteTrusteeProxy receiver = (RemoteTrusteeProxy) trustees.get(i);
+      List<PublicKeys> keys = new ArrayList<>();
+      for (int j = 0; j < trustees.size(); j++) {
+        if (j != i) {
+          keys.add(publicKeys[j]);
+        }
+      }
+      receives.add(CompletableFuture.supplyAsync(() -> {
+        Timed<Map<String, String>> received = call(receiver, "receiveAllPublicKeys",
+                () -> new Ok(receiver.receiveAllPublicKeys(keys)));
+        if (received.result.component2() != null) {
+          errors.add(String.format("%s receiveAllPublicKeys: %s", receiver.id(), received.result.component2()));
+        } else {
+          received.result.component1().forEach((ownerId, error) ->
+                  errors.add(String.format("%s receivePublicKeys from %s: %s", receiver.id(), ownerId, error)));
+        }
+        return received.nanos;
+      }, executor));
+    }
+    return sendNanos + longest(receives).join();
+  }
+
+  /**
+   * Every share is sent and received on its own, each generator's in order of the designated x coordinate.
+   * Returns the critical path in nanos.
+   */
+  private long exchangeSecretKeyShares(ExecutorService executor) {
+    List<CompletableFuture<Long>> chains = new ArrayList<>();
+    for (KeyCeremonyTrusteeIF generator : trustees) {
+      List<KeyCeremonyTrusteeIF> designatedOrder = others(generator).stream()
+              .sorted(Comparator.comparingInt(KeyCeremonyTrusteeIF::xCoordinate))
+              .toList();
+      for (KeyCeremonyTrusteeIF designated : designatedOrder) {
+        chains.add(CompletableFuture.supplyAsync(() -> {
+          Timed<SecretKeyShare> sent = call(generator, "sendSecretKeyShare", () -> generator.sendSecretKeyShare(designated.id()));
+          if (sent.result.component2() != null) {
+            errors.add(String.format("%s sendSecretKeyShare for %s: %s", generator.id(), designated.id(), sent.result.component2()));
+            return sent.nanos;
+          }
+          SecretKeyShare share = sent.result.component1();
+          Timed<SecretKeyShare> received = call(designated, "receiveSecretKeyShare", () -> designated.receiveSecretKeyShare(share));
+          if (received.result.component2() != null) {
+            errors.add(String.format("%s receiveSecretKeyShare from %s: %s", designated.id(), generator.id(), received.result.component2()));
+          }
+          return sent.nanos + received.nanos;
+        }, executor));
+      }
+    }
+    return longest(chains).join();
+  }
+
+  private List<KeyCeremonyTrusteeIF> others(KeyCeremonyTrusteeIF trustee) {
+    return trustees.stream().filter(t -> !t.id().equals(trustee.id())).toList();
+  }
+
+  /** Call the trustee when it has a free permit; an exception becomes an Err, as from the proxy. */
+  @SuppressWarnings("unchecked")
+  private <T> Timed<T> call(KeyCeremonyTrusteeIF trustee, String what, Supplier<Result<T, String>> rpc) {
+    Semaphore limit = permits.get(trustee.id());
+    limit.acquireUninterruptibly();
+    long start = System.nanoTime();
+    Result<T, String> result;
+    try {
+      result = rpc.get();
+    } catch (RuntimeException e) {
+      logger.atSevere().withCause(e).log("%s %s failed", trustee.id(), what);
+      result = new Err(what + " failed: " + e.getMessage());
+    } finally {
+      limit.release();
+    }
+    long nanos = System.nanoTime() - start;
+    ncalls.incrementAndGet();
+    totalCallNanos.addAndGet(nanos);
+    return new Timed<>(result, nanos);
+  }
+
+  private static CompletableFuture<Long> longest(List<CompletableFuture<Long>> futures) {
+    return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+            .thenApply(v -> futures.stream().mapToLong(CompletableFuture::join).max().orElse(0));
+  }
+
+  /** The wall time, the critical path, and the sum of the call times, which is about what one call at a time takes. */
+  String stats() {
+    return String.format("ncalls=%d wall=%d ms criticalPath=%d ms sumOfCalls=%d ms maxCallsPerTrustee=%d",
+            ncalls.get(), wallMsecs, TimeUnit.NANOSECONDS.toMillis(criticalPathNanos),
+            TimeUnit.NANOSECONDS.toMillis(totalCallNanos.get()), maxCallsPerTrustee);
+  }
+
+  private static class Timed<T> {
+    final Result<T, String> result;
+    final long nanos;
+
+    Timed(Result<T, String> result, long nanos) {
+      this.result = result;
+      this.nanos = nanos;
+    }
+  }
+}
@@ -3,8 +3,8 @@ package electionguard.keyceremony;
 import com.google.common.flogger.FluentLogger;
 import electionguard.protogen2.RemoteKeyCeremonyProto;
 import electionguard.protogen2.RemoteKeyCeremonyServiceGrpc;
+import electionguard.util.GrpcChannels;
 import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
 import io.grpc.StatusRuntimeException;
 
 import java.util.concurrent.TimeUnit;
@@ -20,11 +20,8 @@ class RemoteKeyCeremonyProxy {
   private final RemoteKeyCeremonyServiceGrpc.RemoteKeyCeremonyServiceBlockingStub blockingStub;
 
   RemoteKeyCeremonyProxy(String url) {
-    this.channel = ManagedChannelBuilder.forTarget(url)
-            .usePlaintext()
+    this.channel = GrpcChannels.forTarget(url)
             .enableFullStreamDecompression()
-            .usePlaintext()
-            .maxInboundMessageSize(2000)
             .build();
 
     blockingStub = RemoteKeyCeremonyServiceGrpc.newBlockingStub(channel);
@@ -40,11 +37,12 @@ class RemoteKeyCeremonyProxy {
     }
   }
 
-  RemoteKeyCeremonyProto.RegisterKeyCeremonyTrusteeResponse registerTrustee(String guardianId, String remoteUrl) {
+  RemoteKeyCeremonyProto.RegisterKeyCeremonyTrusteeResponse registerTrustee(String guardianId, String remoteUrl, boolean packedEncoding) {
     try {
       RemoteKeyCeremonyProto.RegisterKeyCeremonyTrusteeRequest request = RemoteKeyCeremonyProto.RegisterKeyCeremonyTrusteeRequest.newBuilder()
               .setGuardianId(guardianId)
               .setRemoteUrl(remoteUrl)
+              .setPackedEncoding(packedEncoding)
               .build();
       return blockingStub.registerTrustee(request);
 
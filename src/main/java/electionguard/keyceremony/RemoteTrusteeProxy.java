@@ -10,11 +10,18 @@ import electionguard.core.SchnorrProof;
 import electionguard.protogen2.CommonRpcProto;
 import electionguard.protogen2.RemoteKeyCeremonyTrusteeProto;
 import electionguard.protogen2.RemoteKeyCeremonyTrusteeServiceGrpc;
+import electionguard.util.ConvertPackedProto;
+import electionguard.util.GrpcChannels;
+import electionguard.util.GuardianRoute;
+import electionguard.util.RpcPolicy;
 import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
+import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
 
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
 import static electionguard.protogen2.RemoteKeyCeremonyTrusteeServiceGrpc.RemoteKeyCeremonyTrusteeServiceBlockingStub;
@@ -27,9 +34,9 @@ import static electionguard.util.KUtils.productionGroup;
  */
 class RemoteTrusteeProxy implements KeyCeremonyTrusteeIF {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
-  private static final int MAX_MESSAGE = 51 * 1000 * 1000; // 51 Mb
+  static final int SHUTDOWN_SECS = 5; // to wait for the channel to close
 
-  GroupContext group = productionGroup();
+  private final GroupContext group = productionGroup(); // the process's GroupContext, see KUtils
 
   @Override
   public String id() {
@@ -55,18 +62,19 @@ class RemoteTrusteeProxy implements KeyCeremonyTrusteeIF {
   public Result<PublicKeys, String> sendPublicKeys() {
     try {
       logger.atInfo().log("%s proxy sendPublicKeys", id());
-      RemoteKeyCeremonyTrusteeProto.PublicKeySetRequest request = RemoteKeyCeremonyTrusteeProto.PublicKeySetRequest.getDefaultInstance();
-      RemoteKeyCeremonyTrusteeProto.PublicKeySet response = blockingStub.sendPublicKeys(request);
+      RemoteKeyCeremonyTrusteeProto.PublicKeySetRequest request = RemoteKeyCeremonyTrusteeProto.PublicKeySetRequest.newBuilder()
+              .setPacked(packedEncoding)
+              .build();
+      RemoteKeyCeremonyTrusteeProto.PublicKeySet response = rpcPolicy.call(id() + " sendPublicKeys", quorum,
+              deadline -> blockingStub.withDeadline(deadline).sendPublicKeys(request));
       if (!response.getError().isEmpty()) {
         logger.atSevere().log("%s proxy sendPublicKeys failed: %s", id(), response.getError());
         return new Err(response.getError());
       }
 
-      logger.atInfo().log("%s proxy getCoefficientComittmentsCount %d", id(), response.getCoefficientComittmentsCount());
-
-      List<ElementModP> commitments = response.getCoefficientComittmentsList().stream()
-              .map(p -> importElementModP(group, p))
-              .toList();
+      List<ElementModP> commitments = response.hasPackedCommitments() ?
+              ConvertPackedProto.importElementModPBatch(group, response.getPackedCommitments()) :
+              importElementModPs(group, response.getCoefficientComittmentsList());
       logger.atInfo().log("%s proxy commitments %d", id(), commitments.size());
 
       List<SchnorrProof> proofs = response.getCoefficientProofsList().stream()
@@ -89,13 +97,11 @@ class RemoteTrusteeProxy implements KeyCeremonyTrusteeIF {
   public Result<PublicKeys, String> receivePublicKeys(PublicKeys keyset) {
     try {
       logger.atInfo().log("%s proxy receivePublicKeys from %s", id(), keyset.getGuardianId());
-      RemoteKeyCeremonyTrusteeProto.PublicKeySet.Builder request = RemoteKeyCeremonyTrusteeProto.PublicKeySet.newBuilder();
-      request.setOwnerId(keyset.getGuardianId())
-              .setGuardianXCoordinate(keyset.getGuardianXCoordinate());
-      keyset.getCoefficientCommitments().forEach(c -> request.addCoefficientComittments(publishElementModP(c)));
-      keyset.getCoefficientProofs().forEach(p -> request.addCoefficientProofs(publishSchnorrProof(p)));
-
-      CommonRpcProto.ErrorResponse response = blockingStub.receivePublicKeys(request.build());
+      RemoteKeyCeremonyTrusteeProto.PublicKeySet built = publicKeySet(keyset).toBuilder()
+              .setRequestId(UUID.randomUUID().toString())
+              .build();
+      CommonRpcProto.ErrorResponse response = rpcPolicy.call(id() + " receivePublicKeys", quorum,
+              deadline -> blockingStub.withDeadline(deadline).receivePublicKeys(built));
       if (!response.getError().isEmpty()) {
         logger.atSevere().log("proxy receivePublicKeys failed: '%s'", response.getError());
         return new Err(response.getError());
@@ -108,11 +114,74 @@ class RemoteTrusteeProxy implements KeyCeremonyTrusteeIF {
     return new Ok(keyset);
   }
 
+  /**
+   * Send the keys of all the other trustees in one call. Returns, by owner id, the error for each key set the trustee
+   * rejected; empty if it accepted them all. A trustee that doesnt implement receiveAllPublicKeys gets them one at a time.
+   */
+  Map<String, String> receiveAllPublicKeys(List<PublicKeys> keysets) {
+    Map<String, String> rejected = new LinkedHashMap<>();
+    if (useReceiveAll) {
+      try {
+        logger.atInfo().log("%s proxy receiveAllPublicKeys count=%d", id(), keysets.size());
+        RemoteKeyCeremonyTrusteeProto.PublicKeySets.Builder request = RemoteKeyCeremonyTrusteeProto.PublicKeySets.newBuilder();
+        keysets.forEach(keyset -> request.addKeySets(publicKeySet(keyset)));
+        request.setRequestId(UUID.randomUUID().toString());
+        RemoteKeyCeremonyTrusteeProto.PublicKeySets built = request.build();
+        RemoteKeyCeremonyTrusteeProto.PublicKeyVerdicts response = rpcPolicy.call(id() + " receiveAllPublicKeys",
+                quorum * keysets.size(), deadline -> blockingStub.withDeadline(deadline).receiveAllPublicKeys(built));
+        if (!response.getError().isEmpty()) {
+          logger.atSevere().log("%s proxy receiveAllPublicKeys failed: '%s'", id(), response.getError());
+          keysets.forEach(keyset -> rejected.put(keyset.getGuardianId(), response.getError()));
+        } else {
+          response.getVerdictsList().stream()
+                  .filter(verdict -> !verdict.getError().isEmpty())
+                  .forEach(verdict -> rejected.put(verdict.getOwnerId(), verdict.getError()));
+        }
+        return rejected;
+
+      } catch (StatusRuntimeException e) {
+        if (e.getStatus().getCode() != Status.Code.UNIMPLEMENTED) {
+          logger.atSevere().withCause(e).log("%s proxy receiveAllPublicKeys failed", id());
+          keysets.forEach(keyset -> rejected.put(keyset.getGuardianId(), "proxy receiveAllPublicKeys StatusRuntimeException: " + e.getMessage()));
+          return rejected;
+        }
+        logger.atWarning().log("%s does not implement receiveAllPublicKeys, using receivePublicKeys", id());
+        useReceiveAll = false;
+      }
+    }
+
+    for (PublicKeys keyset : keysets) {
+      Result<PublicKeys, String> result = receivePublicKeys(keyset);
+      if (result.component2() != null) {
+        rejected.put(keyset.getGuardianId(), result.component2());
+      }
+    }
+    return rejected;
+  }
+
+  /** The keys as a message; if their owner is in the same process as this trustee, just the ids. */
+  private RemoteKeyCeremonyTrusteeProto.PublicKeySet publicKeySet(PublicKeys keyset) {
+    RemoteKeyCeremonyTrusteeProto.PublicKeySet.Builder request = RemoteKeyCeremonyTrusteeProto.PublicKeySet.newBuilder();
+    request.setOwnerId(keyset.getGuardianId())
+            .setGuardianXCoordinate(keyset.getGuardianXCoordinate());
+    if (isSameHost(keyset.getGuardianId())) {
+      request.setFromSameHost(true);
+    } else if (packedEncoding) {
+      request.setPackedCommitments(ConvertPackedProto.publishElementModPBatch(group, keyset.getCoefficientCommitments()));
+      keyset.getCoefficientProofs().forEach(p -> request.addCoefficientProofs(publishSchnorrProof(p)));
+    } else {
+      request.addAllCoefficientComittments(publishElementModPs(keyset.getCoefficientCommitments()));
+      keyset.getCoefficientProofs().forEach(p -> request.addCoefficientProofs(publishSchnorrProof(p)));
+    }
+    return request.build();
+  }
+
   @Override
   public Result<SecretKeyShare, String> sendSecretKeyShare(String guardianId) {
     try {
       RemoteKeyCeremonyTrusteeProto.PartialKeyBackupRequest request = RemoteKeyCeremonyTrusteeProto.PartialKeyBackupRequest.newBuilder().setGuardianId(guardianId).build();
-      RemoteKeyCeremonyTrusteeProto.PartialKeyBackup response = blockingStub.sendSecretKeyShare(request);
+      RemoteKeyCeremonyTrusteeProto.PartialKeyBackup response = rpcPolicy.call(id() + " sendSecretKeyShare", 1,
+              deadline -> blockingStub.withDeadline(deadline).sendSecretKeyShare(request));
       if (!response.getError().isEmpty()) {
         logger.atSevere().log("proxy sendSecretKeyShare failed: '%s'", response.getError());
         return new Err(response.getError());
@@ -137,9 +206,16 @@ class RemoteTrusteeProxy implements KeyCeremonyTrusteeIF {
       request.setGeneratingGuardianId(backup.getGeneratingGuardianId())
               .setDesignatedGuardianId(backup.getDesignatedGuardianId())
               .setDesignatedGuardianXCoordinate(backup.getDesignatedGuardianXCoordinate())
-              .setEncryptedCoordinate(publishHashedCiphertext(backup.getEncryptedCoordinate()));
+              .setRequestId(UUID.randomUUID().toString());
+      if (isSameHost(backup.getGeneratingGuardianId())) {
+        request.setFromSameHost(true);
+      } else {
+        request.setEncryptedCoordinate(publishHashedCiphertext(backup.getEncryptedCoordinate()));
+      }
 
-      RemoteKeyCeremonyTrusteeProto.PartialKeyVerification response = blockingStub.receiveSecretKeyShare(request.build());
+      RemoteKeyCeremonyTrusteeProto.PartialKeyBackup built = request.build();
+      RemoteKeyCeremonyTrusteeProto.PartialKeyVerification response = rpcPolicy.call(id() + " receiveSecretKeyShare", 1,
+              deadline -> blockingStub.withDeadline(deadline).receiveSecretKeyShare(built));
       if (response.getError().isEmpty()) {
         return new Ok(backup);
       } else {
@@ -154,11 +230,13 @@ class RemoteTrusteeProxy implements KeyCeremonyTrusteeIF {
 
   boolean saveState() {
     try {
-      CommonRpcProto.ErrorResponse response = blockingStub.saveState(com.google.protobuf.Empty.getDefaultInstance());
+      CommonRpcProto.ErrorResponse response = rpcPolicy.call(id() + " saveState", 0,
+              deadline -> blockingStub.withDeadline(deadline).saveState(com.google.protobuf.Empty.getDefaultInstance()));
       if (!response.getError().isEmpty()) {
         logger.atSevere().log("proxy saveState failed: %s", response.getError());
         return false;
       }
+      logger.atInfo().log("%s saveState durable in %d us", id(), response.getLatencyMicros());
       return true;
 
     } catch (StatusRuntimeException e) {
@@ -171,7 +249,7 @@ class RemoteTrusteeProxy implements KeyCeremonyTrusteeIF {
   boolean finish(boolean allOk) {
     try {
       CommonRpcProto.FinishRequest request = CommonRpcProto.FinishRequest.newBuilder().setAllOk(allOk).build();
-      CommonRpcProto.ErrorResponse response = blockingStub.finish(request);
+      CommonRpcProto.ErrorResponse response = blockingStub.withDeadline(rpcPolicy.deadline(0)).finish(request);
       if (!response.getError().isEmpty()) {
         logger.atSevere().log("commit failed: %s", response.getError());
         return false;
@@ -185,9 +263,19 @@ class RemoteTrusteeProxy implements KeyCeremonyTrusteeIF {
     }
   }
 
+  /** True if the other trustee is served at the same url as this one, so it is in the same process. */
+  private boolean isSameHost(String otherId) {
+    return target.equals(trusteeUrls.get(otherId));
+  }
+
+  /** Wait until the channel to the trustee is connected; false if it isnt ready within the timeout. */
+  boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+    return GrpcChannels.awaitReady(channel, timeout, unit);
+  }
+
   boolean shutdown() {
     try {
-      channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+      channel.shutdownNow().awaitTermination(SHUTDOWN_SECS, TimeUnit.SECONDS);
       return true;
     } catch (InterruptedException e) {
       e.printStackTrace();
@@ -199,8 +287,13 @@ class RemoteTrusteeProxy implements KeyCeremonyTrusteeIF {
   private final String trusteeId;
   private final int coordinate;
   private final int quorum;
+  private final boolean packedEncoding; // the trustee accepts packed_commitments
+  private final String target;
+  private final Map<String, String> trusteeUrls; // the url of every registered trustee, by id
   private final ManagedChannel channel;
   private final RemoteKeyCeremonyTrusteeServiceBlockingStub blockingStub;
+  private final RpcPolicy rpcPolicy;
+  private volatile boolean useReceiveAll = true; // until the trustee says it doesnt implement it
 
   public int quorum() {
     return quorum;
@@ -211,19 +304,30 @@ class RemoteTrusteeProxy implements KeyCeremonyTrusteeIF {
   }
 
   /** Construct client for accessing HelloWorld server using the existing channel. */
-  private RemoteTrusteeProxy(String trusteeId, int coordinate, int quorum, ManagedChannel channel) {
+  private RemoteTrusteeProxy(String trusteeId, int coordinate, int quorum, boolean packedEncoding, String target,
+                             Map<String, String> trusteeUrls, ManagedChannel channel, RpcPolicy rpcPolicy) {
     this.trusteeId = trusteeId;
     this.coordinate = coordinate;
     this.quorum = quorum;
+    this.packedEncoding = packedEncoding;
+    this.target = target;
+    this.trusteeUrls = trusteeUrls;
     this.channel = channel;
-    blockingStub = RemoteKeyCeremonyTrusteeServiceGrpc.newBlockingStub(channel);
+    // each call carries the trustee id in case the trustee is hosted with others, see RunRemoteTrusteeHost
+    blockingStub = RemoteKeyCeremonyTrusteeServiceGrpc.newBlockingStub(channel).withInterceptors(GuardianRoute.clientInterceptor(trusteeId));
+    this.rpcPolicy = rpcPolicy;
+    channel.getState(true); // start connecting now, not on the first call
   }
 
   static class Builder {
     String trusteeId;
     String target;
+    ManagedChannel channel;
     int coordinate;
     int quorum;
+    boolean packedEncoding;
+    Map<String, String> trusteeUrls = Map.of();
+    RpcPolicy rpcPolicy = RpcPolicy.DEFAULT;
 
     Builder setTrusteeId(String trusteeId) {
       this.trusteeId = trusteeId;
@@ -235,6 +339,12 @@ class RemoteTrusteeProxy implements KeyCeremonyTrusteeIF {
       return this;
     }
 
+    /** Use this channel instead of one to the url, eg an in-process channel. The url still identifies the trustee. */
+    Builder setChannel(ManagedChannel channel) {
+      this.channel = channel;
+      return this;
+    }
+
     Builder setCoordinate(int coordinate) {
       this.coordinate = coordinate;
       return this;
@@ -245,12 +355,31 @@ class RemoteTrusteeProxy implements KeyCeremonyTrusteeIF {
       return this;
     }
 
+    Builder setPackedEncoding(boolean packedEncoding) {
+      this.packedEncoding = packedEncoding;
+      return this;
+    }
+
+    /**
+     * The url of every registered trustee, by id, as it grows. A trustee at the same url as this one is in the same
+     * process, so its keys and shares are not sent again.
+     */
+    Builder setTrusteeUrls(Map<String, String> trusteeUrls) {
+      this.trusteeUrls = trusteeUrls;
+      return this;
+    }
+
+    /** Deadlines and retries of the calls to the trustee. */
+    Builder setRpcPolicy(RpcPolicy rpcPolicy) {
+      this.rpcPolicy = rpcPolicy;
+      return this;
+    }
+
     RemoteTrusteeProxy build() {
-      ManagedChannel channel = ManagedChannelBuilder.forTarget(target)
-              .usePlaintext()
+      ManagedChannel channel = this.channel != null ? this.channel : GrpcChannels.forTarget(target)
               .enableFullStreamDecompression()
-              .maxInboundMessageSize(MAX_MESSAGE).usePlaintext().build();
-      return new RemoteTrusteeProxy(trusteeId, coordinate, quorum, channel);
+              .build();
+      return new RemoteTrusteeProxy(trusteeId, coordinate, quorum, packedEncoding, target, trusteeUrls, channel, rpcPolicy);
     }
   }
 }
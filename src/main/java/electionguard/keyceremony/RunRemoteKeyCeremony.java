@@ -8,6 +8,8 @@ import com.google.common.base.Stopwatch;
 import com.google.common.flogger.FluentLogger;
 import electionguard.ballot.Manifest;
 import electionguard.core.GroupContext;
+import electionguard.core.PowRadixOption;
+import electionguard.core.ProductionMode;
 import electionguard.input.ManifestInputValidation;
 import electionguard.input.ValidationMessages;
 import electionguard.protogen2.RemoteKeyCeremonyProto;
@@ -16,6 +18,11 @@ import electionguard.publish.Consumer;
 import electionguard.publish.ElectionRecord;
 import electionguard.publish.Publisher;
 import electionguard.publish.PublisherMode;
+import electionguard.util.Broadcast;
+import electionguard.util.GrpcChannels;
+import electionguard.util.KUtils;
+import electionguard.util.RpcPolicy;
+import io.grpc.Deadline;
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
 import io.grpc.stub.StreamObserver;
@@ -27,10 +34,14 @@ import java.util.Collections;
 import java.util.Formatter;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import static electionguard.keyceremony.KeyCeremonyKt.keyCeremonyExchange;
 import static electionguard.publish.ElectionRecordFactoryKt.electionRecordFromConsumer;
 import static electionguard.util.KUtils.productionGroup;
 
@@ -67,7 +78,40 @@ public class RunRemoteKeyCeremony {
     @Parameter(names = {"-port"}, order = 4, description = "The port to run the server on")
     int port = 17111;
 
-    @Parameter(names = {"-h", "--help"}, order = 9, description = "Display this help and exit", help = true)
+    @Parameter(names = {"-rpcDeadlineSecs"}, order = 5, description = "Deadline in seconds of each call to a trustee")
+    int rpcDeadlineSecs = 30;
+
+    @Parameter(names = {"-rpcMsecsPerItem"}, order = 6, description = "Deadline in msecs added to a call to a trustee for each commitment or share in it")
+    int rpcMsecsPerItem = 50;
+
+    @Parameter(names = {"-rpcMaxAttempts"}, order = 7, description = "Number of attempts of a call that fails with a transient status")
+    int rpcMaxAttempts = 4;
+
+    @Parameter(names = {"-maxCallsPerTrustee"}, order = 8, description = "Number of key ceremony calls that may be in flight to one trustee at once")
+    int maxCallsPerTrustee = ConcurrentKeyCeremonyExchange.DEFAULT_MAX_CALLS_PER_TRUSTEE;
+
+    @Parameter(names = {"-eventLoopThreads"}, order = 9, description = "Number of gRPC event loop threads shared by all the trustee channels")
+    int eventLoopThreads = GrpcChannels.Settings.DEFAULT.eventLoopThreads;
+
+    @Parameter(names = {"-channelThreads"}, order = 10, description = "Number of gRPC executor threads shared by all the trustee channels")
+    int channelThreads = GrpcChannels.Settings.DEFAULT.executorThreads;
+
+    @Parameter(names = {"-flowControlWindowKB"}, order = 11, description = "gRPC flow control window of each trustee channel, in KB")
+    int flowControlWindowKB = GrpcChannels.Settings.DEFAULT.flowControlWindowKB;
+
+    @Parameter(names = {"-keepAliveSecs"}, order = 12, description = "gRPC keepalive time of each trustee channel, in seconds")
+    int keepAliveSecs = GrpcChannels.Settings.DEFAULT.keepAliveSecs;
+
+    @Parameter(names = {"-maxMessageMB"}, order = 13, description = "Largest gRPC message accepted from a trustee, in MB")
+    int maxMessageMB = GrpcChannels.Settings.DEFAULT.maxMessageMB;
+
+    @Parameter(names = {"-powRadix"}, order = 14, description = "Size of the fixed-base g^x tables, which each process keeps in memory")
+    PowRadixOption powRadix = KUtils.DEFAULT_POW_RADIX;
+
+    @Parameter(names = {"-productionMode"}, order = 15, description = "The group, which must match the election record")
+    ProductionMode productionMode = KUtils.DEFAULT_PRODUCTION_MODE;
+
+    @Parameter(names = {"-h", "--help"}, order = 16, description = "Display this help and exit", help = true)
     boolean help = false;
 
     private final JCommander jc;
@@ -98,7 +142,10 @@ public class RunRemoteKeyCeremony {
       System.err.printf("Try '%s --help' for more information.%n", progName);
       System.exit(1);
     }
+    KUtils.configureGroup(cmdLine.powRadix, cmdLine.productionMode);
 
+    GrpcChannels.configure(new GrpcChannels.Settings(cmdLine.eventLoopThreads, cmdLine.channelThreads,
+            cmdLine.flowControlWindowKB, cmdLine.keepAliveSecs, cmdLine.maxMessageMB));
     GroupContext group = productionGroup();
     boolean allOk = false;
     RunRemoteKeyCeremony keyCeremony = null;
@@ -111,18 +158,14 @@ public class RunRemoteKeyCeremony {
         System.exit(1);
       }
 
-      keyCeremony = new RunRemoteKeyCeremony(record, cmdLine.outputDir);
+      keyCeremony = new RunRemoteKeyCeremony(record, cmdLine.outputDir,
+              new RpcPolicy(cmdLine.rpcDeadlineSecs, cmdLine.rpcMsecsPerItem, cmdLine.rpcMaxAttempts), cmdLine.maxCallsPerTrustee);
       keyCeremony.start(cmdLine.port);
 
       System.out.print("Waiting for guardians to register: elapsed seconds = ");
       Stopwatch stopwatch = Stopwatch.createStarted();
-      while (!keyCeremony.ready()) {
+      while (!keyCeremony.awaitRegistration(5, TimeUnit.SECONDS)) {
         System.out.printf("%s ", stopwatch.elapsed(TimeUnit.SECONDS));
-        try {
-          Thread.sleep(5000);
-        } catch (InterruptedException e) {
-          e.printStackTrace();
-        }
       }
       System.out.printf("%n");
 
@@ -171,19 +214,33 @@ public class RunRemoteKeyCeremony {
   }
 
   ///////////////////////////////////////////////////////////////////////////
+  private static final int CONNECT_TIMEOUT_SECS = 30;
+
   final ElectionRecord electionRecord;
   final Manifest manifest;
   final int nguardians;
   final int quorum;
   final Publisher publisher;
   final List<RemoteTrusteeProxy> trusteeProxies = Collections.synchronizedList(new ArrayList<>());
-  boolean startedKeyCeremony = false;
-
-  RunRemoteKeyCeremony(ElectionRecord electionRecord, String outputDir) throws IOException {
+  // the url of each registered trustee; several trustees may share one, see RunRemoteTrusteeHost
+  final Map<String, String> trusteeUrls = new ConcurrentHashMap<>();
+  // checks that each registered trustee can be reached
+  final ExecutorService connectExecutor = Executors.newCachedThreadPool();
+  // counted down when a registered trustee's channel is connected
+  final CountDownLatch allRegistered;
+  volatile long lastRegisteredNanos;
+  volatile boolean startedKeyCeremony = false;
+  final RpcPolicy rpcPolicy;
+  final int maxCallsPerTrustee;
+
+  RunRemoteKeyCeremony(ElectionRecord electionRecord, String outputDir, RpcPolicy rpcPolicy, int maxCallsPerTrustee) throws IOException {
     this.electionRecord = electionRecord;
     this.manifest = electionRecord.manifest();
     this.nguardians = electionRecord.numberOfGuardians();
     this.quorum = electionRecord.quorum();
+    this.allRegistered = new CountDownLatch(nguardians);
+    this.rpcPolicy = rpcPolicy;
+    this.maxCallsPerTrustee = maxCallsPerTrustee;
 
     this.publisher = new Publisher(outputDir, PublisherMode.createIfMissing);
     Formatter errors = new Formatter();
@@ -193,8 +250,13 @@ public class RunRemoteKeyCeremony {
     }
   }
 
-  boolean ready() {
-    return trusteeProxies.size() == nguardians;
+  /** Wait until nguardians trustees have registered and are connected; starts the key ceremony if so. */
+  boolean awaitRegistration(long timeout, TimeUnit unit) throws InterruptedException {
+    if (allRegistered.await(timeout, unit)) {
+      startedKeyCeremony = true;
+      return true;
+    }
+    return false;
   }
 
   private boolean runKeyCeremony() {
@@ -203,7 +265,12 @@ public class RunRemoteKeyCeremony {
               trusteeProxies.size()));
     }
     List<KeyCeremonyTrusteeIF> trusteeIfs = new ArrayList<>(trusteeProxies);
-    Result<KeyCeremonyResults, String> keyCeremonyExchangeResult = keyCeremonyExchange(trusteeIfs);
+    long idleMsecs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastRegisteredNanos);
+    logger.atInfo().log("last registration to first key ceremony call = %d ms", idleMsecs);
+    System.out.printf("registration to first key ceremony call = %d ms%n", idleMsecs);
+    ConcurrentKeyCeremonyExchange exchange = new ConcurrentKeyCeremonyExchange(trusteeIfs, maxCallsPerTrustee);
+    Result<KeyCeremonyResults, String> keyCeremonyExchangeResult = exchange.run();
+    System.out.printf("key ceremony exchange %s%n", exchange.stats());
     if (keyCeremonyExchangeResult.component2() != null) {
       System.out.printf("%nRemoteKeyCeremony failed error = %s%n", keyCeremonyExchangeResult.component2());
       return false;
@@ -211,13 +278,10 @@ public class RunRemoteKeyCeremony {
     KeyCeremonyResults results = keyCeremonyExchangeResult.component1();
 
     // tell the remote trustees to save their state
-    boolean allOk = true;
-    for (RemoteTrusteeProxy trustee : trusteeProxies) {
-      if (!trustee.saveState()) {
-        allOk = false;
-      }
-    }
-    System.out.printf("%nKey Ceremony Trustees save state was success = %s%n", allOk);
+    Broadcast.Outcome saved = Broadcast.call("saveState", trusteeProxies, RemoteTrusteeProxy::id,
+            RemoteTrusteeProxy::saveState, rpcPolicy.callDeadline(0));
+    boolean allOk = saved.allOk();
+    System.out.printf("%nKey Ceremony Trustees %s", saved);
 
     if (allOk) {
       // save the results as an "ElectionInitialized" record
@@ -235,27 +299,19 @@ public class RunRemoteKeyCeremony {
   private void shutdownRemoteTrustees(boolean allOk) {
     System.out.printf("Shutdown Remote Trustees%n");
     // tell the remote trustees to finish
-    for (RemoteTrusteeProxy trustee : trusteeProxies) {
-      try {
-        boolean ok = trustee.finish(allOk);
-        System.out.printf(" KeyCeremonyRemoteTrusteeProxy %s shutdown was success = %s%n", trustee.id(), ok);
-      } catch (Throwable t) {
-        t.printStackTrace();
-      }
-    }
+    System.out.print(Broadcast.call("finish", trusteeProxies, RemoteTrusteeProxy::id,
+            trustee -> trustee.finish(allOk), rpcPolicy.deadline(0)));
 
     // close the proxy channels
-    boolean shutdownOk = true;
-    for (RemoteTrusteeProxy trustee : trusteeProxies) {
-      if (!trustee.shutdown()) {
-        shutdownOk = false;
-      }
-    }
-    System.out.printf(" Proxy channel shutdown was success = %s%n", shutdownOk);
+    System.out.print(Broadcast.call("channel shutdown", trusteeProxies, RemoteTrusteeProxy::id,
+            RemoteTrusteeProxy::shutdown, Deadline.after(RemoteTrusteeProxy.SHUTDOWN_SECS + 1, TimeUnit.SECONDS)));
+    connectExecutor.shutdownNow();
   }
 
   private final AtomicInteger nextCoordinate = new AtomicInteger(0);
-  synchronized RemoteTrusteeProxy registerTrustee(String guardianId, String url) {
+  private final TreeSet<Integer> freeCoordinates = new TreeSet<>(); // of dropped trustees, guarded by this
+
+  synchronized RemoteTrusteeProxy registerTrustee(String guardianId, String url, boolean packedEncoding) {
     for (RemoteTrusteeProxy proxy : trusteeProxies) {
       if (proxy.id().toLowerCase().contains(guardianId.toLowerCase()) ||
               guardianId.toLowerCase().contains(proxy.id().toLowerCase())) {
@@ -264,17 +320,56 @@ public class RunRemoteKeyCeremony {
                 guardianId, proxy.id()));
       }
     }
+    if (trusteeProxies.size() >= nguardians) {
+      throw new IllegalArgumentException("Already have nguardians=" + nguardians + " guardians");
+    }
     RemoteTrusteeProxy.Builder builder = RemoteTrusteeProxy.builder();
-    int coordinate = nextCoordinate.incrementAndGet();
+    Integer free = freeCoordinates.pollFirst();
+    int coordinate = (free != null) ? free : nextCoordinate.incrementAndGet();
     builder.setTrusteeId(guardianId);
     builder.setUrl(url);
     builder.setCoordinate(coordinate);
     builder.setQuorum(this.quorum);
+    builder.setPackedEncoding(packedEncoding);
+    builder.setTrusteeUrls(trusteeUrls);
+    builder.setRpcPolicy(rpcPolicy);
     RemoteTrusteeProxy trustee = builder.build();
     trusteeProxies.add(trustee);
+    trusteeUrls.put(guardianId, url);
     return trustee;
   }
 
+  /**
+   * Wait for the registered trustee's channel to connect; if it cant be reached, drop it, and free its coordinate.
+   * The trustee is listening before it registers, so this is checked before answering its registration.
+   */
+  private boolean awaitConnection(RemoteTrusteeProxy trustee) {
+    boolean ready;
+    try {
+      ready = trustee.awaitReady(CONNECT_TIMEOUT_SECS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      ready = false;
+    }
+    if (!ready) {
+      logger.atSevere().log("RemoteKeyCeremony trustee '%s' not reachable after %d secs, dropping it", trustee.id(), CONNECT_TIMEOUT_SECS);
+      synchronized (this) {
+        trusteeProxies.remove(trustee);
+        trusteeUrls.remove(trustee.id());
+        freeCoordinates.add(trustee.xCoordinate());
+      }
+      trustee.shutdown();
+    }
+    return ready;
+  }
+
+  /** The trustee counts as registered once it has been told its registration succeeded. */
+  private void connected(RemoteTrusteeProxy trustee) {
+    lastRegisteredNanos = System.nanoTime();
+    allRegistered.countDown();
+    logger.atInfo().log("RemoteKeyCeremony trustee '%s' connected, waiting for %d more", trustee.id(), allRegistered.getCount());
+  }
+
   private class KeyCeremonyRemoteService extends RemoteKeyCeremonyServiceGrpc.RemoteKeyCeremonyServiceImplBase {
 
     @Override
@@ -293,13 +388,23 @@ public class RunRemoteKeyCeremony {
 
       RemoteKeyCeremonyProto.RegisterKeyCeremonyTrusteeResponse.Builder response = RemoteKeyCeremonyProto.RegisterKeyCeremonyTrusteeResponse.newBuilder();
       try {
-        RemoteTrusteeProxy trustee = RunRemoteKeyCeremony.this.registerTrustee(request.getGuardianId(), request.getRemoteUrl());
-        response.setGuardianId(trustee.id());
-        response.setGuardianXCoordinate(trustee.xCoordinate());
-        response.setQuorum(trustee.quorum());
-        responseObserver.onNext(response.build());
-        responseObserver.onCompleted();
-        logger.atInfo().log("RemoteKeyCeremony registerTrustee '%s'", trustee.id());
+        RemoteTrusteeProxy trustee = RunRemoteKeyCeremony.this.registerTrustee(request.getGuardianId(), request.getRemoteUrl(),
+                request.getPackedEncoding());
+        connectExecutor.execute(() -> {
+          if (awaitConnection(trustee)) {
+            response.setGuardianId(trustee.id());
+            response.setGuardianXCoordinate(trustee.xCoordinate());
+            response.setQuorum(trustee.quorum());
+          } else {
+            response.setError(String.format("cant connect to %s within %d secs", request.getRemoteUrl(), CONNECT_TIMEOUT_SECS));
+          }
+          responseObserver.onNext(response.build());
+          responseObserver.onCompleted();
+          if (response.getError().isEmpty()) {
+            logger.atInfo().log("RemoteKeyCeremony registerTrustee '%s'", trustee.id());
+            connected(trustee);
+          }
+        });
 
       } catch (Throwable t) {
         logger.atSevere().withCause(t).log("RemoteKeyCeremony registerTrustee failed");
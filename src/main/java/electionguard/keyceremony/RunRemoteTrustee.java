@@ -3,28 +3,43 @@ package electionguard.keyceremony;
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
+import com.github.michaelbull.result.Err;
 import com.github.michaelbull.result.Result;
 import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import electionguard.core.ElementModP;
 import electionguard.core.GroupContext;
+import electionguard.core.PowRadixOption;
+import electionguard.core.ProductionMode;
 import electionguard.core.SchnorrProof;
 import electionguard.protogen2.CommonRpcProto;
-import electionguard.protogen2.RemoteKeyCeremonyProto;
 import electionguard.protogen2.RemoteKeyCeremonyTrusteeProto;
 import electionguard.protogen2.RemoteKeyCeremonyTrusteeServiceGrpc;
 import electionguard.publish.Publisher;
 import electionguard.publish.PublisherMode;
-import io.grpc.Server;
-import io.grpc.ServerBuilder;
+import electionguard.util.AnswerCache;
+import electionguard.util.ConvertPackedProto;
+import electionguard.util.CryptoExecutor;
+import electionguard.util.KUtils;
 import io.grpc.stub.StreamObserver;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.ServerSocket;
+import java.nio.file.Path;
 import java.util.Formatter;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static electionguard.util.ConvertCommonProto.*;
 import static electionguard.util.KUtils.productionGroup;
@@ -47,6 +62,21 @@ class RunRemoteTrustee extends RemoteKeyCeremonyTrusteeServiceGrpc.RemoteKeyCere
     @Parameter(names = {"-out"}, order = 3, description = "Directory where the Guardian state is written", required = true)
     String outputDir;
 
+    @Parameter(names = {"-cryptoThreads"}, order = 4, description = "Number of requests that may be computing at once")
+    int cryptoThreads = Runtime.getRuntime().availableProcessors();
+
+    @Parameter(names = {"-maxQueued"}, order = 5, description = "Number of requests that may wait to be computed; more are rejected as busy")
+    int maxQueued = 64;
+
+    @Parameter(names = {"-durability"}, order = 6, description = "How the trustee state is saved: NONE (atomic only), FSYNC, or GROUP")
+    TrusteeStateStore.Durability durability = TrusteeStateStore.Durability.FSYNC;
+
+    @Parameter(names = {"-powRadix"}, order = 7, description = "Size of the fixed-base g^x tables, which each process keeps in memory")
+    PowRadixOption powRadix = KUtils.DEFAULT_POW_RADIX;
+
+    @Parameter(names = {"-productionMode"}, order = 8, description = "The group, which must match the election record")
+    ProductionMode productionMode = KUtils.DEFAULT_PRODUCTION_MODE;
+
     @Parameter(names = {"-h", "--help"}, order = 9, description = "Display this help and exit", help = true)
     boolean help = false;
 
@@ -78,6 +108,8 @@ class RunRemoteTrustee extends RemoteKeyCeremonyTrusteeServiceGrpc.RemoteKeyCere
       System.err.printf("Try '%s --help' for more information.%n", progName);
       System.exit(1);
     }
+    KUtils.configureGroup(cmdLine.powRadix, cmdLine.productionMode);
+    CompletableFuture<GroupContext> warmGroup = KUtils.warmUpGroup(); // while we register
 
     // which port? if not assigned, pick one at random
     int port = cmdLine.port;
@@ -91,29 +123,10 @@ class RunRemoteTrustee extends RemoteKeyCeremonyTrusteeServiceGrpc.RemoteKeyCere
     String serverUrl = "localhost:" + cmdLine.serverPort;
     System.out.printf("*** RemoteTrustee %s with args %s %s%n", serverUrl, cmdLine.name, url);
 
-    // first contact the KeyCeremonyRemote "server" to get parameters
-    RemoteKeyCeremonyProxy proxy = new RemoteKeyCeremonyProxy(serverUrl);
-    RemoteKeyCeremonyProto.RegisterKeyCeremonyTrusteeResponse response = proxy.registerTrustee(cmdLine.name, url);
-    proxy.shutdown();
-    if (!response.getError().isEmpty()) {
-      System.out.printf("    registerTrustee error %s%n", response.getError());
-      throw new RuntimeException(response.getError());
-    }
-    System.out.printf("    response %s %d %d%n", response.getGuardianId(),
-            response.getGuardianXCoordinate(),
-            response.getQuorum()
-            );
-
-    // Now start up our own 'RemoteTrustee' Service
+    // listen first, then contact the KeyCeremonyRemote "server" to get parameters; this is a host of one
     try {
-      RunRemoteTrustee keyCeremony = new RunRemoteTrustee(
-              response.getGuardianId(),
-              response.getGuardianXCoordinate(),
-              response.getQuorum(),
-              cmdLine.outputDir);
-
-      keyCeremony.start(port);
-      keyCeremony.blockUntilShutdown();
+      RunRemoteTrusteeHost.serve(List.of(cmdLine.name), port, serverUrl, cmdLine.outputDir, cmdLine.cryptoThreads,
+              cmdLine.maxQueued, cmdLine.durability, warmGroup);
       System.exit(0);
 
     } catch (Throwable t) {
@@ -123,7 +136,7 @@ class RunRemoteTrustee extends RemoteKeyCeremonyTrusteeServiceGrpc.RemoteKeyCere
     }
   }
 
-  private static boolean isLocalPortFree(int port) {
+  static boolean isLocalPortFree(int port) {
     System.out.printf("Try %d port ", port);
     try {
       new ServerSocket(port).close();
@@ -135,54 +148,66 @@ class RunRemoteTrustee extends RemoteKeyCeremonyTrusteeServiceGrpc.RemoteKeyCere
     }
   }
 
-  ///////////////////////////////////////////////////////////////////////////
-  private Server server;
-
-  private void start(int port) throws IOException {
-    server = ServerBuilder.forPort(port) //
-            .addService(this) //
-            // .intercept(new MyServerInterceptor())
-            .build().start();
-
-    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-      // Use stderr here since the logger may have been reset by its JVM shutdown hook.
-      System.err.println("*** shutting down gRPC server since JVM is shutting down");
-      try {
-        stopit();
-      } catch (InterruptedException e) {
-        e.printStackTrace(System.err);
-      }
-      System.err.println("*** server shut down");
-    }));
-
-    System.out.printf("---- RemoteTrustee started, listening on %d ----%n", port);
-  }
-
-  private void stopit() throws InterruptedException {
-    if (server != null) {
-      server.shutdown().awaitTermination(30, TimeUnit.SECONDS);
-    }
-  }
-
-  /** Await termination on the main thread since the grpc library uses daemon threads. */
-  private void blockUntilShutdown() throws InterruptedException {
-    if (server != null) {
-      server.awaitTermination();
-    }
-  }
-
   ////////////////////////////////////////////////////////////////////////////////
   final GroupContext group = productionGroup();
-  final KeyCeremonyTrustee delegate;
+  final KeyCeremonyTrustee delegate; // isnt thread safe, so calls to it are synchronized on it
   final String trusteeDir;
   final Publisher publisher;
+  final CryptoExecutor cryptoExecutor;
+  final TrusteeStateStore store;
+  // the other trustees in this process, by id; see RunRemoteTrusteeHost
+  final Map<String, RunRemoteTrustee> peers;
+  // what this trustee has sent, so a peer in this process can take it from here
+  volatile PublicKeys sentPublicKeys;
+  final Map<String, SecretKeyShare> sentShares = new ConcurrentHashMap<>();
+  // the share for each trustee, queued as soon as its keys are accepted, so sendSecretKeyShare seldom has to wait
+  private final Map<String, CompletableFuture<Result<SecretKeyShare, String>>> shares = new ConcurrentHashMap<>();
+  // the shares not yet started, taken in the order the exchange asks for them, by x coordinate
+  private final PriorityBlockingQueue<Queued> precomputeQueue = new PriorityBlockingQueue<>();
+  private final ExecutorService precomputePool;
+  private final AtomicInteger sharesReady = new AtomicInteger();
+  private final AtomicInteger sharesWaited = new AtomicInteger();
+  private final AtomicLong shareWaitNanos = new AtomicLong();
+  private final AtomicLong maxShareWaitNanos = new AtomicLong();
+  private final AnswerCache answers; // so a retried receive call isnt applied to the KeyCeremonyTrustee twice
+
+  RunRemoteTrustee(String id,
+                   int xCoordinate,
+                   int quorum,
+                   String trusteeDir,
+                   int cryptoThreads,
+                   int maxQueued) throws IOException {
+    this(id, xCoordinate, quorum, trusteeDir, cryptoThreads, maxQueued, TrusteeStateStore.Durability.FSYNC);
+  }
 
   RunRemoteTrustee(String id,
                    int xCoordinate,
                    int quorum,
-                   String trusteeDir) throws IOException {
+                   String trusteeDir,
+                   int cryptoThreads,
+                   int maxQueued,
+                   TrusteeStateStore.Durability durability) throws IOException {
+    this(id, xCoordinate, quorum, trusteeDir, new CryptoExecutor("keyceremony-" + id, cryptoThreads, maxQueued),
+            new TrusteeStateStore(id, durability, 1), Map.of());
+  }
+
+  /** A trustee sharing the crypto executor and the state store with the peers hosted in this process. */
+  RunRemoteTrustee(String id,
+                   int xCoordinate,
+                   int quorum,
+                   String trusteeDir,
+                   CryptoExecutor cryptoExecutor,
+                   TrusteeStateStore store,
+                   Map<String, RunRemoteTrustee> peers) throws IOException {
     this.delegate = new KeyCeremonyTrustee(group, id, xCoordinate, quorum);
+    this.cryptoExecutor = cryptoExecutor;
+    this.answers = new AnswerCache(id, cryptoExecutor);
+    this.store = store;
+    this.peers = peers;
     this.trusteeDir = trusteeDir;
+    // one thread is enough, since the delegate does one thing at a time
+    this.precomputePool = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("precompute-" + id.replace("%", "%%") + "-%d").setDaemon(true).build());
 
     // fail fast on bad output directory
     publisher = new Publisher(trusteeDir, PublisherMode.createIfMissing);
@@ -196,18 +221,32 @@ class RunRemoteTrustee extends RemoteKeyCeremonyTrusteeServiceGrpc.RemoteKeyCere
   @Override
   public void sendPublicKeys(RemoteKeyCeremonyTrusteeProto.PublicKeySetRequest request,
                              StreamObserver<RemoteKeyCeremonyTrusteeProto.PublicKeySet> responseObserver) {
+    cryptoExecutor.execute(delegate.id(), "sendPublicKeys", responseObserver, () -> {
+      responseObserver.onNext(sendPublicKeysResponse(request));
+      responseObserver.onCompleted();
+    });
+  }
 
+  private RemoteKeyCeremonyTrusteeProto.PublicKeySet sendPublicKeysResponse(RemoteKeyCeremonyTrusteeProto.PublicKeySetRequest request) {
     RemoteKeyCeremonyTrusteeProto.PublicKeySet.Builder response = RemoteKeyCeremonyTrusteeProto.PublicKeySet.newBuilder();
     try {
-      Result<PublicKeys, String> result = delegate.sendPublicKeys();
+      Result<PublicKeys, String> result;
+      synchronized (delegate) {
+        result = delegate.sendPublicKeys();
+      }
       if (result.component2() != null) {
         response.setError(result.component2());
         logger.atInfo().log("RemoteTrustee %s sendPublicKeys error %s", delegate.id(), result.component2());
       } else {
         PublicKeys keyset = result.component1();
+        sentPublicKeys = keyset;
         response.setOwnerId(keyset.getGuardianId())
                 .setGuardianXCoordinate(keyset.getGuardianXCoordinate());
-        keyset.getCoefficientCommitments().forEach(c -> response.addCoefficientComittments(publishElementModP(c)));
+        if (request.getPacked()) {
+          response.setPackedCommitments(ConvertPackedProto.publishElementModPBatch(group, keyset.getCoefficientCommitments()));
+        } else {
+          response.addAllCoefficientComittments(publishElementModPs(keyset.getCoefficientCommitments()));
+        }
         keyset.getCoefficientProofs().forEach(p -> response.addCoefficientProofs(publishSchnorrProof(p)));
         logger.atInfo().log("RemoteTrustee %s sendPublicKeys count=%d", delegate.id(), keyset.getCoefficientCommitments().size());
       }
@@ -217,32 +256,22 @@ class RunRemoteTrustee extends RemoteKeyCeremonyTrusteeServiceGrpc.RemoteKeyCere
       response.setError("RemoteTrustee sendPublicKeys failed:" + t.getMessage());
     }
 
-    responseObserver.onNext(response.build());
-    responseObserver.onCompleted();
+    return response.build();
   }
 
   @Override
   public void receivePublicKeys(RemoteKeyCeremonyTrusteeProto.PublicKeySet proto,
                                 StreamObserver<CommonRpcProto.ErrorResponse> responseObserver) {
+    answers.respond("receivePublicKeys", proto.getRequestId(), () -> receivePublicKeysResponse(proto),
+            CommonRpcProto.ErrorResponse::getError, responseObserver);
+  }
 
+  private CommonRpcProto.ErrorResponse receivePublicKeysResponse(RemoteKeyCeremonyTrusteeProto.PublicKeySet proto) {
     CommonRpcProto.ErrorResponse.Builder response = CommonRpcProto.ErrorResponse.newBuilder();
     try {
-      List<ElementModP> commitments = proto.getCoefficientComittmentsList().stream()
-              .map(p -> importElementModP(group, p))
-              .toList();
-      List<SchnorrProof> proofs = proto.getCoefficientProofsList().stream()
-              .map(p -> importSchnorrProof(group, p))
-              .toList();
-      logger.atInfo().log("RemoteTrustee %s receivePublicKeys from %s count=%d", delegate.id(), proto.getOwnerId(), proto.getCoefficientComittmentsCount());
-
-      PublicKeys keyset = new PublicKeys(
-              proto.getOwnerId(),
-              proto.getGuardianXCoordinate(),
-              commitments,
-              proofs);
-      Result<PublicKeys, String> result = delegate.receivePublicKeys(keyset);
-      if (result.component2() != null) {
-        response.setError(result.component2());
+      String error = accept(importPublicKeys(proto));
+      if (!error.isEmpty()) {
+        response.setError(error);
       }
       logger.atInfo().log("RemoteTrustee receivePublicKeys from %s", proto.getOwnerId());
 
@@ -252,20 +281,172 @@ class RunRemoteTrustee extends RemoteKeyCeremonyTrusteeServiceGrpc.RemoteKeyCere
       response.setError(t.getMessage());
     }
 
-    responseObserver.onNext(response.build());
-    responseObserver.onCompleted();
+    return response.build();
+  }
+
+  @Override
+  public void receiveAllPublicKeys(RemoteKeyCeremonyTrusteeProto.PublicKeySets request,
+                                   StreamObserver<RemoteKeyCeremonyTrusteeProto.PublicKeyVerdicts> responseObserver) {
+    answers.respond("receiveAllPublicKeys", request.getRequestId(), () -> receiveAllPublicKeysResponse(request),
+            RemoteKeyCeremonyTrusteeProto.PublicKeyVerdicts::getError, responseObserver);
+  }
+
+  /**
+   * Each key set is imported, then verified and recorded by the KeyCeremonyTrustee, in turn, on this call's crypto
+   * thread. One bad key set doesnt keep the others from being accepted.
+   * The library's KeyCeremonyTrustee checks the coefficient proofs itself, and has no way to take keys checked
+   * elsewhere, so the proofs arent checked in parallel: that would only add a second check to each key set.
+   */
+  private RemoteKeyCeremonyTrusteeProto.PublicKeyVerdicts receiveAllPublicKeysResponse(RemoteKeyCeremonyTrusteeProto.PublicKeySets request) {
+    RemoteKeyCeremonyTrusteeProto.PublicKeyVerdicts.Builder response = RemoteKeyCeremonyTrusteeProto.PublicKeyVerdicts.newBuilder();
+    try {
+      for (RemoteKeyCeremonyTrusteeProto.PublicKeySet proto : request.getKeySetsList()) {
+        String error;
+        try {
+          error = accept(importPublicKeys(proto));
+        } catch (RuntimeException e) {
+          logger.atWarning().withCause(e).log("RemoteTrustee %s cant import keys of %s", delegate.id(), proto.getOwnerId());
+          error = "cant import keys: " + e.getMessage();
+        }
+        if (!error.isEmpty()) {
+          logger.atWarning().log("RemoteTrustee %s rejects keys of %s: %s", delegate.id(), proto.getOwnerId(), error);
+        }
+        response.addVerdicts(RemoteKeyCeremonyTrusteeProto.PublicKeyVerdict.newBuilder()
+                .setOwnerId(proto.getOwnerId())
+                .setError(error));
+      }
+      logger.atInfo().log("RemoteTrustee %s receiveAllPublicKeys count=%d", delegate.id(), request.getKeySetsCount());
+
+    } catch (Throwable t) {
+      logger.atSevere().withCause(t).log("RemoteTrustee %s receiveAllPublicKeys failed", delegate.id());
+      response.clear().setError("RemoteTrustee receiveAllPublicKeys failed:" + t.getMessage());
+    }
+
+    return response.build();
+  }
+
+  /** The keys from the message, or if the owner is in this process, the keys it sent. */
+  private PublicKeys importPublicKeys(RemoteKeyCeremonyTrusteeProto.PublicKeySet proto) {
+    if (proto.getFromSameHost()) {
+      RunRemoteTrustee owner = peers.get(proto.getOwnerId());
+      PublicKeys keyset = (owner == null) ? null : owner.sentPublicKeys;
+      if (keyset == null) {
+        throw new IllegalStateException(String.format("no public keys from '%s' in this process", proto.getOwnerId()));
+      }
+      logger.atInfo().log("RemoteTrustee %s receivePublicKeys from %s in this process", delegate.id(), proto.getOwnerId());
+      return keyset;
+    }
+    List<ElementModP> commitments = proto.hasPackedCommitments() ?
+            ConvertPackedProto.importElementModPBatch(group, proto.getPackedCommitments()) :
+            importElementModPs(group, proto.getCoefficientComittmentsList());
+    List<SchnorrProof> proofs = proto.getCoefficientProofsList().stream()
+            .map(p -> importSchnorrProof(group, p))
+            .toList();
+    logger.atInfo().log("RemoteTrustee %s receivePublicKeys from %s count=%d", delegate.id(), proto.getOwnerId(), commitments.size());
+
+    return new PublicKeys(
+            proto.getOwnerId(),
+            proto.getGuardianXCoordinate(),
+            commitments,
+            proofs);
+  }
+
+  /**
+   * Have the KeyCeremonyTrustee verify and record the keys; returns the error, or empty if accepted.
+   * Once accepted, the owner's share is computed in the background.
+   */
+  private String accept(PublicKeys keyset) {
+    Result<PublicKeys, String> result;
+    synchronized (delegate) {
+      result = delegate.receivePublicKeys(keyset);
+    }
+    if (result.component2() != null) {
+      return result.component2();
+    }
+    if (!keyset.getGuardianId().equals(delegate.id())) {
+      precompute(keyset.getGuardianId(), keyset.getGuardianXCoordinate());
+    }
+    return "";
+  }
+
+  /**
+   * Queue the designated trustee's share to be computed in the background, unless it already is.
+   * Keys may be accepted in any order, so the queue, not the pool, decides which share is computed next.
+   */
+  private void precompute(String designatedId, int xCoordinate) {
+    CompletableFuture<Result<SecretKeyShare, String>> mine = new CompletableFuture<>();
+    if (shares.putIfAbsent(designatedId, mine) == null) {
+      precomputeQueue.add(new Queued(designatedId, xCoordinate, mine));
+      precomputePool.execute(() -> {
+        Queued next = precomputeQueue.poll();
+        if (next != null) {
+          compute(next.designatedId, next.share);
+        }
+      });
+    }
+  }
+
+  /** The share for the designated trustee. If it hasnt been started, it is computed now, ahead of the queue. */
+  private CompletableFuture<Result<SecretKeyShare, String>> share(String designatedId) {
+    CompletableFuture<Result<SecretKeyShare, String>> mine = new CompletableFuture<>();
+    CompletableFuture<Result<SecretKeyShare, String>> queued = shares.putIfAbsent(designatedId, mine);
+    if (queued == null) {
+      compute(designatedId, mine);
+      return mine;
+    }
+    if (precomputeQueue.removeIf(q -> q.share == queued)) {
+      compute(designatedId, queued);
+    }
+    return queued;
+  }
+
+  /** Compute the share into the future. A failed share is removed, so it is tried again next time. */
+  private void compute(String designatedId, CompletableFuture<Result<SecretKeyShare, String>> share) {
+    Result<SecretKeyShare, String> result;
+    try {
+      synchronized (delegate) {
+        result = delegate.sendSecretKeyShare(designatedId);
+      }
+    } catch (RuntimeException e) {
+      logger.atSevere().withCause(e).log("RemoteTrustee %s share for %s failed", delegate.id(), designatedId);
+      result = (Result<SecretKeyShare, String>) new Err("compute share failed: " + e.getMessage());
+    }
+    if (result.component2() != null) {
+      shares.remove(designatedId, share);
+    }
+    share.complete(result);
   }
 
   @Override
   public void sendSecretKeyShare(RemoteKeyCeremonyTrusteeProto.PartialKeyBackupRequest request,
-                                   StreamObserver<RemoteKeyCeremonyTrusteeProto.PartialKeyBackup> responseObserver) {
+                                 StreamObserver<RemoteKeyCeremonyTrusteeProto.PartialKeyBackup> responseObserver) {
+    cryptoExecutor.execute(delegate.id(), "sendSecretKeyShare", responseObserver, () -> {
+      responseObserver.onNext(sendSecretKeyShareResponse(request));
+      responseObserver.onCompleted();
+    });
+  }
 
+  private RemoteKeyCeremonyTrusteeProto.PartialKeyBackup sendSecretKeyShareResponse(RemoteKeyCeremonyTrusteeProto.PartialKeyBackupRequest request) {
     RemoteKeyCeremonyTrusteeProto.PartialKeyBackup.Builder response = RemoteKeyCeremonyTrusteeProto.PartialKeyBackup.newBuilder();
     try {
-      Result<SecretKeyShare, String> result = delegate.sendSecretKeyShare(request.getGuardianId());
+      long start = System.nanoTime();
+      CompletableFuture<Result<SecretKeyShare, String>> share = share(request.getGuardianId());
+      boolean ready = share.isDone();
+      Result<SecretKeyShare, String> result = share.join();
+      if (ready) {
+        sharesReady.incrementAndGet();
+      } else {
+        long waited = System.nanoTime() - start;
+        sharesWaited.incrementAndGet();
+        shareWaitNanos.addAndGet(waited);
+        maxShareWaitNanos.accumulateAndGet(waited, Math::max);
+        logger.atInfo().log("RemoteTrustee %s sendSecretKeyShare waited %d ms for the share for %s", delegate.id(),
+                TimeUnit.NANOSECONDS.toMillis(waited), request.getGuardianId());
+      }
 
       if (result.component2() == null) {
         SecretKeyShare backup = result.component1();
+        sentShares.put(backup.getDesignatedGuardianId(), backup);
         response.setGeneratingGuardianId(backup.getGeneratingGuardianId())
                 .setDesignatedGuardianId(backup.getDesignatedGuardianId())
                 .setDesignatedGuardianXCoordinate(backup.getDesignatedGuardianXCoordinate())
@@ -281,24 +462,39 @@ class RunRemoteTrustee extends RemoteKeyCeremonyTrusteeServiceGrpc.RemoteKeyCere
       response.setError(t.getMessage());
     }
 
-    responseObserver.onNext(response.build());
-    responseObserver.onCompleted();
+    return response.build();
   }
 
   @Override
   public void receiveSecretKeyShare(RemoteKeyCeremonyTrusteeProto.PartialKeyBackup proto,
-                                     StreamObserver<RemoteKeyCeremonyTrusteeProto.PartialKeyVerification> responseObserver) {
+                                    StreamObserver<RemoteKeyCeremonyTrusteeProto.PartialKeyVerification> responseObserver) {
+    answers.respond("receiveSecretKeyShare", proto.getRequestId(), () -> receiveSecretKeyShareResponse(proto),
+            RemoteKeyCeremonyTrusteeProto.PartialKeyVerification::getError, responseObserver);
+  }
 
+  private RemoteKeyCeremonyTrusteeProto.PartialKeyVerification receiveSecretKeyShareResponse(RemoteKeyCeremonyTrusteeProto.PartialKeyBackup proto) {
     RemoteKeyCeremonyTrusteeProto.PartialKeyVerification.Builder response = RemoteKeyCeremonyTrusteeProto.PartialKeyVerification.newBuilder();
     try {
-      SecretKeyShare backup = new SecretKeyShare(
-              proto.getGeneratingGuardianId(),
-              proto.getDesignatedGuardianId(),
-              proto.getDesignatedGuardianXCoordinate(),
-              importHashedCiphertext(group, proto.getEncryptedCoordinate())
-      );
+      SecretKeyShare backup;
+      if (proto.getFromSameHost()) {
+        RunRemoteTrustee generator = peers.get(proto.getGeneratingGuardianId());
+        backup = (generator == null) ? null : generator.sentShares.get(delegate.id());
+        if (backup == null) {
+          throw new IllegalStateException(String.format("no secret key share from '%s' in this process", proto.getGeneratingGuardianId()));
+        }
+      } else {
+        backup = new SecretKeyShare(
+                proto.getGeneratingGuardianId(),
+                proto.getDesignatedGuardianId(),
+                proto.getDesignatedGuardianXCoordinate(),
+                importHashedCiphertext(group, proto.getEncryptedCoordinate())
+        );
+      }
 
-      Result<SecretKeyShare, String> result = delegate.receiveSecretKeyShare(backup);
+      Result<SecretKeyShare, String> result;
+      synchronized (delegate) {
+        result = delegate.receiveSecretKeyShare(backup);
+      }
 
       if (result.component2() == null) {
         SecretKeyShare sshare = result.component1();
@@ -317,26 +513,30 @@ class RunRemoteTrustee extends RemoteKeyCeremonyTrusteeServiceGrpc.RemoteKeyCere
       response.setError(t.getMessage());
     }
 
-    responseObserver.onNext(response.build());
-    responseObserver.onCompleted();
+    return response.build();
   }
 
+  /** Answered once the state is durable, with the time that took; the rpc thread doesnt wait for the write. */
   @Override
   public void saveState(com.google.protobuf.Empty request,
                         StreamObserver<CommonRpcProto.ErrorResponse> responseObserver) {
-    CommonRpcProto.ErrorResponse.Builder response = CommonRpcProto.ErrorResponse.newBuilder();
-    try {
-      publisher.writeTrustee(trusteeDir, this.delegate);
-      logger.atInfo().log("RemoteTrustee saveState %s", delegate.id());
-
-    } catch (Throwable t) {
-      logger.atSevere().withCause(t).log("RemoteTrustee saveState failed");
-      t.printStackTrace();
-      response.setError(t.getMessage());
-    }
-
-    responseObserver.onNext(response.build());
-    responseObserver.onCompleted();
+    store.save(delegate.id(), Path.of(trusteeDir), dir -> {
+      synchronized (delegate) {
+        publisher.writeTrustee(dir, this.delegate);
+      }
+    }).whenComplete((micros, failed) -> {
+      CommonRpcProto.ErrorResponse.Builder response = CommonRpcProto.ErrorResponse.newBuilder();
+      if (failed != null) {
+        Throwable cause = (failed instanceof CompletionException && failed.getCause() != null) ? failed.getCause() : failed;
+        logger.atSevere().withCause(cause).log("RemoteTrustee saveState %s failed", delegate.id());
+        response.setError("RemoteTrustee saveState failed: " + cause.getMessage());
+      } else {
+        logger.atInfo().log("RemoteTrustee saveState %s took %d us", delegate.id(), micros);
+        response.setLatencyMicros(micros);
+      }
+      responseObserver.onNext(response.build());
+      responseObserver.onCompleted();
+    });
   }
 
   @Override
@@ -345,7 +545,12 @@ class RunRemoteTrustee extends RemoteKeyCeremonyTrusteeServiceGrpc.RemoteKeyCere
     CommonRpcProto.ErrorResponse.Builder response = CommonRpcProto.ErrorResponse.newBuilder();
     boolean ok = true;
     try {
-      logger.atInfo().log("RemoteTrustee finish ok = %s", request.getAllOk());
+      logger.atInfo().log("RemoteTrustee %s finish ok = %s; shares ready=%d waited=%d for %d ms (max %d ms); %s",
+              delegate.id(), request.getAllOk(), sharesReady.get(), sharesWaited.get(),
+              TimeUnit.NANOSECONDS.toMillis(shareWaitNanos.get()), TimeUnit.NANOSECONDS.toMillis(maxShareWaitNanos.get()),
+              cryptoExecutor.stats());
+      logger.atInfo().log("RemoteTrustee %s %s", delegate.id(), store.stats());
+      precomputePool.shutdownNow();
 
     } catch (Throwable t) {
       logger.atSevere().withCause(t).log("RemoteTrustee finish failed");
@@ -358,4 +563,21 @@ class RunRemoteTrustee extends RemoteKeyCeremonyTrusteeServiceGrpc.RemoteKeyCere
     responseObserver.onCompleted();
   }
 
+  /** A share waiting to be precomputed. */
+  private static class Queued implements Comparable<Queued> {
+    final String designatedId;
+    final int xCoordinate;
+    final CompletableFuture<Result<SecretKeyShare, String>> share;
+
+    Queued(String designatedId, int xCoordinate, CompletableFuture<Result<SecretKeyShare, String>> share) {
+      this.designatedId = designatedId;
+      this.xCoordinate = xCoordinate;
+      this.share = share;
+    }
+
+    @Override
+    public int compareTo(Queued other) {
+      return Integer.compare(xCoordinate, other.xCoordinate);
+    }
+  }
 }
@@ -0,0 +1,337 @@
+package electionguard.keyceremony;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+import com.google.common.flogger.FluentLogger;
+import electionguard.core.GroupContext;
+import electionguard.core.PowRadixOption;
+import electionguard.core.ProductionMode;
+import electionguard.protogen2.CommonRpcProto;
+import electionguard.protogen2.RemoteKeyCeremonyProto;
+import electionguard.protogen2.RemoteKeyCeremonyTrusteeProto;
+import electionguard.protogen2.RemoteKeyCeremonyTrusteeServiceGrpc;
+import electionguard.util.CryptoExecutor;
+import electionguard.util.GuardianRoute;
+import electionguard.util.KUtils;
+import io.grpc.Context;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Serves several KeyCeremonyTrustees from one JVM behind one port, eg for a small election or a test.
+ * Each trustee registers with RunRemoteKeyCeremony at the same url, and each call is routed to its trustee by the
+ * guardian id the coordinator sends in the eg-guardian-id header. The trustees share one crypto executor and one state
+ * store, which by default commits the saves that arrive together as a group. Keys and shares sent between trustees
+ * of the same host are taken from memory, not the message.
+ */
+class RunRemoteTrusteeHost extends RemoteKeyCeremonyTrusteeServiceGrpc.RemoteKeyCeremonyTrusteeServiceImplBase {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+  private static final Random random = new Random();
+
+  private static class CommandLine {
+    @Parameter(names = {"-names"}, order = 0, description = "Guardian names, comma separated", required = true)
+    List<String> names;
+
+    @Parameter(names = {"-port"}, order = 1, description = "This KeyCeremonyRemoteTrusteeHost port")
+    int port = 0;
+
+    @Parameter(names = {"-serverPort"}, order = 2, description = "The KeyCeremonyRemote server port")
+    int serverPort = 17111;
+
+    @Parameter(names = {"-out"}, order = 3, description = "Directory where the Guardians' state is written", required = true)
+    String outputDir;
+
+    @Parameter(names = {"-cryptoThreads"}, order = 4, description = "Number of requests that may be computing at once, for all the trustees")
+    int cryptoThreads = Runtime.getRuntime().availableProcessors();
+
+    @Parameter(names = {"-maxQueued"}, order = 5, description = "Number of requests that may wait to be computed, for all the trustees; more are rejected as busy")
+    int maxQueued = 64;
+
+    @Parameter(names = {"-durability"}, order = 6, description = "How the trustees' state is saved: NONE (atomic only), FSYNC, or GROUP")
+    TrusteeStateStore.Durability durability = TrusteeStateStore.Durability.GROUP;
+
+    @Parameter(names = {"-powRadix"}, order = 7, description = "Size of the fixed-base g^x tables, which each process keeps in memory")
+    PowRadixOption powRadix = KUtils.DEFAULT_POW_RADIX;
+
+    @Parameter(names = {"-productionMode"}, order = 8, description = "The group, which must match the election record")
+    ProductionMode productionMode = KUtils.DEFAULT_PRODUCTION_MODE;
+
+    @Parameter(names = {"-h", "--help"}, order = 9, description = "Display this help and exit", help = true)
+    boolean help = false;
+
+    private final JCommander jc;
+
+    CommandLine(String progName, String[] args) throws ParameterException {
+      this.jc = new JCommander(this);
+      this.jc.parse(args);
+      jc.setProgramName(String.format("java -classpath electionguard-java-all.jar %s", progName));
+    }
+
+    void printUsage() {
+      jc.usage();
+    }
+  }
+
+  public static void main(String[] args) {
+    String progName = RunRemoteTrusteeHost.class.getName();
+    CommandLine cmdLine = null;
+
+    try {
+      cmdLine = new CommandLine(progName, args);
+      if (cmdLine.help) {
+        cmdLine.printUsage();
+        return;
+      }
+    } catch (ParameterException e) {
+      System.err.println(e.getMessage());
+      System.err.printf("Try '%s --help' for more information.%n", progName);
+      System.exit(1);
+    }
+    KUtils.configureGroup(cmdLine.powRadix, cmdLine.productionMode);
+    CompletableFuture<GroupContext> warmGroup = KUtils.warmUpGroup(); // while we register
+
+    int port = cmdLine.port;
+    if (port == 0) {
+      port = cmdLine.serverPort + 1 + random.nextInt(10000);
+      while (!RunRemoteTrustee.isLocalPortFree(port)) {
+        port = cmdLine.serverPort + 1 + random.nextInt(10000);
+      }
+    }
+    String url = "localhost:" + port;
+    String serverUrl = "localhost:" + cmdLine.serverPort;
+    System.out.printf("*** RemoteTrusteeHost %s with args %s %s%n", serverUrl, cmdLine.names, url);
+
+    try {
+      serve(cmdLine.names, port, serverUrl, cmdLine.outputDir, cmdLine.cryptoThreads, cmdLine.maxQueued,
+              cmdLine.durability, warmGroup);
+      System.exit(0);
+
+    } catch (Throwable t) {
+      System.out.printf("*** RemoteTrusteeHost FAILURE%n");
+      t.printStackTrace();
+      System.exit(3);
+    }
+  }
+
+  /**
+   * Listen on port, register each name with the KeyCeremonyRemote "server" at our url, then make the trustees once the
+   * group is warm, and serve them until they are finished. Listening first lets the coordinator check that it can reach
+   * us before it answers. A call that arrives before the trustees are made is held until they are, however long the
+   * warm-up takes, rather than failed for the coordinator to retry.
+   */
+  static void serve(List<String> names, int port, String serverUrl, String outputDir, int cryptoThreads, int maxQueued,
+                    TrusteeStateStore.Durability durability, CompletableFuture<GroupContext> warmGroup)
+          throws IOException, InterruptedException {
+    String url = "localhost:" + port;
+    RunRemoteTrusteeHost host = new RunRemoteTrusteeHost(cryptoThreads, maxQueued, durability);
+    host.start(port);
+
+    // register each trustee, all at our url, to get its parameters
+    List<RemoteKeyCeremonyProto.RegisterKeyCeremonyTrusteeResponse> registered = new ArrayList<>();
+    RemoteKeyCeremonyProxy proxy = new RemoteKeyCeremonyProxy(serverUrl);
+    try {
+      for (String name : names) {
+        RemoteKeyCeremonyProto.RegisterKeyCeremonyTrusteeResponse response = proxy.registerTrustee(name, url, true);
+        if (!response.getError().isEmpty()) {
+          System.out.printf("    registerTrustee %s error %s, skipping it%n", name, response.getError());
+          continue;
+        }
+        System.out.printf("    response %s %d %d%n", response.getGuardianId(),
+                response.getGuardianXCoordinate(),
+                response.getQuorum());
+        registered.add(response);
+      }
+    } finally {
+      proxy.shutdown();
+    }
+    if (registered.isEmpty()) {
+      throw new RuntimeException("RemoteKeyCeremony accepted none of the trustees " + names);
+    }
+
+    // each trustee makes its polynomial and proofs when its made, so make them at once
+    try {
+      warmGroup.join();
+      CompletableFuture.allOf(registered.stream()
+              .map(response -> CompletableFuture.runAsync(() -> {
+                try {
+                  host.addTrustee(response.getGuardianId(), response.getGuardianXCoordinate(), response.getQuorum(), outputDir);
+                } catch (IOException e) {
+                  throw new UncheckedIOException(e);
+                }
+              }))
+              .toArray(CompletableFuture[]::new)).join();
+    } finally {
+      // release the held calls; any for a trustee that wasnt made now fail as NOT_FOUND
+      host.ready.complete(null);
+    }
+    logger.atInfo().log("RemoteTrusteeHost serving %s", host.trustees.keySet());
+    host.maybeShutdown();
+
+    host.blockUntilShutdown();
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  private Server server;
+
+  private void start(int port) throws IOException {
+    server = ServerBuilder.forPort(port) //
+            .addService(this) //
+            .intercept(GuardianRoute.serverInterceptor())
+            .build().start();
+
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      // Use stderr here since the logger may have been reset by its JVM shutdown hook.
+      System.err.println("*** shutting down gRPC server since JVM is shutting down");
+      try {
+        stopit();
+      } catch (InterruptedException e) {
+        e.printStackTrace(System.err);
+      }
+      System.err.println("*** server shut down");
+    }));
+
+    System.out.printf("---- RemoteTrusteeHost started, listening on %d ----%n", port);
+  }
+
+  private void stopit() throws InterruptedException {
+    if (server != null) {
+      server.shutdown().awaitTermination(30, TimeUnit.SECONDS);
+    }
+    cryptoExecutor.shutdownNow();
+    store.shutdown();
+  }
+
+  /** Await termination on the main thread since the grpc library uses daemon threads. */
+  private void blockUntilShutdown() throws InterruptedException {
+    if (server != null) {
+      server.awaitTermination();
+    }
+  }
+
+  ////////////////////////////////////////////////////////////////////////////////
+  // also each trustee's peers
+  private final Map<String, RunRemoteTrustee> trustees = new ConcurrentHashMap<>();
+  private final CryptoExecutor cryptoExecutor;
+  private final TrusteeStateStore store;
+  // completed once the registered trustees are made; calls that arrive before are held until then
+  private final CompletableFuture<Void> ready = new CompletableFuture<>();
+  private final Set<String> finished = new HashSet<>(); // guarded by this
+
+  RunRemoteTrusteeHost(int cryptoThreads, int maxQueued, TrusteeStateStore.Durability durability) {
+    this.cryptoExecutor = new CryptoExecutor("keyceremony-host", cryptoThreads, maxQueued);
+    this.store = new TrusteeStateStore("keyceremony-host", durability, cryptoThreads);
+  }
+
+  void addTrustee(String id, int xCoordinate, int quorum, String trusteeDir) throws IOException {
+    if (trustees.containsKey(id)) {
+      throw new IllegalArgumentException("Already have a guardian id=" + id);
+    }
+    RunRemoteTrustee trustee = new RunRemoteTrustee(id, xCoordinate, quorum, trusteeDir, cryptoExecutor, store, trustees);
+    if (trustees.putIfAbsent(id, trustee) != null) {
+      throw new IllegalArgumentException("Already have a guardian id=" + id);
+    }
+  }
+
+  /**
+   * Make the current call on the trustee it is for, or fail it with NOT_FOUND. If the trustees are still being made,
+   * the call is held, in its Context, until they are.
+   */
+  private void route(StreamObserver<?> responseObserver, Consumer<RunRemoteTrustee> call) {
+    String guardianId = GuardianRoute.current();
+    if (!ready.isDone()) {
+      logger.atInfo().log("RemoteTrusteeHost has no trustee '%s' yet, holding the call", guardianId);
+      Context context = Context.current();
+      ready.whenComplete((v, t) -> context.run(() -> route(responseObserver, call)));
+      return;
+    }
+    RunRemoteTrustee trustee = trustees.get(guardianId);
+    if (trustee == null) {
+      logger.atWarning().log("RemoteTrusteeHost has no trustee '%s'", guardianId);
+      responseObserver.onError(Status.NOT_FOUND
+              .withDescription(String.format("no trustee '%s' here; have %s", guardianId, trustees.keySet()))
+              .asRuntimeException());
+      return;
+    }
+    call.accept(trustee);
+  }
+
+  @Override
+  public void sendPublicKeys(RemoteKeyCeremonyTrusteeProto.PublicKeySetRequest request,
+                             StreamObserver<RemoteKeyCeremonyTrusteeProto.PublicKeySet> responseObserver) {
+    route(responseObserver, trustee -> trustee.sendPublicKeys(request, responseObserver));
+  }
+
+  @Override
+  public void receivePublicKeys(RemoteKeyCeremonyTrusteeProto.PublicKeySet proto,
+                                StreamObserver<CommonRpcProto.ErrorResponse> responseObserver) {
+    route(responseObserver, trustee -> trustee.receivePublicKeys(proto, responseObserver));
+  }
+
+  @Override
+  public void receiveAllPublicKeys(RemoteKeyCeremonyTrusteeProto.PublicKeySets request,
+                                   StreamObserver<RemoteKeyCeremonyTrusteeProto.PublicKeyVerdicts> responseObserver) {
+    route(responseObserver, trustee -> trustee.receiveAllPublicKeys(request, responseObserver));
+  }
+
+  @Override
+  public void sendSecretKeyShare(RemoteKeyCeremonyTrusteeProto.PartialKeyBackupRequest request,
+                                 StreamObserver<RemoteKeyCeremonyTrusteeProto.PartialKeyBackup> responseObserver) {
+    route(responseObserver, trustee -> trustee.sendSecretKeyShare(request, responseObserver));
+  }
+
+  @Override
+  public void receiveSecretKeyShare(RemoteKeyCeremonyTrusteeProto.PartialKeyBackup proto,
+                                    StreamObserver<RemoteKeyCeremonyTrusteeProto.PartialKeyVerification> responseObserver) {
+    route(responseObserver, trustee -> trustee.receiveSecretKeyShare(proto, responseObserver));
+  }
+
+  @Override
+  public void saveState(com.google.protobuf.Empty request,
+                        StreamObserver<CommonRpcProto.ErrorResponse> responseObserver) {
+    route(responseObserver, trustee -> trustee.saveState(request, responseObserver));
+  }
+
+  /** Each trustee is finished on its own; the host exits once all of them are. */
+  @Override
+  public void finish(CommonRpcProto.FinishRequest request,
+                     StreamObserver<CommonRpcProto.ErrorResponse> responseObserver) {
+    route(responseObserver, trustee -> {
+      trustee.finish(request, responseObserver);
+      int nfinished;
+      synchronized (this) {
+        finished.add(trustee.delegate.id());
+        nfinished = finished.size();
+      }
+      logger.atInfo().log("RemoteTrusteeHost finished %s (%d of %d)", trustee.delegate.id(), nfinished, trustees.size());
+      maybeShutdown();
+    });
+  }
+
+  /** Once every trustee is finished, stop the server, and so the host. */
+  private void maybeShutdown() {
+    synchronized (this) {
+      if (!ready.isDone() || !finished.containsAll(trustees.keySet())) {
+        return;
+      }
+    }
+    if (server != null) {
+      server.shutdown();
+    }
+  }
+}
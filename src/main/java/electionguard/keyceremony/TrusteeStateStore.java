@@ -0,0 +1,255 @@
+package electionguard.keyceremony;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Saves trustee state off the calling thread, so that no file of it is ever seen half written.
+ * The state is written into a new temporary directory next to its destination, and each file is then renamed into
+ * place. Each file is replaced atomically, but not the state as a whole: a crash between the renames of a state
+ * with several files can leave some of them old and some new.
+ * The future completes once the state is as durable as the Durability asks, with the time that took.
+ * <ul>
+ *   <li>NONE: the renames are atomic, but nothing is synced; a crash may lose a save, but not tear a file.</li>
+ *   <li>FSYNC: each save syncs its files before the rename, and the directory after.</li>
+ *   <li>GROUP: saves that arrive together are written by one thread, and then each directory is synced once for
+ *       all of them; for a host with many trustees.</li>
+ * </ul>
+ */
+class TrusteeStateStore {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  enum Durability {NONE, FSYNC, GROUP}
+
+  /** Writes the state into the given directory. */
+  interface StateWriter {
+    void write(String dir) throws Exception;
+  }
+
+  private final Durability durability;
+  private final ExecutorService executor;
+  private final BlockingQueue<Save> pending = new LinkedBlockingQueue<>(); // GROUP only
+  private boolean shutdown = false; // guarded by this, so no save is taken after shutdown has drained pending
+
+  private final AtomicLong nsaves = new AtomicLong();
+  private final AtomicLong nbatches = new AtomicLong();
+  private final AtomicLong totalMicros = new AtomicLong();
+  private final AtomicLong maxMicros = new AtomicLong();
+
+  TrusteeStateStore(String name, Durability durability, int nthreads) {
+    this.durability = durability;
+    ThreadFactory threads = new ThreadFactoryBuilder().setNameFormat("save-" + name.replace("%", "%%") + "-%d").setDaemon(true).build();
+    if (durability == Durability.GROUP) {
+      this.executor = Executors.newSingleThreadExecutor(threads);
+      this.executor.execute(this::groupCommit);
+    } else {
+      this.executor = Executors.newFixedThreadPool(nthreads, threads);
+    }
+  }
+
+  /** Save the state of trustee id in dir. Completes with the microseconds from the call until the state was durable. */
+  CompletableFuture<Long> save(String id, Path dir, StateWriter writer) {
+    Save save = new Save(id, dir, writer);
+    synchronized (this) {
+      if (!shutdown) {
+        if (durability == Durability.GROUP) {
+          pending.add(save);
+        } else {
+          executor.execute(new Install(save));
+        }
+        return save.future;
+      }
+    }
+    save.done(new IOException("TrusteeStateStore shut down"));
+    return save.future;
+  }
+
+  /** One save, for NONE and FSYNC. */
+  private class Install implements Runnable {
+    final Save save;
+
+    Install(Save save) {
+      this.save = save;
+    }
+
+    @Override
+    public void run() {
+      try {
+        install(save);
+        if (durability == Durability.FSYNC) {
+          syncDirectory(save.dir);
+        }
+        save.done(null);
+      } catch (Throwable t) {
+        save.done(t);
+      }
+    }
+  }
+
+  /** Take everything waiting, install it, then sync each directory once. */
+  private void groupCommit() {
+    List<Save> batch = new ArrayList<>();
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        batch.add(pending.take());
+        pending.drainTo(batch);
+
+        List<Save> installed = new ArrayList<>(batch.size());
+        for (Save save : batch) {
+          try {
+            install(save);
+            installed.add(save);
+          } catch (Throwable t) {
+            save.done(t);
+          }
+        }
+        Set<Path> dirs = new LinkedHashSet<>();
+        installed.forEach(save -> dirs.add(save.dir));
+        Throwable syncFailed = null;
+        for (Path dir : dirs) {
+          try {
+            syncDirectory(dir);
+          } catch (IOException e) {
+            syncFailed = e;
+          }
+        }
+        for (Save save : installed) {
+          save.done(syncFailed);
+        }
+        nbatches.incrementAndGet();
+        logger.atInfo().log("TrusteeStateStore group commit of %d saves in %d directories", installed.size(), dirs.size());
+        batch.clear();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    batch.forEach(save -> save.done(new IOException("TrusteeStateStore shut down")));
+  }
+
+  /** Write the state into a temporary directory, sync it unless NONE, and rename each file into place. */
+  private void install(Save save) throws Exception {
+    Files.createDirectories(save.dir);
+    Path tmp = Files.createTempDirectory(save.dir, ".saving-" + save.id + "-");
+    try {
+      save.writer.write(tmp.toString());
+      List<Path> files;
+      try (Stream<Path> list = Files.list(tmp)) {
+        files = list.filter(Files::isRegularFile).toList();
+      }
+      if (files.isEmpty()) {
+        throw new IOException("nothing was written for " + save.id);
+      }
+      if (durability != Durability.NONE) {
+        for (Path file : files) {
+          try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+          }
+        }
+      }
+      for (Path file : files) {
+        Files.move(file, save.dir.resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+    } finally {
+      deleteQuietly(tmp);
+    }
+  }
+
+  /** So the renames survive a crash. Not every platform can open a directory; there the renames are left to the OS. */
+  private static void syncDirectory(Path dir) throws IOException {
+    try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+      channel.force(true);
+    } catch (UnsupportedOperationException | AccessDeniedException e) {
+      logger.atFine().log("cant sync directory %s: %s", dir, e.getMessage());
+    }
+  }
+
+  private static void deleteQuietly(Path tmp) {
+    try (Stream<Path> walk = Files.walk(tmp)) {
+      walk.sorted(Comparator.reverseOrder()).forEach(path -> {
+        try {
+          Files.deleteIfExists(path);
+        } catch (IOException e) {
+          logger.atWarning().log("cant delete %s: %s", path, e.getMessage());
+        }
+      });
+    } catch (IOException e) {
+      logger.atWarning().log("cant delete %s: %s", tmp, e.getMessage());
+    }
+  }
+
+  void shutdown() {
+    synchronized (this) {
+      shutdown = true;
+    }
+    List<Save> left = new ArrayList<>();
+    for (Runnable dropped : executor.shutdownNow()) {
+      if (dropped instanceof Install install) {
+        left.add(install.save);
+      }
+    }
+    try {
+      executor.awaitTermination(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    // nothing is added once shutdown is set, so this gets whatever the group commit didnt take
+    pending.drainTo(left);
+    left.forEach(save -> save.done(new IOException("TrusteeStateStore shut down")));
+  }
+
+  String stats() {
+    long n = nsaves.get();
+    return String.format("TrusteeStateStore %s saves=%d batches=%d mean=%d us max=%d us",
+            durability, n, (durability == Durability.GROUP) ? nbatches.get() : n,
+            (n == 0) ? 0 : totalMicros.get() / n, maxMicros.get());
+  }
+
+  private class Save {
+    final String id;
+    final Path dir;
+    final StateWriter writer;
+    final long start = System.nanoTime();
+    final CompletableFuture<Long> future = new CompletableFuture<>();
+
+    Save(String id, Path dir, StateWriter writer) {
+      this.id = id;
+      this.dir = dir;
+      this.writer = writer;
+    }
+
+    void done(Throwable failed) {
+      if (failed != null) {
+        logger.atSevere().withCause(failed).log("TrusteeStateStore save of %s in %s failed", id, dir);
+        future.completeExceptionally(failed);
+        return;
+      }
+      long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+      nsaves.incrementAndGet();
+      totalMicros.addAndGet(micros);
+      maxMicros.accumulateAndGet(micros, Math::max);
+      future.complete(micros);
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package electionguard.util;
+
+import com.google.common.base.Preconditions;
+import com.google.common.flogger.FluentLogger;
+import com.google.protobuf.Message;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.StreamObserver;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A trustee's responses by request id, so a retried or hedged request from the coordinator is answered from the first
+ * attempt, not computed again. See RpcPolicy.
+ * <p>
+ * A response is kept while it is computed and for ANSWER_GRACE_SECS after; a response may hold a few thousand partial
+ * decryptions, so it is not kept longer than a retry of the request might take to arrive. Error responses and failed
+ * calls are not kept, so they can be tried again.
+ */
+public class AnswerCache {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+  public static final int ANSWER_GRACE_SECS = 60;
+
+  private final String tenant;
+  private final CryptoExecutor cryptoExecutor;
+  private final Map<String, CompletableFuture<Message>> answers = new ConcurrentHashMap<>();
+
+  /** Responses of the tenant (the trustee id), computed on the crypto executor. */
+  public AnswerCache(String tenant, CryptoExecutor cryptoExecutor) {
+    this.tenant = Preconditions.checkNotNull(tenant);
+    this.cryptoExecutor = Preconditions.checkNotNull(cryptoExecutor);
+  }
+
+  /**
+   * Compute the response to a request on the crypto executor, and send it.
+   * If a request with the same id has already been answered or is being answered, send that answer instead.
+   * A request without an id is always computed.
+   * @param errorOf the error of a response, empty if it succeeded
+   */
+  @SuppressWarnings("unchecked")
+  public <T extends Message> void respond(String what, String requestId, Supplier<T> compute, Function<T, String> errorOf,
+                                          StreamObserver<T> responseObserver) {
+    CompletableFuture<Message> mine = new CompletableFuture<>();
+    CompletableFuture<Message> first = requestId.isEmpty() ? null : answers.putIfAbsent(requestId, mine);
+    if (first != null) {
+      logger.atInfo().log("%s repeated %s request %s", tenant, what, requestId);
+      first.whenComplete((response, failure) -> {
+        if (failure != null) {
+          responseObserver.onError(CryptoExecutor.asStatus(failure));
+        } else {
+          responseObserver.onNext((T) response);
+          responseObserver.onCompleted();
+        }
+      });
+      return;
+    }
+    if (!requestId.isEmpty()) {
+      mine.whenComplete((response, failure) -> {
+        if (failure != null) {
+          answers.remove(requestId, mine);
+        } else {
+          CompletableFuture.delayedExecutor(ANSWER_GRACE_SECS, TimeUnit.SECONDS).execute(() -> answers.remove(requestId, mine));
+        }
+      });
+    }
+
+    boolean admitted = cryptoExecutor.execute(tenant, what, () -> {
+      T response = compute.get();
+      if (!errorOf.apply(response).isEmpty()) {
+        answers.remove(requestId, mine);
+      }
+      mine.complete(response);
+      responseObserver.onNext(response);
+      responseObserver.onCompleted();
+    }, failure -> {
+      mine.completeExceptionally(failure);
+      responseObserver.onError(CryptoExecutor.asStatus(failure));
+    });
+    if (!admitted) {
+      StatusRuntimeException rejection = cryptoExecutor.rejection(what);
+      mine.completeExceptionally(rejection);
+      responseObserver.onError(rejection);
+    }
+  }
+
+  /** Number of responses kept now. */
+  public int size() {
+    return answers.size();
+  }
+}
@@ -0,0 +1,126 @@
+package electionguard.util;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.grpc.Deadline;
+
+import java.util.ArrayList;
+import java.util.Formatter;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Makes the same control call (eg saveState, finish, shutdown) to all the trustees at once, under one deadline,
+ * and collects each trustee's status and time. A call still running at the deadline is interrupted and counts as TIMEOUT.
+ */
+public class Broadcast {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  public enum Status {OK, FAILED, ERROR, TIMEOUT}
+
+  private Broadcast() {}
+
+  /**
+   * @param what name of the call, for the report
+   * @param targets who to call
+   * @param idOf the id of a target, for the report
+   * @param call makes the call; returns false if it failed
+   * @param deadline for all the calls
+   */
+  public static <T> Outcome call(String what, List<T> targets, Function<T, String> idOf, Predicate<T> call, Deadline deadline) {
+    List<T> copy = List.copyOf(targets);
+    List<Future<Result>> futures = new ArrayList<>(copy.size());
+    long start = System.nanoTime();
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, copy.size()), new ThreadFactoryBuilder().setNameFormat("broadcast-" + what + "-%d").setDaemon(true).build());
+    try {
+      for (T target : copy) {
+        String id = idOf.apply(target);
+        futures.add(executor.submit(() -> {
+          long callStart = System.nanoTime();
+          try {
+            boolean ok = call.test(target);
+            return new Result(id, ok ? Status.OK : Status.FAILED, msecsSince(callStart), null);
+          } catch (RuntimeException e) {
+            logger.atSevere().withCause(e).log("%s %s threw", what, id);
+            return new Result(id, Status.ERROR, msecsSince(callStart), e.getMessage());
+          }
+        }));
+      }
+
+      List<Result> results = new ArrayList<>(copy.size());
+      for (int i = 0; i < copy.size(); i++) {
+        Future<Result> future = futures.get(i);
+        try {
+          results.add(future.get(Math.max(0, deadline.timeRemaining(TimeUnit.NANOSECONDS)), TimeUnit.NANOSECONDS));
+        } catch (TimeoutException e) {
+          future.cancel(true);
+          results.add(new Result(idOf.apply(copy.get(i)), Status.TIMEOUT, msecsSince(start), null));
+        } catch (ExecutionException e) {
+          results.add(new Result(idOf.apply(copy.get(i)), Status.ERROR, msecsSince(start), e.getCause().toString()));
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          future.cancel(true);
+          results.add(new Result(idOf.apply(copy.get(i)), Status.TIMEOUT, msecsSince(start), "interrupted"));
+        }
+      }
+      return new Outcome(what, results, msecsSince(start));
+
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static long msecsSince(long startNanos) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+  }
+
+  /** One trustee's status, and the time its call took (or, if it didnt finish, the time until it was given up on). */
+  public static class Result {
+    public final String id;
+    public final Status status;
+    public final long msecs;
+    public final String error; // if it threw or was interrupted
+
+    Result(String id, Status status, long msecs, String error) {
+      this.id = id;
+      this.status = status;
+      this.msecs = msecs;
+      this.error = error;
+    }
+  }
+
+  /** The results of one broadcast, in the order of the targets. */
+  public static class Outcome {
+    public final String what;
+    public final List<Result> results;
+    public final long wallMsecs;
+
+    Outcome(String what, List<Result> results, long wallMsecs) {
+      this.what = what;
+      this.results = List.copyOf(results);
+      this.wallMsecs = wallMsecs;
+    }
+
+    public boolean allOk() {
+      return results.stream().allMatch(r -> r.status == Status.OK);
+    }
+
+    @Override
+    public String toString() {
+      Formatter f = new Formatter();
+      f.format("%s allOk = %s took %d ms%n", what, allOk(), wallMsecs);
+      for (Result result : results) {
+        f.format("  %-20s %-8s %6d ms%s%n", result.id, result.status, result.msecs,
+                result.error == null ? "" : " " + result.error);
+      }
+      return f.toString();
+    }
+  }
+}
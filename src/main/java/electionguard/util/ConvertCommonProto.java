@@ -1,7 +1,7 @@
 package electionguard.util;
 
-import at.favre.lib.bytes.Bytes;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
 import electionguard.core.ElGamalCiphertext;
 import electionguard.core.ElementModP;
 import electionguard.core.ElementModQ;
@@ -17,10 +17,24 @@ import electionguard.protogen2.CommonProto;
 
 import javax.annotation.Nullable;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Function;
 
 public class ConvertCommonProto {
+  // Each element is copied once into this reused buffer and decoded from there, instead of into a new array each time.
+  private static final ThreadLocal<byte[]> scratch = ThreadLocal.withInitial(() -> new byte[512]);
+
+  /** Decode bytes[offset, offset + len) as a big-endian unsigned int. */
+  static BigInteger importBigInteger(ByteString bytes, int offset, int len) {
+    byte[] buffer = scratch.get();
+    if (buffer.length < len) {
+      buffer = new byte[len];
+      scratch.set(buffer);
+    }
+    bytes.copyTo(buffer, offset, 0, len);
+    return new BigInteger(1, buffer, 0, len);
+  }
 
   @Nullable
   static <T, U> List<U> convertList(@Nullable List<T> from, Function<T, U> converter) {
@@ -43,7 +57,7 @@ public class ConvertCommonProto {
     if (modQ == null || modQ.getValue().isEmpty()) {
       return null;
     }
-    BigInteger elem = new BigInteger(1, modQ.getValue().toByteArray());
+    BigInteger elem = importBigInteger(modQ.getValue(), 0, modQ.getValue().size());
     return new ProductionElementModQ(elem, (ProductionGroupContext) group);
   }
 
@@ -52,10 +66,18 @@ public class ConvertCommonProto {
     if (modP == null || modP.getValue().isEmpty()) {
       return null;
     }
-    BigInteger elem = new BigInteger(1, modP.getValue().toByteArray());
+    BigInteger elem = importBigInteger(modP.getValue(), 0, modP.getValue().size());
     return new ProductionElementModP(elem, (ProductionGroupContext) group);
   }
 
+  public static List<ElementModP> importElementModPs(GroupContext group, List<CommonProto.ElementModP> elems) {
+    List<ElementModP> result = new ArrayList<>(elems.size());
+    for (CommonProto.ElementModP elem : elems) {
+      result.add(importElementModP(group, elem));
+    }
+    return result;
+  }
+
   @Nullable
   public static ElGamalCiphertext importCiphertext(GroupContext group, @Nullable CommonProto.ElGamalCiphertext ciphertext) {
     if (ciphertext == null || !ciphertext.hasPad()) {
@@ -67,6 +89,14 @@ public class ConvertCommonProto {
     );
   }
 
+  public static List<ElGamalCiphertext> importCiphertexts(GroupContext group, List<CommonProto.ElGamalCiphertext> ciphertexts) {
+    List<ElGamalCiphertext> result = new ArrayList<>(ciphertexts.size());
+    for (CommonProto.ElGamalCiphertext ciphertext : ciphertexts) {
+      result.add(importCiphertext(group, ciphertext));
+    }
+    return result;
+  }
+
   @Nullable
   public static HashedElGamalCiphertext importHashedCiphertext(GroupContext group, CommonProto.HashedElGamalCiphertext ciphertext) {
     if (ciphertext == null || !ciphertext.hasC0()) {
@@ -75,7 +105,7 @@ public class ConvertCommonProto {
 
     return new HashedElGamalCiphertext(
             importElementModP(group, ciphertext.getC0()),
-            Bytes.from((ciphertext.getC1().toByteArray())).array(),
+            ciphertext.getC1().toByteArray(),
             importUInt256(ciphertext.getC2()),
             ciphertext.getNumBytes()
     );
@@ -95,6 +125,7 @@ public class ConvertCommonProto {
 
   /////////////////////////////////////////////////////////////////////////////////////////
   // to proto
+  // byteArray() returns a new array on each call, which nothing else references, so it is wrapped, not copied.
 
   public static CommonProto.UInt256 publishUInt256(UInt256 modQ) {
     CommonProto.UInt256.Builder builder = CommonProto.UInt256.newBuilder();
@@ -104,22 +135,30 @@ public class ConvertCommonProto {
 
   public static CommonProto.UInt256 publishUInt256fromQ(ElementModQ modQ) {
     CommonProto.UInt256.Builder builder = CommonProto.UInt256.newBuilder();
-    builder.setValue(ByteString.copyFrom(modQ.byteArray()));
+    builder.setValue(UnsafeByteOperations.unsafeWrap(modQ.byteArray()));
     return builder.build();
   }
 
   public static CommonProto.ElementModQ publishElementModQ(ElementModQ modQ) {
     CommonProto.ElementModQ.Builder builder = CommonProto.ElementModQ.newBuilder();
-    builder.setValue(ByteString.copyFrom(modQ.byteArray()));
+    builder.setValue(UnsafeByteOperations.unsafeWrap(modQ.byteArray()));
     return builder.build();
   }
 
   public static CommonProto.ElementModP publishElementModP(ElementModP modP) {
     CommonProto.ElementModP.Builder builder = CommonProto.ElementModP.newBuilder();
-    builder.setValue(ByteString.copyFrom(modP.byteArray()));
+    builder.setValue(UnsafeByteOperations.unsafeWrap(modP.byteArray()));
     return builder.build();
   }
 
+  public static List<CommonProto.ElementModP> publishElementModPs(List<ElementModP> elems) {
+    List<CommonProto.ElementModP> result = new ArrayList<>(elems.size());
+    for (ElementModP elem : elems) {
+      result.add(publishElementModP(elem));
+    }
+    return result;
+  }
+
   public static CommonProto.ElGamalCiphertext publishCiphertext(ElGamalCiphertext ciphertext) {
     CommonProto.ElGamalCiphertext.Builder builder = CommonProto.ElGamalCiphertext.newBuilder();
     builder.setPad(publishElementModP(ciphertext.getPad()));
@@ -127,6 +166,14 @@ public class ConvertCommonProto {
     return builder.build();
   }
 
+  public static List<CommonProto.ElGamalCiphertext> publishCiphertexts(List<ElGamalCiphertext> ciphertexts) {
+    List<CommonProto.ElGamalCiphertext> result = new ArrayList<>(ciphertexts.size());
+    for (ElGamalCiphertext ciphertext : ciphertexts) {
+      result.add(publishCiphertext(ciphertext));
+    }
+    return result;
+  }
+
   public static CommonProto.HashedElGamalCiphertext publishHashedCiphertext(HashedElGamalCiphertext ciphertext) {
     CommonProto.HashedElGamalCiphertext.Builder builder = CommonProto.HashedElGamalCiphertext.newBuilder();
     builder.setC0(publishElementModP(ciphertext.getC0()));
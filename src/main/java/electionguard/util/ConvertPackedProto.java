@@ -0,0 +1,146 @@
+package electionguard.util;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import electionguard.core.ElGamalCiphertext;
+import electionguard.core.ElementModP;
+import electionguard.core.ElementModQ;
+import electionguard.core.GroupContext;
+import electionguard.core.ProductionElementModP;
+import electionguard.core.ProductionElementModQ;
+import electionguard.core.ProductionGroupContext;
+import electionguard.protogen2.CommonProto;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts lists of group elements to and from the packed CiphertextBatch and ElementBatch messages.
+ * Each element is a fixed width, big-endian unsigned int, so a batch is one byte array, with no message per element.
+ */
+public class ConvertPackedProto {
+
+  /** The number of bytes in an ElementModP for this group. */
+  public static int elementModPBytes(GroupContext group) {
+    return (new BigInteger(1, group.getConstants().getLargePrime()).bitLength() + 7) / 8;
+  }
+
+  /** The number of bytes in an ElementModQ for this group. */
+  public static int elementModQBytes(GroupContext group) {
+    return (new BigInteger(1, group.getConstants().getSmallPrime()).bitLength() + 7) / 8;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////////////////
+  // from proto
+
+  public static List<ElGamalCiphertext> importCiphertextBatch(GroupContext group, CommonProto.CiphertextBatch batch) {
+    int count = batch.getCount();
+    int width = checkedWidth(batch.getWidth(), elementModPBytes(group));
+    ByteString packed = checkedBytes(batch.getPacked(), 2L * count * width);
+
+    List<ElGamalCiphertext> result = new ArrayList<>(count);
+    for (int i = 0, offset = 0; i < count; i++, offset += 2 * width) {
+      result.add(new ElGamalCiphertext(
+              elementModP(group, packed, offset, width),
+              elementModP(group, packed, offset + width, width)));
+    }
+    return result;
+  }
+
+  public static List<ElementModP> importElementModPBatch(GroupContext group, CommonProto.ElementBatch batch) {
+    int count = batch.getCount();
+    int width = checkedWidth(batch.getWidth(), elementModPBytes(group));
+    ByteString packed = checkedBytes(batch.getPacked(), (long) count * width);
+
+    List<ElementModP> result = new ArrayList<>(count);
+    for (int i = 0, offset = 0; i < count; i++, offset += width) {
+      result.add(elementModP(group, packed, offset, width));
+    }
+    return result;
+  }
+
+  public static List<ElementModQ> importElementModQBatch(GroupContext group, CommonProto.ElementBatch batch) {
+    int count = batch.getCount();
+    int width = checkedWidth(batch.getWidth(), elementModQBytes(group));
+    ByteString packed = checkedBytes(batch.getPacked(), (long) count * width);
+
+    List<ElementModQ> result = new ArrayList<>(count);
+    for (int i = 0, offset = 0; i < count; i++, offset += width) {
+      result.add(new ProductionElementModQ(ConvertCommonProto.importBigInteger(packed, offset, width), (ProductionGroupContext) group));
+    }
+    return result;
+  }
+
+  private static ElementModP elementModP(GroupContext group, ByteString packed, int offset, int width) {
+    return new ProductionElementModP(ConvertCommonProto.importBigInteger(packed, offset, width), (ProductionGroupContext) group);
+  }
+
+  private static int checkedWidth(int width, int expected) {
+    if (width != expected) {
+      throw new IllegalArgumentException(String.format("Packed batch has width %d, expected %d for this group", width, expected));
+    }
+    return width;
+  }
+
+  private static ByteString checkedBytes(ByteString packed, long expected) {
+    if (packed.size() != expected) {
+      throw new IllegalArgumentException(String.format("Packed batch has %d bytes, expected %d", packed.size(), expected));
+    }
+    return packed;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////////////////
+  // to proto
+
+  public static CommonProto.CiphertextBatch publishCiphertextBatch(GroupContext group, List<ElGamalCiphertext> texts) {
+    int width = elementModPBytes(group);
+    byte[] packed = new byte[2 * texts.size() * width];
+    int offset = 0;
+    for (ElGamalCiphertext text : texts) {
+      putFixed(text.getPad().byteArray(), packed, offset, width);
+      putFixed(text.getData().byteArray(), packed, offset + width, width);
+      offset += 2 * width;
+    }
+    return CommonProto.CiphertextBatch.newBuilder()
+            .setCount(texts.size())
+            .setWidth(width)
+            .setPacked(UnsafeByteOperations.unsafeWrap(packed)) // packed is not modified after this
+            .build();
+  }
+
+  public static CommonProto.ElementBatch publishElementModPBatch(GroupContext group, List<ElementModP> elems) {
+    return publishBatch(elems.stream().map(ElementModP::byteArray).toList(), elementModPBytes(group));
+  }
+
+  public static CommonProto.ElementBatch publishElementModQBatch(GroupContext group, List<ElementModQ> elems) {
+    return publishBatch(elems.stream().map(ElementModQ::byteArray).toList(), elementModQBytes(group));
+  }
+
+  private static CommonProto.ElementBatch publishBatch(List<byte[]> elems, int width) {
+    byte[] packed = new byte[elems.size() * width];
+    int offset = 0;
+    for (byte[] elem : elems) {
+      putFixed(elem, packed, offset, width);
+      offset += width;
+    }
+    return CommonProto.ElementBatch.newBuilder()
+            .setCount(elems.size())
+            .setWidth(width)
+            .setPacked(UnsafeByteOperations.unsafeWrap(packed)) // packed is not modified after this
+            .build();
+  }
+
+  /** Copy the big-endian unsigned value into dest[offset, offset + width), right justified, dropping leading zeros. */
+  private static void putFixed(byte[] value, byte[] dest, int offset, int width) {
+    int start = 0;
+    while (start < value.length && value[start] == 0) {
+      start++;
+    }
+    int len = value.length - start;
+    if (len > width) {
+      throw new IllegalArgumentException(String.format("Element has %d bytes, batch width is %d", len, width));
+    }
+    System.arraycopy(value, start, dest, offset + width - len, len);
+  }
+}
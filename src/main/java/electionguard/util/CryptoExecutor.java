@@ -0,0 +1,450 @@
+package electionguard.util;
+
+import com.google.common.base.Preconditions;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.Metadata;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.StreamObserver;
+
+import javax.annotation.Nullable;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Formatter;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * The threads that do the crypto work of a trustee server, separate from the gRPC network threads.
+ * At most nthreads requests run at once, and at most queueSize wait; past that, a request is rejected with
+ * RESOURCE_EXHAUSTED, and a retry-after-ms trailer estimating when there will be room. See RpcPolicy.
+ * <p>
+ * Waiting requests are served by Priority class, highest first, and in order within a class.
+ * A lower class request that has waited longer than agingMsecs is served next, so a stream of higher class
+ * requests cant starve it.
+ * <p>
+ * When several trustees share one executor, each request names its tenant, and within a class the tenants
+ * with waiting requests take turns, so one trustee's backlog cant hold up another's.
+ * <p>
+ * A request whose work throws, or that is still waiting at shutdownNow, is failed through its onFailure;
+ * one dropped at shutdown fails with UNAVAILABLE.
+ * <p>
+ * The work runs in the gRPC Context of the call that submitted it. A request whose call was cancelled, or passed its
+ * deadline, while it waited is not run, and fails with CANCELLED or DEADLINE_EXCEEDED.
+ * <p>
+ * The queue depth, rejections and cancellations are counters of the MXBean "electionguard:type=CryptoExecutor,name=..."
+ * in the platform MBeanServer, eg for jconsole.
+ */
+public class CryptoExecutor {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+  public static final Metadata.Key<String> RETRY_AFTER_MS = Metadata.Key.of("retry-after-ms", Metadata.ASCII_STRING_MARSHALLER);
+  private static final long MIN_RETRY_MSECS = 100;
+  static final long DEFAULT_AGING_MSECS = 5000;
+
+  private final String name;
+  private final int nthreads;
+  private final int queueSize;
+  private final long agingNanos;
+  private final List<Thread> threads = new ArrayList<>();
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition hasWork = lock.newCondition();
+  private final List<FairQueue> queues = new ArrayList<>(); // one for each Priority, guarded by lock
+  private int nqueued = 0; // guarded by lock
+  private boolean shutdown = false; // guarded by lock
+
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicLong completed = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+  private final AtomicLong cancelled = new AtomicLong();
+  private final AtomicInteger maxQueueDepth = new AtomicInteger();
+  @Nullable private final ObjectName objectName;
+  private final Map<Priority, Latency> latencies = new EnumMap<>(Priority.class);
+  private volatile long avgMsecs = 0; // running average of a request's time on a crypto thread
+
+  public CryptoExecutor(String name, int nthreads, int queueSize) {
+    this(name, nthreads, queueSize, DEFAULT_AGING_MSECS);
+  }
+
+  public CryptoExecutor(String name, int nthreads, int queueSize, long agingMsecs) {
+    Preconditions.checkArgument(nthreads > 0 && queueSize > 0, "nthreads and queueSize must be > 0");
+    this.name = name;
+    this.nthreads = nthreads;
+    this.queueSize = queueSize;
+    this.agingNanos = TimeUnit.MILLISECONDS.toNanos(agingMsecs);
+    for (Priority priority : Priority.values()) {
+      queues.add(new FairQueue());
+      latencies.put(priority, new Latency());
+    }
+    ThreadFactory factory = new ThreadFactoryBuilder().setNameFormat(name.replace("%", "%%") + "-%d").setDaemon(true).build();
+    for (int i = 0; i < nthreads; i++) {
+      Thread thread = factory.newThread(this::work);
+      threads.add(thread);
+      thread.start();
+    }
+    this.objectName = register();
+  }
+
+  /** The counters, as the platform MBeanServer sees them. */
+  public interface Counters {
+    int getQueueDepth();
+    int getMaxQueueDepth();
+    int getInFlight();
+    long getCompleted();
+    long getRejected();
+    long getCancelled();
+  }
+
+  @Nullable
+  private ObjectName register() {
+    Counters counters = new Counters() {
+      public int getQueueDepth() { return queueDepth(); }
+      public int getMaxQueueDepth() { return maxQueueDepth.get(); }
+      public int getInFlight() { return inFlight(); }
+      public long getCompleted() { return completed(); }
+      public long getRejected() { return rejected(); }
+      public long getCancelled() { return cancelled(); }
+    };
+    try {
+      ObjectName objectName = new ObjectName("electionguard", new Hashtable<>(Map.of(
+              "type", "CryptoExecutor", "name", ObjectName.quote(name))));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(counters, Counters.class, true), objectName);
+      return objectName;
+    } catch (JMException e) {
+      // eg another executor with the same name
+      logger.atWarning().log("%s counters not registered: %s", name, e.getMessage());
+      return null;
+    }
+  }
+
+  /** Run the work on a crypto thread, at the Priority of the current Context. Returns false if the queue is full. */
+  public boolean execute(String what, Runnable work) {
+    return execute("", what, work);
+  }
+
+  /** Run the tenant's work on a crypto thread, at the Priority of the current Context. Returns false if the queue is full. */
+  public boolean execute(String tenant, String what, Runnable work) {
+    return execute(tenant, what, work, null);
+  }
+
+  /**
+   * Run the tenant's work on a crypto thread, at the Priority of the current Context. Returns false if the queue is full.
+   * If the work throws, or is dropped by shutdownNow, onFailure is called with why.
+   */
+  public boolean execute(String tenant, String what, Runnable work, @Nullable Consumer<Throwable> onFailure) {
+    Priority priority = Priority.current();
+    lock.lock();
+    try {
+      if (!shutdown && nqueued < queueSize) {
+        queues.get(priority.ordinal()).add(new Task(tenant, what, work, onFailure, priority));
+        nqueued++;
+        maxQueueDepth.accumulateAndGet(nqueued, Math::max);
+        hasWork.signal();
+        return true;
+      }
+    } finally {
+      lock.unlock();
+    }
+    rejected.incrementAndGet();
+    logger.atWarning().log("%s rejected %s %s %s: %s", name, priority, tenant, what, stats());
+    return false;
+  }
+
+  private void work() {
+    Task task;
+    while ((task = take()) != null) {
+      if (task.context.isCancelled()) {
+        // dont spend a crypto thread on an answer no one is waiting for
+        Status status = Contexts.statusFromCancelled(task.context);
+        cancelled.incrementAndGet();
+        logger.atInfo().log("%s skipped %s %s, its call is %s", name, task.tenant, task.what,
+                status == null ? "cancelled" : status.getCode());
+        task.fail((status == null ? Status.CANCELLED : status).withDescription(task.what + " was cancelled while queued")
+                .asRuntimeException());
+        continue;
+      }
+      inFlight.incrementAndGet();
+      long start = System.nanoTime();
+      try {
+        task.context.run(task.work);
+      } catch (Throwable t) {
+        // eg the call was cancelled while it waited
+        logger.atWarning().withCause(t).log("%s %s failed", name, task.what);
+        task.fail(t);
+      } finally {
+        long end = System.nanoTime();
+        long msecs = TimeUnit.NANOSECONDS.toMillis(end - start);
+        avgMsecs = (avgMsecs == 0) ? msecs : (7 * avgMsecs + msecs) / 8;
+        latencies.get(task.priority).add(TimeUnit.NANOSECONDS.toMillis(start - task.queuedNanos), msecs);
+        inFlight.decrementAndGet();
+        completed.incrementAndGet();
+      }
+    }
+  }
+
+  /** The next task to run, or null when shut down. */
+  @Nullable
+  private Task take() {
+    lock.lock();
+    try {
+      while (nqueued == 0 && !shutdown) {
+        hasWork.awaitUninterruptibly();
+      }
+      if (shutdown) {
+        return null;
+      }
+      Task next = null;
+      long now = System.nanoTime();
+      for (int i = 1; i < queues.size() && next == null; i++) {
+        Task head = queues.get(i).peek();
+        if (head != null && now - head.queuedNanos > agingNanos) {
+          next = queues.get(i).poll();
+        }
+      }
+      for (int i = 0; i < queues.size() && next == null; i++) {
+        next = queues.get(i).poll();
+      }
+      nqueued--;
+      return next;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Run the work on a crypto thread, or if the queue is full, fail the call with RESOURCE_EXHAUSTED. */
+  public void execute(String what, StreamObserver<?> responseObserver, Runnable work) {
+    execute("", what, responseObserver, work);
+  }
+
+  /** Run the tenant's work on a crypto thread, or if the queue is full, fail the call with RESOURCE_EXHAUSTED. */
+  public void execute(String tenant, String what, StreamObserver<?> responseObserver, Runnable work) {
+    if (!execute(tenant, what, work, t -> responseObserver.onError(asStatus(t)))) {
+      responseObserver.onError(rejection(what));
+    }
+  }
+
+  /** The failure as a gRPC status, INTERNAL unless it already is one. */
+  public static StatusRuntimeException asStatus(Throwable t) {
+    if (t instanceof StatusRuntimeException e) {
+      return e;
+    }
+    return Status.INTERNAL.withDescription(String.valueOf(t.getMessage())).withCause(t).asRuntimeException();
+  }
+
+  /** RESOURCE_EXHAUSTED, with a retry-after-ms trailer. */
+  public StatusRuntimeException rejection(String what) {
+    Metadata trailers = new Metadata();
+    trailers.put(RETRY_AFTER_MS, Long.toString(retryAfterMsecs()));
+    return Status.RESOURCE_EXHAUSTED
+            .withDescription(String.format("%s is busy, %d queued", name, queueDepth()))
+            .asRuntimeException(trailers);
+  }
+
+  /** About how long until the requests now waiting have started. */
+  long retryAfterMsecs() {
+    return Math.max(MIN_RETRY_MSECS, avgMsecs * (queueDepth() + nthreads) / nthreads);
+  }
+
+  /** The retry-after-ms trailer of a rejected call, or 0 if it has none. */
+  public static long retryAfterMsecs(StatusRuntimeException e) {
+    Metadata trailers = e.getTrailers();
+    String value = (trailers == null) ? null : trailers.get(RETRY_AFTER_MS);
+    try {
+      return (value == null) ? 0 : Long.parseLong(value);
+    } catch (NumberFormatException nfe) {
+      return 0;
+    }
+  }
+
+  /** Number of requests waiting for a crypto thread. */
+  public int queueDepth() {
+    lock.lock();
+    try {
+      return nqueued;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Number of requests of the given class waiting for a crypto thread. */
+  public int queueDepth(Priority priority) {
+    lock.lock();
+    try {
+      return queues.get(priority.ordinal()).size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Number of requests running on a crypto thread. */
+  public int inFlight() {
+    return inFlight.get();
+  }
+
+  public long completed() {
+    return completed.get();
+  }
+
+  public long rejected() {
+    return rejected.get();
+  }
+
+  /** Number of requests not run because their call was cancelled while they waited. */
+  public long cancelled() {
+    return cancelled.get();
+  }
+
+  public String stats() {
+    Formatter f = new Formatter();
+    f.format("queued=%d maxQueued=%d inFlight=%d completed=%d rejected=%d cancelled=%d avgMsecs=%d",
+            queueDepth(), maxQueueDepth.get(), inFlight(), completed(), rejected(), cancelled(), avgMsecs);
+    latencies.forEach((priority, latency) -> {
+      if (latency.count.get() > 0) {
+        f.format("; %s %s", priority, latency);
+      }
+    });
+    return f.toString();
+  }
+
+  /** Stop the threads, and fail the requests still waiting with UNAVAILABLE. */
+  public void shutdownNow() {
+    List<Task> dropped = new ArrayList<>();
+    lock.lock();
+    try {
+      shutdown = true;
+      queues.forEach(queue -> queue.drainTo(dropped));
+      nqueued = 0;
+      hasWork.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    threads.forEach(Thread::interrupt);
+    if (objectName != null) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+      } catch (JMException e) {
+        logger.atFine().log("%s counters not unregistered: %s", name, e.getMessage());
+      }
+    }
+    if (!dropped.isEmpty()) {
+      logger.atWarning().log("%s shut down with %d requests waiting", name, dropped.size());
+    }
+    for (Task task : dropped) {
+      task.fail(Status.UNAVAILABLE.withDescription(name + " shut down").asRuntimeException());
+    }
+  }
+
+  private static class Task {
+    final String tenant;
+    final String what;
+    final Runnable work;
+    @Nullable final Consumer<Throwable> onFailure;
+    final Priority priority;
+    final Context context = Context.current(); // of the call, so its cancellation and deadline are seen
+    final long queuedNanos = System.nanoTime();
+
+    Task(String tenant, String what, Runnable work, @Nullable Consumer<Throwable> onFailure, Priority priority) {
+      this.tenant = tenant;
+      this.what = what;
+      this.work = work;
+      this.onFailure = onFailure;
+      this.priority = priority;
+    }
+
+    void fail(Throwable t) {
+      if (onFailure == null) {
+        return;
+      }
+      try {
+        onFailure.accept(t);
+      } catch (RuntimeException e) {
+        // eg the call already completed or was cancelled
+        logger.atFine().withCause(e).log("%s failure not delivered", what);
+      }
+    }
+  }
+
+  /** The waiting tasks of one class; the tenants take turns, and each tenant's tasks are in order. */
+  private static class FairQueue {
+    // the tenants with waiting tasks, the next to be served first
+    private final LinkedHashMap<String, ArrayDeque<Task>> tenants = new LinkedHashMap<>();
+    private int size = 0;
+
+    void add(Task task) {
+      tenants.computeIfAbsent(task.tenant, t -> new ArrayDeque<>()).add(task);
+      size++;
+    }
+
+    @Nullable
+    Task peek() {
+      Iterator<ArrayDeque<Task>> first = tenants.values().iterator();
+      return first.hasNext() ? first.next().peek() : null;
+    }
+
+    /** The next tenant's first task; that tenant then goes to the back of the line. */
+    @Nullable
+    Task poll() {
+      Iterator<ArrayDeque<Task>> first = tenants.values().iterator();
+      if (!first.hasNext()) {
+        return null;
+      }
+      ArrayDeque<Task> tasks = first.next();
+      Task task = tasks.poll();
+      first.remove();
+      if (!tasks.isEmpty()) {
+        tenants.put(task.tenant, tasks);
+      }
+      size--;
+      return task;
+    }
+
+    int size() {
+      return size;
+    }
+
+    void drainTo(List<Task> dropped) {
+      tenants.values().forEach(dropped::addAll);
+      tenants.clear();
+      size = 0;
+    }
+  }
+
+  /** The time requests of one class waited, and ran. */
+  private static class Latency {
+    final AtomicLong count = new AtomicLong();
+    final AtomicLong totalWaitMsecs = new AtomicLong();
+    final AtomicLong totalRunMsecs = new AtomicLong();
+    final AtomicLong maxLatencyMsecs = new AtomicLong();
+
+    void add(long waitMsecs, long runMsecs) {
+      count.incrementAndGet();
+      totalWaitMsecs.addAndGet(waitMsecs);
+      totalRunMsecs.addAndGet(runMsecs);
+      maxLatencyMsecs.accumulateAndGet(waitMsecs + runMsecs, Math::max);
+    }
+
+    @Override
+    public String toString() {
+      long n = count.get();
+      return String.format("n=%d avgWaitMsecs=%d avgRunMsecs=%d maxLatencyMsecs=%d",
+              n, totalWaitMsecs.get() / n, totalRunMsecs.get() / n, maxLatencyMsecs.get());
+    }
+  }
+}
@@ -0,0 +1,130 @@
+package electionguard.util;
+
+import com.google.common.base.Preconditions;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.grpc.ConnectivityState;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.shaded.io.netty.channel.Channel;
+import io.grpc.netty.shaded.io.netty.channel.EventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.Epoll;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.nio.NioEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.socket.nio.NioSocketChannel;
+import io.grpc.netty.shaded.io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Utilities for the gRPC channels from the coordinators to the remote trustees, and back.
+ * <p>
+ * All channels made by forTarget() share one event loop group (epoll when the native transport is available, else nio)
+ * and one bounded executor, so the number of client threads doesnt grow with the number of trustees.
+ * Call configure() before the first channel is made to change the defaults.
+ */
+public class GrpcChannels {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+  // when a trustee isnt listening yet, try again after this long instead of waiting out the exponential backoff
+  private static final long RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private static Settings settings = Settings.DEFAULT;
+  private static EventLoopGroup eventLoopGroup; // made on first use
+  private static Class<? extends Channel> channelType;
+  private static ExecutorService executor;
+
+  /** The settings of the shared channels. */
+  public static class Settings {
+    public static final Settings DEFAULT = new Settings(
+            Math.min(4, Runtime.getRuntime().availableProcessors()),
+            2 * Runtime.getRuntime().availableProcessors(),
+            1024, 60, 51);
+
+    public final int eventLoopThreads;
+    public final int executorThreads;
+    public final int flowControlWindowKB;
+    public final int keepAliveSecs;
+    public final int maxMessageMB;
+
+    public Settings(int eventLoopThreads, int executorThreads, int flowControlWindowKB, int keepAliveSecs, int maxMessageMB) {
+      Preconditions.checkArgument(eventLoopThreads > 0 && executorThreads > 0, "thread counts must be > 0");
+      Preconditions.checkArgument(flowControlWindowKB > 0 && keepAliveSecs > 0 && maxMessageMB > 0);
+      this.eventLoopThreads = eventLoopThreads;
+      this.executorThreads = executorThreads;
+      this.flowControlWindowKB = flowControlWindowKB;
+      this.keepAliveSecs = keepAliveSecs;
+      this.maxMessageMB = maxMessageMB;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("eventLoopThreads=%d executorThreads=%d flowControlWindowKB=%d keepAliveSecs=%d maxMessageMB=%d",
+              eventLoopThreads, executorThreads, flowControlWindowKB, keepAliveSecs, maxMessageMB);
+    }
+  }
+
+  /** Change the settings; must be called before the first channel is made. */
+  public static synchronized void configure(Settings settings) {
+    Preconditions.checkState(eventLoopGroup == null, "GrpcChannels.configure must be called before the first channel is made");
+    GrpcChannels.settings = Preconditions.checkNotNull(settings);
+  }
+
+  /** A plaintext channel builder for the target, using the shared event loop group and executor. */
+  public static synchronized ManagedChannelBuilder<?> forTarget(String target) {
+    if (eventLoopGroup == null) {
+      // netty's own factory, as netty uses for its default event loop groups
+      DefaultThreadFactory loopThreads = new DefaultThreadFactory("grpc-client-loop", true);
+      if (Epoll.isAvailable()) {
+        eventLoopGroup = new EpollEventLoopGroup(settings.eventLoopThreads, loopThreads);
+        channelType = EpollSocketChannel.class;
+      } else {
+        eventLoopGroup = new NioEventLoopGroup(settings.eventLoopThreads, loopThreads);
+        channelType = NioSocketChannel.class;
+      }
+      executor = Executors.newFixedThreadPool(settings.executorThreads, new ThreadFactoryBuilder().setNameFormat("grpc-client-%d").setDaemon(true).build());
+      logger.atInfo().log("shared gRPC channels use %s with %s", channelType.getSimpleName(), settings);
+    }
+    return NettyChannelBuilder.forTarget(target)
+            .eventLoopGroup(eventLoopGroup)
+            .channelType(channelType)
+            .executor(executor)
+            .flowControlWindow(settings.flowControlWindowKB * 1024)
+            .keepAliveTime(settings.keepAliveSecs, TimeUnit.SECONDS)
+            .maxInboundMessageSize(settings.maxMessageMB * 1024 * 1024)
+            .usePlaintext();
+  }
+
+  /**
+   * Connect the channel if needed, and wait until it is READY.
+   * @return true if READY, false if the timeout expired or the channel was shut down.
+   */
+  public static boolean awaitReady(ManagedChannel channel, long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    ConnectivityState state = channel.getState(true);
+    while (state != ConnectivityState.READY) {
+      if (state == ConnectivityState.SHUTDOWN) {
+        return false;
+      }
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        return false;
+      }
+      CountDownLatch changed = new CountDownLatch(1);
+      channel.notifyWhenStateChanged(state, changed::countDown);
+      if (state == ConnectivityState.TRANSIENT_FAILURE) {
+        if (!changed.await(Math.min(remaining, RETRY_NANOS), TimeUnit.NANOSECONDS)) {
+          channel.resetConnectBackoff();
+        }
+      } else {
+        changed.await(remaining, TimeUnit.NANOSECONDS);
+      }
+      state = channel.getState(true);
+    }
+    return true;
+  }
+}
@@ -0,0 +1,63 @@
+package electionguard.util;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.ForwardingClientCall;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+
+/**
+ * The guardian id a coordinator's call is meant for, sent in the eg-guardian-id header, so that a host serving
+ * several trustees behind one port can route the call to the right one. A trustee serving only itself ignores it.
+ */
+public class GuardianRoute {
+  static final Metadata.Key<String> HEADER = Metadata.Key.of("eg-guardian-id", Metadata.ASCII_STRING_MARSHALLER);
+  private static final Context.Key<String> KEY = Context.keyWithDefault("eg-guardian-id", "");
+
+  private GuardianRoute() {}
+
+  /** The guardian id of the current call, or empty if the caller didnt send one. */
+  public static String current() {
+    return KEY.get();
+  }
+
+  /** Adds the eg-guardian-id header to each call. */
+  public static ClientInterceptor clientInterceptor(String guardianId) {
+    return new ClientInterceptor() {
+      @Override
+      public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method,
+                                                                 CallOptions callOptions, Channel next) {
+        return new ForwardingClientCall.SimpleForwardingClientCall<>(next.newCall(method, callOptions)) {
+          @Override
+          public void start(Listener<RespT> responseListener, Metadata headers) {
+            headers.put(HEADER, guardianId);
+            super.start(responseListener, headers);
+          }
+        };
+      }
+    };
+  }
+
+  /** Puts the guardian id from the eg-guardian-id header into the Context of each call. */
+  public static ServerInterceptor serverInterceptor() {
+    return new ServerInterceptor() {
+      @Override
+      public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                                   ServerCallHandler<ReqT, RespT> next) {
+        String guardianId = headers.get(HEADER);
+        if (guardianId == null) {
+          return next.startCall(call, headers);
+        }
+        Context context = Context.current().withValue(KEY, guardianId);
+        return Contexts.interceptCall(context, call, headers, next);
+      }
+    };
+  }
+}
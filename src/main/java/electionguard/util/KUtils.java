@@ -1,14 +1,57 @@
 package electionguard.util;
 
+import com.google.common.base.Preconditions;
 import electionguard.core.GroupContext;
 import electionguard.core.PowRadixOption;
+import electionguard.core.ProductionElementModQ;
+import electionguard.core.ProductionGroupContext;
 import electionguard.core.ProductionMode;
 
+import java.math.BigInteger;
+import java.util.concurrent.CompletableFuture;
 
 public class KUtils {
+  public static final PowRadixOption DEFAULT_POW_RADIX = PowRadixOption.LOW_MEMORY_USE;
+  public static final ProductionMode DEFAULT_PRODUCTION_MODE = ProductionMode.Mode4096;
 
-  public static GroupContext productionGroup() {
-    return electionguard.core.GroupKt.productionGroup(PowRadixOption.LOW_MEMORY_USE, ProductionMode.Mode4096);
+  private static PowRadixOption powRadixOption = DEFAULT_POW_RADIX;
+  private static ProductionMode productionMode = DEFAULT_PRODUCTION_MODE;
+  private static GroupContext group; // one for the process, made on first use
+
+  /**
+   * Choose the size of the fixed-base exponentiation tables, and the group, of this process's GroupContext.
+   * PowRadixBenchmark reports the memory and g^x rate of each option. The mode must match the election record's.
+   * Must be called before the first productionGroup().
+   */
+  public static synchronized void configureGroup(PowRadixOption powRadixOption, ProductionMode productionMode) {
+    Preconditions.checkState(group == null, "KUtils.configureGroup must be called before the first productionGroup()");
+    KUtils.powRadixOption = Preconditions.checkNotNull(powRadixOption);
+    KUtils.productionMode = Preconditions.checkNotNull(productionMode);
+  }
+
+  /** The GroupContext of this process. */
+  public static synchronized GroupContext productionGroup() {
+    if (group == null) {
+      group = electionguard.core.GroupKt.productionGroup(powRadixOption, productionMode);
+    }
+    return group;
+  }
+
+  /**
+   * Make this process's GroupContext on a background thread, and use its g^x tables once so any built on first use
+   * are built there. The caller may do work that doesnt need the group, like registering, and must join the future
+   * before making anything that uses the group, so that a failure is seen there.
+   */
+  public static CompletableFuture<GroupContext> warmUpGroup() {
+    return CompletableFuture.supplyAsync(() -> {
+      GroupContext warm = productionGroup();
+      warm.gPowP(new ProductionElementModQ(BigInteger.TWO.pow(254).subtract(BigInteger.ONE), (ProductionGroupContext) warm));
+      return warm;
+    }, work -> {
+      Thread thread = new Thread(work, "group-warmup");
+      thread.setDaemon(true);
+      thread.start();
+    });
   }
 
 }
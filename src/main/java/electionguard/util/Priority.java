@@ -0,0 +1,78 @@
+package electionguard.util;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.ForwardingClientCall;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+
+/**
+ * The priority class of the work a coordinator asks of a trustee, highest first.
+ * The class is carried in the gRPC Context on the coordinator, sent in the eg-priority header,
+ * and put back in the Context on the trustee, where CryptoExecutor serves the higher classes first.
+ * Work that isnt tagged is TALLY.
+ */
+public enum Priority {
+  TALLY, SPOILED;
+
+  static final Metadata.Key<String> HEADER = Metadata.Key.of("eg-priority", Metadata.ASCII_STRING_MARSHALLER);
+  private static final Context.Key<Priority> KEY = Context.keyWithDefault("eg-priority", TALLY);
+
+  /** The priority of the current Context. */
+  public static Priority current() {
+    return KEY.get();
+  }
+
+  /** Run the work, and everything it starts with the current Context, at this priority. */
+  public Runnable wrap(Runnable work) {
+    return Context.current().withValue(KEY, this).wrap(work);
+  }
+
+  /** Adds the eg-priority header to each call, from the Context the call was started in. */
+  public static ClientInterceptor clientInterceptor() {
+    return new ClientInterceptor() {
+      @Override
+      public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method,
+                                                                 CallOptions callOptions, Channel next) {
+        Priority priority = current();
+        return new ForwardingClientCall.SimpleForwardingClientCall<>(next.newCall(method, callOptions)) {
+          @Override
+          public void start(Listener<RespT> responseListener, Metadata headers) {
+            headers.put(HEADER, priority.name());
+            super.start(responseListener, headers);
+          }
+        };
+      }
+    };
+  }
+
+  /** Puts the priority from the eg-priority header into the Context of each call. */
+  public static ServerInterceptor serverInterceptor() {
+    return new ServerInterceptor() {
+      @Override
+      public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                                   ServerCallHandler<ReqT, RespT> next) {
+        Context context = Context.current().withValue(KEY, parse(headers.get(HEADER)));
+        return Contexts.interceptCall(context, call, headers, next);
+      }
+    };
+  }
+
+  private static Priority parse(String value) {
+    if (value != null) {
+      for (Priority priority : values()) {
+        if (priority.name().equals(value)) {
+          return priority;
+        }
+      }
+    }
+    return TALLY;
+  }
+}
@@ -0,0 +1,180 @@
+package electionguard.util;
+
+import com.google.common.base.Preconditions;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import io.grpc.Deadline;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Deadlines and retries for the calls from a coordinator to a remote trustee.
+ * <p>
+ * The deadline of a call is baseDeadline plus msecsPerItem for each item (eg text) in it.
+ * A call that fails with a transient status is retried up to maxAttempts, with exponential backoff and jitter.
+ * A call that changes the trustee's state should carry an idempotency id, so the trustee can answer a retry from the
+ * first attempt.
+ * <p>
+ * A hedged call sends a second attempt, on another connection to the same trustee, if the first hasnt returned after a
+ * quarter of the deadline, and takes whichever answers first. Both attempts carry the same idempotency id, so the
+ * trustee computes the answer once; the second wins when the first connection has stalled.
+ * <p>
+ * RESOURCE_EXHAUSTED is retried only when the trustee sent a retry-after-ms trailer, see CryptoExecutor; without one,
+ * it is a local error such as a message too large, which a retry cant fix.
+ */
+public class RpcPolicy {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+  private static final Random random = new Random();
+  private static final Set<Status.Code> TRANSIENT = EnumSet.of(
+          Status.Code.UNAVAILABLE, Status.Code.DEADLINE_EXCEEDED, Status.Code.ABORTED);
+
+  public static final RpcPolicy DEFAULT = new RpcPolicy(30, 100, 4);
+
+  private final long baseDeadlineMsecs;
+  private final long msecsPerItem;
+  private final int maxAttempts;
+  private final long initialBackoffMsecs = 200;
+  private final long maxBackoffMsecs = 10_000;
+
+  public RpcPolicy(int baseDeadlineSecs, int msecsPerItem, int maxAttempts) {
+    Preconditions.checkArgument(baseDeadlineSecs > 0 && msecsPerItem >= 0 && maxAttempts > 0);
+    this.baseDeadlineMsecs = TimeUnit.SECONDS.toMillis(baseDeadlineSecs);
+    this.msecsPerItem = msecsPerItem;
+    this.maxAttempts = maxAttempts;
+  }
+
+  /** The deadline for a call with nitems items in it. */
+  public Deadline deadline(int nitems) {
+    return Deadline.after(deadlineMsecs(nitems), TimeUnit.MILLISECONDS);
+  }
+
+  /** A deadline by which call() will have made all its attempts, including the backoffs between them. */
+  public Deadline callDeadline(int nitems) {
+    return Deadline.after(maxAttempts * deadlineMsecs(nitems) + (maxAttempts - 1) * maxBackoffMsecs, TimeUnit.MILLISECONDS);
+  }
+
+  private long deadlineMsecs(int nitems) {
+    return baseDeadlineMsecs + msecsPerItem * nitems;
+  }
+
+  public static boolean isTransient(StatusRuntimeException e) {
+    Status.Code code = e.getStatus().getCode();
+    if (code == Status.Code.RESOURCE_EXHAUSTED) {
+      return CryptoExecutor.retryAfterMsecs(e) > 0;
+    }
+    return TRANSIENT.contains(code);
+  }
+
+  /**
+   * Make a blocking call, retrying on a transient status.
+   * @param attempt makes one attempt with the given deadline
+   * @throws StatusRuntimeException from the last attempt
+   */
+  public <T> T call(String what, int nitems, Function<Deadline, T> attempt) {
+    for (int n = 1; ; n++) {
+      try {
+        return attempt.apply(deadline(nitems));
+      } catch (StatusRuntimeException e) {
+        if (!isTransient(e) || n >= maxAttempts) {
+          throw e;
+        }
+        backoff(what, n, e);
+      }
+    }
+  }
+
+  /**
+   * Make a hedged call, retrying on a transient status.
+   * @param attempt starts the first attempt with the given deadline
+   * @param hedge starts the second attempt with the given deadline, on another connection, with the same idempotency id
+   * @throws StatusRuntimeException from the last attempt
+   */
+  public <T> T callHedged(String what, int nitems, Function<Deadline, ListenableFuture<T>> attempt,
+                          Function<Deadline, ListenableFuture<T>> hedge) {
+    for (int n = 1; ; n++) {
+      try {
+        return hedged(what, nitems, attempt, hedge);
+      } catch (StatusRuntimeException e) {
+        if (!isTransient(e) || n >= maxAttempts) {
+          throw e;
+        }
+        backoff(what, n, e);
+      }
+    }
+  }
+
+  private <T> T hedged(String what, int nitems, Function<Deadline, ListenableFuture<T>> attempt,
+                       Function<Deadline, ListenableFuture<T>> hedge) {
+    ListenableFuture<T> first = attempt.apply(deadline(nitems));
+    ListenableFuture<T> second = null;
+    try {
+      try {
+        return first.get(deadlineMsecs(nitems) / 4, TimeUnit.MILLISECONDS);
+      } catch (TimeoutException e) {
+        logger.atInfo().log("%s slow, sending a hedged request", what);
+      }
+      second = hedge.apply(deadline(nitems));
+      return firstSuccess(first, second).get();
+
+    } catch (ExecutionException e) {
+      throw Status.fromThrowable(e.getCause()).asRuntimeException(Status.trailersFromThrowable(e.getCause()));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw Status.CANCELLED.withDescription("interrupted").asRuntimeException();
+    } finally {
+      first.cancel(true);
+      if (second != null) {
+        second.cancel(true);
+      }
+    }
+  }
+
+  /** Succeeds with the first to succeed, or fails with the last to fail. */
+  private static <T> ListenableFuture<T> firstSuccess(ListenableFuture<T> first, ListenableFuture<T> second) {
+    SettableFuture<T> result = SettableFuture.create();
+    AtomicInteger failures = new AtomicInteger();
+    FutureCallback<T> callback = new FutureCallback<>() {
+      @Override
+      public void onSuccess(T value) {
+        result.set(value);
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        if (failures.incrementAndGet() == 2) {
+          result.setException(t);
+        }
+      }
+    };
+    Futures.addCallback(first, callback, MoreExecutors.directExecutor());
+    Futures.addCallback(second, callback, MoreExecutors.directExecutor());
+    return result;
+  }
+
+  private void backoff(String what, int n, StatusRuntimeException e) {
+    long backoff = Math.min(maxBackoffMsecs, initialBackoffMsecs << (n - 1));
+    long sleep = backoff / 2 + (long) (random.nextDouble() * backoff / 2);
+    // a busy trustee says when it expects to have room, see CryptoExecutor
+    sleep = Math.max(sleep, Math.min(maxBackoffMsecs, CryptoExecutor.retryAfterMsecs(e)));
+    logger.atWarning().log("%s failed attempt %d with %s, retrying in %d ms", what, n, e.getStatus().getCode(), sleep);
+    try {
+      Thread.sleep(sleep);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw e;
+    }
+  }
+}
@@ -0,0 +1,127 @@
+package electionguard.decrypt;
+
+import electionguard.core.ElGamalCiphertext;
+import electionguard.core.ElementModQ;
+import electionguard.core.GroupContext;
+import electionguard.util.RpcPolicy;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+import static electionguard.util.KUtils.productionGroup;
+import static electionguard.util.RandomCiphertexts.randomCiphertexts;
+import static electionguard.util.RandomCiphertexts.randomElementModQ;
+
+/** The directDecryptStream and compensatedDecryptStream calls, between a proxy and a trustee in-process. */
+public class DecryptStreamTest {
+  private static final GroupContext group = productionGroup();
+  private static final int CHUNK_SIZE = 5;
+
+  private final ElementModQ hash = randomElementModQ(group);
+  private FakeDecryptingTrustee fake;
+  private RunRemoteDecryptingTrustee trustee;
+  private Server server;
+  private RemoteDecryptingTrusteeProxy proxy;
+
+  private RemoteDecryptingTrusteeProxy start(boolean packed, RpcPolicy rpcPolicy) throws IOException {
+    String name = InProcessServerBuilder.generateName();
+    fake = new FakeDecryptingTrustee(group, "trustee1", 1);
+    trustee = new RunRemoteDecryptingTrustee(group, fake, 1);
+    server = InProcessServerBuilder.forName(name).addService(trustee).build().start();
+    ManagedChannel channel = InProcessChannelBuilder.forName(name).build();
+    proxy = RemoteDecryptingTrusteeProxy.builder()
+            .setTrusteeId(fake.id())
+            .setChannel(channel)
+            .setXCoordinate(fake.xCoordinate())
+            .setElectionPublicKey(fake.electionPublicKey())
+            .setChunkSize(CHUNK_SIZE)
+            .setPackedEncoding(packed)
+            .setRpcPolicy(rpcPolicy)
+            .build();
+    return proxy;
+  }
+
+  @AfterEach
+  public void stop() throws InterruptedException {
+    if (fake != null) {
+      fake.release.countDown();
+    }
+    if (proxy != null) {
+      proxy.shutdown();
+    }
+    if (server != null) {
+      server.shutdownNow().awaitTermination();
+    }
+    if (trustee != null) {
+      trustee.stopit();
+    }
+  }
+
+  @Test
+  public void testSeveralChunks() throws IOException {
+    checkSeveralChunks(false);
+  }
+
+  @Test
+  public void testSeveralPackedChunks() throws IOException {
+    checkSeveralChunks(true);
+  }
+
+  private void checkSeveralChunks(boolean packed) throws IOException {
+    start(packed, RpcPolicy.DEFAULT);
+    List<ElGamalCiphertext> texts = randomCiphertexts(group, 4 * CHUNK_SIZE + 3);
+
+    List<DirectDecryptionAndProof> direct = proxy.directDecrypt(group, texts, hash, null);
+    assertThat(direct).hasSize(texts.size());
+    for (int i = 0; i < texts.size(); i++) {
+      assertThat(direct.get(i).getPartialDecryption()).isEqualTo(texts.get(i).getPad());
+    }
+    // one chunk at a time, since the trustee only asks for the next chunk once the last is answered
+    assertThat(fake.ncalls.get()).isEqualTo(5);
+    assertThat(fake.maxRunning.get()).isEqualTo(1);
+
+    List<CompensatedDecryptionAndProof> compensated = proxy.compensatedDecrypt(group, "missing1", texts, hash, null);
+    assertThat(compensated).hasSize(texts.size());
+    for (int i = 0; i < texts.size(); i++) {
+      assertThat(compensated.get(i).getPartialDecryption()).isEqualTo(texts.get(i).getData());
+      assertThat(compensated.get(i).getRecoveredPublicKeyShare()).isEqualTo(texts.get(i).getPad());
+    }
+    assertThat(fake.ncalls.get()).isEqualTo(10);
+    assertThat(fake.maxRunning.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void testErrorChunkCancelsStream() throws IOException, InterruptedException {
+    start(false, RpcPolicy.DEFAULT);
+    List<ElGamalCiphertext> texts = randomCiphertexts(group, 4 * CHUNK_SIZE + 3);
+    fake.poisoned.add(texts.get(CHUNK_SIZE + 2)); // the second chunk fails
+    fake.blocking.add(texts.get(2 * CHUNK_SIZE)); // and the third waits, in case it was asked for before the cancel
+
+    assertThat(proxy.directDecrypt(group, texts, hash, null)).isEmpty();
+    Thread.sleep(200); // let the cancel reach the trustee
+    fake.release.countDown();
+    Thread.sleep(200);
+    // the rest of the stream was never asked for
+    assertThat(fake.ncalls.get()).isAtMost(3);
+  }
+
+  @Test
+  public void testDeadlineCancelsStream() throws IOException, InterruptedException {
+    start(false, new RpcPolicy(1, 0, 1));
+    List<ElGamalCiphertext> texts = randomCiphertexts(group, 4 * CHUNK_SIZE + 3);
+    fake.blocking.add(texts.get(CHUNK_SIZE)); // the second chunk outlasts the deadline
+
+    assertThat(proxy.directDecrypt(group, texts, hash, null)).isEmpty();
+    Thread.sleep(200); // let the cancel reach the trustee
+    fake.release.countDown();
+    Thread.sleep(200);
+    assertThat(fake.ncalls.get()).isEqualTo(2);
+  }
+}
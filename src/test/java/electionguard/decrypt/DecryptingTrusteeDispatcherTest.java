@@ -0,0 +1,132 @@
+package electionguard.decrypt;
+
+import electionguard.core.ElGamalCiphertext;
+import electionguard.core.ElementModQ;
+import electionguard.core.GroupContext;
+import electionguard.util.RpcPolicy;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.google.common.truth.Truth.assertThat;
+import static electionguard.util.KUtils.productionGroup;
+import static electionguard.util.RandomCiphertexts.randomCiphertexts;
+import static electionguard.util.RandomCiphertexts.randomElementModQ;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/** The dispatcher over fake trustees in-process, with the Decryption engine's calls made by hand. */
+public class DecryptingTrusteeDispatcherTest {
+  private static final GroupContext group = productionGroup();
+  private static final List<String> MISSING = List.of("missing1");
+
+  private final ElementModQ hash = randomElementModQ(group);
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private List<FakeDecryptingTrustee> fakes;
+  private InProcessTrustees inProcess;
+  private DecryptingTrusteeDispatcher dispatcher;
+
+  @BeforeEach
+  public void start() throws IOException {
+    fakes = List.of(new FakeDecryptingTrustee(group, "trustee1", 1),
+            new FakeDecryptingTrustee(group, "trustee2", 2),
+            new FakeDecryptingTrustee(group, "trustee3", 3));
+    inProcess = new InProcessTrustees(group, fakes, 100, RpcPolicy.DEFAULT);
+    dispatcher = new DecryptingTrusteeDispatcher(inProcess.proxies, MISSING, executor, hash, Map.of());
+  }
+
+  @AfterEach
+  public void stop() throws InterruptedException {
+    fakes.forEach(fake -> fake.release.countDown());
+    inProcess.close();
+    executor.shutdownNow();
+  }
+
+  /** What the engine does: ask each trustee in turn for its direct and compensated decryptions. */
+  private boolean decryptAll(List<ElGamalCiphertext> texts) {
+    boolean ok = true;
+    for (DecryptingTrusteeIF trustee : dispatcher.trustees()) {
+      ok &= trustee.directDecrypt(group, texts, hash, null).size() == texts.size();
+      ok &= trustee.compensatedDecrypt(group, MISSING.get(0), texts, hash, null).size() == texts.size();
+    }
+    return ok;
+  }
+
+  @Test
+  public void testOneCallPerTrustee() {
+    List<ElGamalCiphertext> texts = randomCiphertexts(group, 10);
+    assertThat(dispatcher.call(() -> decryptAll(texts))).isTrue();
+    // one decryptAll for the direct and compensated decryption, sent to each trustee once
+    for (FakeDecryptingTrustee fake : fakes) {
+      assertThat(fake.ntexts.get()).isEqualTo(2 * texts.size());
+    }
+    assertThat(dispatcher.pendingCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testEngineStopsPartway() {
+    List<ElGamalCiphertext> texts = randomCiphertexts(group, 10);
+    List<DirectDecryptionAndProof> first = dispatcher.call(() ->
+            dispatcher.trustees().get(0).directDecrypt(group, texts, hash, null));
+    assertThat(first).hasSize(texts.size());
+    assertThat(dispatcher.pendingCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testEngineThrows() {
+    List<ElGamalCiphertext> texts = randomCiphertexts(group, 10);
+    assertThrows(IllegalStateException.class, () -> dispatcher.call(() -> {
+      dispatcher.trustees().get(0).directDecrypt(group, texts, hash, null);
+      throw new IllegalStateException("engine failed");
+    }));
+    assertThat(dispatcher.pendingCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testTrusteeFails() {
+    List<ElGamalCiphertext> texts = randomCiphertexts(group, 10);
+    fakes.get(1).poisoned.add(texts.get(3));
+    assertThat(dispatcher.call(() -> decryptAll(texts))).isFalse();
+    assertThat(dispatcher.pendingCount()).isEqualTo(0);
+
+    // the next texts arent affected
+    List<ElGamalCiphertext> more = randomCiphertexts(group, 10);
+    assertThat(dispatcher.call(() -> decryptAll(more))).isTrue();
+    assertThat(dispatcher.pendingCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testUnknownMissingGuardian() {
+    List<ElGamalCiphertext> texts = randomCiphertexts(group, 10);
+    List<CompensatedDecryptionAndProof> result = dispatcher.call(() ->
+            dispatcher.trustees().get(0).compensatedDecrypt(group, "missing2", texts, hash, null));
+    assertThat(result).hasSize(texts.size());
+    assertThat(dispatcher.pendingCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testPrefetchTurnedOffAfterMisses() {
+    List<List<ElGamalCiphertext>> ballots = List.of(randomCiphertexts(group, 4), randomCiphertexts(group, 5));
+    try (DecryptingTrusteeDispatcher.Batch batch = dispatcher.prefetch(group, ballots)) {
+      assertThat(dispatcher.pendingCount()).isEqualTo(2);
+      assertThat(dispatcher.call(() -> decryptAll(ballots.get(0)))).isTrue();
+      // the engine asks for texts other than the second ballot's
+      assertThat(dispatcher.call(() -> decryptAll(ballots.get(1).subList(0, 4)))).isTrue();
+    }
+    assertThat(dispatcher.prefetchHits()).isEqualTo(1);
+    assertThat(dispatcher.prefetchMisses()).isEqualTo(1);
+    assertThat(dispatcher.pendingCount()).isEqualTo(0);
+
+    // so the next batch isnt sent
+    int ntexts = fakes.get(0).ntexts.get();
+    try (DecryptingTrusteeDispatcher.Batch batch = dispatcher.prefetch(group, List.of(randomCiphertexts(group, 3)))) {
+      assertThat(dispatcher.pendingCount()).isEqualTo(0);
+    }
+    assertThat(fakes.get(0).ntexts.get()).isEqualTo(ntexts);
+  }
+}
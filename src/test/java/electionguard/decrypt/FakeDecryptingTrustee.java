@@ -0,0 +1,99 @@
+package electionguard.decrypt;
+
+import electionguard.core.ElGamalCiphertext;
+import electionguard.core.ElementModP;
+import electionguard.core.ElementModQ;
+import electionguard.core.GenericChaumPedersenProof;
+import electionguard.core.GroupContext;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static electionguard.util.RandomCiphertexts.randomElementModQ;
+
+/**
+ * A DecryptingTrusteeIF for tests, that does no crypto. The partial decryption of a text is its pad, and the
+ * compensated decryption is its data, so the results can be matched to the texts.
+ * A call with a poisoned text throws; a call with a blocking text waits until released.
+ */
+class FakeDecryptingTrustee implements DecryptingTrusteeIF {
+  private final String id;
+  private final int xCoordinate;
+  private final GroupContext group;
+  private final GenericChaumPedersenProof proof;
+  final Set<ElGamalCiphertext> poisoned = ConcurrentHashMap.newKeySet();
+  final Set<ElGamalCiphertext> blocking = ConcurrentHashMap.newKeySet();
+  final CountDownLatch release = new CountDownLatch(1);
+  final AtomicInteger ncalls = new AtomicInteger();
+  final AtomicInteger ntexts = new AtomicInteger();
+  final AtomicInteger running = new AtomicInteger();
+  final AtomicInteger maxRunning = new AtomicInteger();
+
+  FakeDecryptingTrustee(GroupContext group, String id, int xCoordinate) {
+    this.id = id;
+    this.xCoordinate = xCoordinate;
+    this.group = group;
+    this.proof = new GenericChaumPedersenProof(randomElementModQ(group), randomElementModQ(group));
+  }
+
+  @Override
+  public String id() {
+    return id;
+  }
+
+  @Override
+  public int xCoordinate() {
+    return xCoordinate;
+  }
+
+  @Override
+  public ElementModP electionPublicKey() {
+    return group.getG_MOD_P();
+  }
+
+  @Override
+  public List<DirectDecryptionAndProof> directDecrypt(
+          GroupContext group,
+          List<ElGamalCiphertext> texts,
+          ElementModQ extendedBaseHash,
+          @Nullable ElementModQ nonce) {
+    call(texts);
+    return texts.stream().map(text -> new DirectDecryptionAndProof(text.getPad(), proof)).toList();
+  }
+
+  @Override
+  public List<CompensatedDecryptionAndProof> compensatedDecrypt(
+          GroupContext group,
+          String missingGuardianId,
+          List<ElGamalCiphertext> texts,
+          ElementModQ extendedBaseHash,
+          @Nullable ElementModQ nonce) {
+    call(texts);
+    return texts.stream().map(text -> new CompensatedDecryptionAndProof(text.getData(), proof, text.getPad())).toList();
+  }
+
+  private void call(List<ElGamalCiphertext> texts) {
+    ncalls.incrementAndGet();
+    ntexts.addAndGet(texts.size());
+    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+    try {
+      if (texts.stream().anyMatch(poisoned::contains)) {
+        throw new IllegalArgumentException("poisoned text");
+      }
+      if (texts.stream().anyMatch(blocking::contains)) {
+        try {
+          release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    } finally {
+      running.decrementAndGet();
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package electionguard.decrypt;
+
+import electionguard.core.GroupContext;
+import electionguard.util.RpcPolicy;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Each DecryptingTrusteeIF served by a RunRemoteDecryptingTrustee in-process, with a proxy to it. */
+class InProcessTrustees implements AutoCloseable {
+  private final List<RunRemoteDecryptingTrustee> trustees = new ArrayList<>();
+  private final List<Server> servers = new ArrayList<>();
+  final List<RemoteDecryptingTrusteeProxy> proxies = new ArrayList<>();
+
+  InProcessTrustees(GroupContext group, List<? extends DecryptingTrusteeIF> delegates, int chunkSize, RpcPolicy rpcPolicy)
+          throws IOException {
+    for (DecryptingTrusteeIF delegate : delegates) {
+      String name = InProcessServerBuilder.generateName();
+      RunRemoteDecryptingTrustee trustee = new RunRemoteDecryptingTrustee(group, delegate, 2);
+      trustees.add(trustee);
+      servers.add(InProcessServerBuilder.forName(name).addService(trustee).build().start());
+      proxies.add(RemoteDecryptingTrusteeProxy.builder()
+              .setTrusteeId(delegate.id())
+              .setChannel(InProcessChannelBuilder.forName(name).build())
+              .setXCoordinate(delegate.xCoordinate())
+              .setElectionPublicKey(delegate.electionPublicKey())
+              .setChunkSize(chunkSize)
+              .setPackedEncoding(true)
+              .setRpcPolicy(rpcPolicy)
+              .build());
+    }
+  }
+
+  @Override
+  public void close() throws InterruptedException {
+    proxies.forEach(RemoteDecryptingTrusteeProxy::shutdown);
+    for (Server server : servers) {
+      server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    }
+    for (RunRemoteDecryptingTrustee trustee : trustees) {
+      trustee.stopit();
+    }
+  }
+}
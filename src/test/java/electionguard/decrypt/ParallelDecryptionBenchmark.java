@@ -0,0 +1,113 @@
+package electionguard.decrypt;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+import com.google.common.base.Stopwatch;
+import electionguard.core.GroupContext;
+import electionguard.protogen2.CommonProto;
+import electionguard.util.ConvertCommonProto;
+import electionguard.util.CryptoExecutor;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static electionguard.publish.ReaderKt.readTrustee;
+import static electionguard.util.KUtils.productionGroup;
+import static electionguard.util.RandomCiphertexts.randomCiphertexts;
+import static electionguard.util.RandomCiphertexts.randomElementModQ;
+
+/**
+ * Measures RunRemoteDecryptingTrustee partial decryption throughput as the number of compute threads goes from 1 to N.
+ * Runs in process, without gRPC.
+ */
+public class ParallelDecryptionBenchmark {
+
+  private static class CommandLine {
+    @Parameter(names = {"-trusteeFile"}, order = 0, description = "location of serialized trustee file", required = true)
+    String trusteeFile;
+
+    @Parameter(names = {"-ntexts"}, order = 1, description = "Number of ciphertexts to decrypt")
+    int ntexts = 1000;
+
+    @Parameter(names = {"-maxThreads"}, order = 2, description = "Maximum number of threads")
+    int maxThreads = Runtime.getRuntime().availableProcessors();
+
+    @Parameter(names = {"-h", "--help"}, order = 99, description = "Display this help and exit", help = true)
+    boolean help = false;
+
+    private final JCommander jc;
+
+    public CommandLine(String progName, String[] args) throws ParameterException {
+      this.jc = new JCommander(this);
+      this.jc.parse(args);
+      jc.setProgramName(String.format("java -classpath electionguard-remote-all.jar %s", progName));
+    }
+
+    public void printUsage() {
+      jc.usage();
+    }
+  }
+
+  public static void main(String[] args) {
+    String progName = ParallelDecryptionBenchmark.class.getName();
+    CommandLine cmdLine;
+    try {
+      cmdLine = new CommandLine(progName, args);
+      if (cmdLine.help) {
+        cmdLine.printUsage();
+        return;
+      }
+    } catch (ParameterException e) {
+      System.err.println(e.getMessage());
+      System.err.printf("Try '%s --help' for more information.%n", progName);
+      return;
+    }
+
+    GroupContext group = productionGroup();
+    DecryptingTrustee delegate = readTrustee(group, cmdLine.trusteeFile);
+    List<CommonProto.ElGamalCiphertext> texts = randomCiphertexts(group, cmdLine.ntexts).stream()
+            .map(ConvertCommonProto::publishCiphertext)
+            .toList();
+    CommonProto.ElementModQ hash = ConvertCommonProto.publishElementModQ(randomElementModQ(group));
+
+    // warm up
+    run(group, delegate, 1, hash, texts.subList(0, Math.min(20, texts.size())));
+
+    System.out.printf("%8s %10s %12s %8s%n", "nthreads", "msecs", "texts/sec", "speedup");
+    double base = 0;
+    for (int nthreads = 1; nthreads <= cmdLine.maxThreads; nthreads = nextThreads(nthreads, cmdLine.maxThreads)) {
+      long msecs = run(group, delegate, nthreads, hash, texts);
+      double perSec = 1000.0 * texts.size() / msecs;
+      if (nthreads == 1) {
+        base = perSec;
+      }
+      System.out.printf("%8d %10d %12.1f %8.2f%n", nthreads, msecs, perSec, perSec / base);
+    }
+    System.exit(0);
+  }
+
+  /** Decrypt the texts on a trustee with its own pools of nthreads, and return the msecs it took. */
+  private static long run(GroupContext group, DecryptingTrustee delegate, int nthreads,
+                          CommonProto.ElementModQ hash, List<CommonProto.ElGamalCiphertext> texts) {
+    ExecutorService computePool = Executors.newFixedThreadPool(nthreads);
+    CryptoExecutor cryptoExecutor = new CryptoExecutor("benchmark", RunRemoteDecryptingTrustee.DEFAULT_MAX_BATCHES,
+            RunRemoteDecryptingTrustee.DEFAULT_MAX_QUEUED);
+    try {
+      RunRemoteDecryptingTrustee trustee = new RunRemoteDecryptingTrustee(group, delegate, nthreads, computePool, cryptoExecutor);
+      Stopwatch stopwatch = Stopwatch.createStarted();
+      trustee.directDecrypt(hash, texts);
+      return Math.max(1, stopwatch.elapsed(TimeUnit.MILLISECONDS));
+    } finally {
+      computePool.shutdownNow();
+      cryptoExecutor.shutdownNow();
+    }
+  }
+
+  // 1, 2, 4, ... and always finish with max
+  static int nextThreads(int nthreads, int max) {
+    return (nthreads == max) ? max + 1 : Math.min(2 * nthreads, max);
+  }
+}
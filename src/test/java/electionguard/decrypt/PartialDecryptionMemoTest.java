@@ -0,0 +1,127 @@
+package electionguard.decrypt;
+
+import com.google.protobuf.ByteString;
+import electionguard.core.ElGamalCiphertext;
+import electionguard.core.ElementModQ;
+import electionguard.core.GenericChaumPedersenProof;
+import electionguard.core.GroupContext;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+import static electionguard.util.KUtils.productionGroup;
+import static electionguard.util.RandomCiphertexts.randomCiphertexts;
+import static electionguard.util.RandomCiphertexts.randomElementModQ;
+
+public class PartialDecryptionMemoTest {
+  private static final GroupContext group = productionGroup();
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  public void testReopen() throws IOException {
+    Path path = tempDir.resolve("memo.dat");
+    ElementModQ hash = randomElementModQ(group);
+    List<ElGamalCiphertext> texts = randomCiphertexts(group, 3);
+    DirectDecryptionAndProof direct = randomDirect();
+    CompensatedDecryptionAndProof compensated = randomCompensated();
+
+    try (PartialDecryptionMemo memo = new PartialDecryptionMemo(group, path, 1 << 20)) {
+      memo.putDirect(PartialDecryptionMemo.key(hash, texts.get(0), null), direct);
+      memo.putCompensated(PartialDecryptionMemo.key(hash, texts.get(1), "guardian2"), compensated);
+    }
+
+    try (PartialDecryptionMemo memo = new PartialDecryptionMemo(group, path, 1 << 20)) {
+      assertThat(memo.getDirect(PartialDecryptionMemo.key(hash, texts.get(0), null))).isEqualTo(direct);
+      assertThat(memo.getCompensated(PartialDecryptionMemo.key(hash, texts.get(1), "guardian2"))).isEqualTo(compensated);
+      // different missing guardian, different text
+      assertThat(memo.getCompensated(PartialDecryptionMemo.key(hash, texts.get(1), "guardian3"))).isNull();
+      assertThat(memo.getDirect(PartialDecryptionMemo.key(hash, texts.get(2), null))).isNull();
+    }
+  }
+
+  @Test
+  public void testTornRecordIsDropped() throws IOException {
+    Path path = tempDir.resolve("memo.dat");
+    ElementModQ hash = randomElementModQ(group);
+    List<ElGamalCiphertext> texts = randomCiphertexts(group, 2);
+    try (PartialDecryptionMemo memo = new PartialDecryptionMemo(group, path, 1 << 20)) {
+      memo.putDirect(PartialDecryptionMemo.key(hash, texts.get(0), null), randomDirect());
+      memo.putDirect(PartialDecryptionMemo.key(hash, texts.get(1), null), randomDirect());
+    }
+    long size = Files.size(path);
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+      channel.truncate(size - 10);
+    }
+
+    try (PartialDecryptionMemo memo = new PartialDecryptionMemo(group, path, 1 << 20)) {
+      assertThat(memo.getDirect(PartialDecryptionMemo.key(hash, texts.get(0), null))).isNotNull();
+      assertThat(memo.getDirect(PartialDecryptionMemo.key(hash, texts.get(1), null))).isNull();
+    }
+    assertThat(Files.size(path)).isLessThan(size - 10);
+  }
+
+  @Test
+  public void testCorruptRecordIsSkipped() throws IOException {
+    Path path = tempDir.resolve("memo.dat");
+    ElementModQ hash = randomElementModQ(group);
+    List<ElGamalCiphertext> texts = randomCiphertexts(group, 3);
+    try (PartialDecryptionMemo memo = new PartialDecryptionMemo(group, path, 1 << 20)) {
+      for (ElGamalCiphertext text : texts) {
+        memo.putDirect(PartialDecryptionMemo.key(hash, text, null), randomDirect());
+      }
+    }
+    long size = Files.size(path);
+    long recordSize = size / 3;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      ByteBuffer one = ByteBuffer.allocate(1);
+      channel.read(one, recordSize + 100);
+      one.put(0, (byte) (one.get(0) ^ 0xff)).rewind();
+      channel.write(one, recordSize + 100);
+    }
+
+    try (PartialDecryptionMemo memo = new PartialDecryptionMemo(group, path, 1 << 20)) {
+      assertThat(memo.getDirect(PartialDecryptionMemo.key(hash, texts.get(0), null))).isNotNull();
+      assertThat(memo.getDirect(PartialDecryptionMemo.key(hash, texts.get(1), null))).isNull();
+      assertThat(memo.getDirect(PartialDecryptionMemo.key(hash, texts.get(2), null))).isNotNull();
+    }
+    assertThat(Files.size(path)).isEqualTo(size);
+  }
+
+  @Test
+  public void testCompactionKeepsNewest() throws IOException {
+    Path path = tempDir.resolve("memo.dat");
+    ElementModQ hash = randomElementModQ(group);
+    List<ElGamalCiphertext> texts = randomCiphertexts(group, 20);
+    List<ByteString> keys = texts.stream().map(t -> PartialDecryptionMemo.key(hash, t, null)).toList();
+    long maxBytes = 10 * 620; // about 10 direct records
+    try (PartialDecryptionMemo memo = new PartialDecryptionMemo(group, path, maxBytes)) {
+      for (ByteString key : keys) {
+        memo.putDirect(key, randomDirect());
+      }
+      assertThat(Files.size(path)).isAtMost(maxBytes);
+      assertThat(memo.getDirect(keys.get(0))).isNull();
+      assertThat(memo.getDirect(keys.get(keys.size() - 1))).isNotNull();
+    }
+  }
+
+  private DirectDecryptionAndProof randomDirect() {
+    return new DirectDecryptionAndProof(group.gPowP(randomElementModQ(group)),
+            new GenericChaumPedersenProof(randomElementModQ(group), randomElementModQ(group)));
+  }
+
+  private CompensatedDecryptionAndProof randomCompensated() {
+    return new CompensatedDecryptionAndProof(group.gPowP(randomElementModQ(group)),
+            new GenericChaumPedersenProof(randomElementModQ(group), randomElementModQ(group)),
+            group.gPowP(randomElementModQ(group)));
+  }
+}
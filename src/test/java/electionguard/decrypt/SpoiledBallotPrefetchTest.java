@@ -0,0 +1,81 @@
+package electionguard.decrypt;
+
+import electionguard.core.ElementModQ;
+import electionguard.core.GroupContext;
+import electionguard.core.UInt256Kt;
+import electionguard.publish.Consumer;
+import electionguard.publish.ElectionRecord;
+import electionguard.publish.PlaintextTallySinkIF;
+import electionguard.publish.Publisher;
+import electionguard.publish.PublisherMode;
+import electionguard.util.RpcPolicy;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import static com.google.common.truth.Truth.assertThat;
+import static electionguard.publish.ElectionRecordFactoryKt.electionRecordFromConsumer;
+import static electionguard.publish.ReaderKt.readTrustee;
+import static electionguard.util.KUtils.productionGroup;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Runs the library's Decryption engine over the dispatcher's trustees, and checks that SpoiledBallotPipeline.ballotTexts()
+ * prefetches exactly the texts the engine asks for, so no spoiled ballot is decrypted twice.
+ * Needs an election record with spoiled ballots and its decrypting trustees, eg the output directory of
+ * RunRemoteWorkflowTest: "./gradlew test -Pelectionguard.recordDir=dir". Skipped if not given.
+ */
+public class SpoiledBallotPrefetchTest {
+  private static final GroupContext group = productionGroup();
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  public void testPrefetchMatchesEngine() throws Exception {
+    String recordDir = System.getProperty("electionguard.recordDir");
+    assumeTrue(recordDir != null && Files.isDirectory(Path.of(recordDir, "private_data", "trustees")));
+
+    Consumer consumer = new Consumer(recordDir, group);
+    ElectionRecord record = electionRecordFromConsumer(consumer);
+    List<DecryptingTrusteeIF> delegates = new ArrayList<>();
+    try (Stream<Path> files = Files.list(Path.of(recordDir, "private_data", "trustees"))) {
+      for (Path file : files.sorted().limit(record.quorum()).toList()) {
+        delegates.add(readTrustee(group, file.toString()));
+      }
+    }
+    List<String> present = delegates.stream().map(DecryptingTrusteeIF::id).toList();
+    List<String> missingGuardians = record.guardians().stream()
+            .map(it -> it.getGuardianId())
+            .filter(id -> !present.contains(id))
+            .toList();
+    ElementModQ extendedBaseHash = UInt256Kt.toElementModQ(record.electionInit().getCryptoExtendedBaseHash(), group);
+
+    ExecutorService executor = Executors.newCachedThreadPool();
+    try (InProcessTrustees inProcess = new InProcessTrustees(group, delegates,
+            RemoteDecryptingTrusteeProxy.DEFAULT_CHUNK_SIZE, RpcPolicy.DEFAULT)) {
+      DecryptingTrusteeDispatcher dispatcher = new DecryptingTrusteeDispatcher(inProcess.proxies, missingGuardians,
+              executor, extendedBaseHash, Map.of());
+      Decryption decryptor = new Decryption(group, record.electionInit(), dispatcher.trustees(), missingGuardians);
+
+      long count;
+      Publisher publisher = new Publisher(tempDir.toString(), PublisherMode.createIfMissing);
+      try (PlaintextTallySinkIF sink = publisher.plaintextTallySink()) {
+        count = new SpoiledBallotPipeline(group, decryptor, dispatcher, consumer.iterateSpoiledBallots(), sink, 3, 2).run();
+      }
+      assumeTrue(count > 0, "no spoiled ballots in " + recordDir);
+      assertThat(dispatcher.prefetchMisses()).isEqualTo(0);
+      assertThat(dispatcher.prefetchHits()).isEqualTo(count);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
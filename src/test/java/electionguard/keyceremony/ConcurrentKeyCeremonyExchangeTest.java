@@ -0,0 +1,196 @@
+package electionguard.keyceremony;
+
+import com.github.michaelbull.result.Err;
+import com.github.michaelbull.result.Result;
+import electionguard.core.ElementModP;
+import electionguard.core.GroupContext;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+import static electionguard.keyceremony.KeyCeremonyKt.keyCeremonyExchange;
+import static electionguard.util.KUtils.productionGroup;
+
+/** The concurrent exchange against the library's keyCeremonyExchange, over in-process and remote trustees. */
+public class ConcurrentKeyCeremonyExchangeTest {
+  private static final GroupContext group = productionGroup();
+  private static final int NTRUSTEES = 4;
+  private static final int QUORUM = 3;
+
+  @TempDir
+  Path tempDir;
+
+  private static List<CountingTrustee> trustees() {
+    List<CountingTrustee> result = new ArrayList<>();
+    for (int i = 1; i <= NTRUSTEES; i++) {
+      result.add(new CountingTrustee(new KeyCeremonyTrustee(group, "trustee" + i, i, QUORUM)));
+    }
+    return result;
+  }
+
+  /** The public keys each trustee sends, in the trustees' order. */
+  private static List<PublicKeys> sentKeys(List<? extends KeyCeremonyTrusteeIF> trustees) {
+    return trustees.stream().map(t -> t.sendPublicKeys().component1()).toList();
+  }
+
+  @Test
+  public void testMatchesLibrary() {
+    List<CountingTrustee> concurrent = trustees();
+    Result<KeyCeremonyResults, String> result = new ConcurrentKeyCeremonyExchange(new ArrayList<>(concurrent), 2).run();
+    assertThat(result.component2()).isNull();
+
+    List<CountingTrustee> library = trustees();
+    Result<KeyCeremonyResults, String> expected = keyCeremonyExchange(new ArrayList<>(library));
+    assertThat(expected.component2()).isNull();
+
+    // both are the keys the trustees sent, in the trustees' order
+    assertThat(result.component1().getPublicKeys()).isEqualTo(sentKeys(concurrent));
+    assertThat(expected.component1().getPublicKeys()).isEqualTo(sentKeys(library));
+    // and every pair made the same calls
+    for (int i = 0; i < NTRUSTEES; i++) {
+      assertThat(concurrent.get(i).receivedKeys.get()).isEqualTo(library.get(i).receivedKeys.get());
+      assertThat(concurrent.get(i).sentShares.get()).isEqualTo(library.get(i).sentShares.get());
+      assertThat(concurrent.get(i).receivedShares.get()).isEqualTo(library.get(i).receivedShares.get());
+      assertThat(concurrent.get(i).sentShares.get()).isEqualTo(NTRUSTEES - 1);
+    }
+  }
+
+  @Test
+  public void testSendPublicKeysFails() {
+    List<CountingTrustee> trustees = trustees();
+    trustees.get(1).failSendPublicKeys = true;
+
+    Result<KeyCeremonyResults, String> result = new ConcurrentKeyCeremonyExchange(new ArrayList<>(trustees), 2).run();
+    assertThat(result.component2()).contains("trustee2 sendPublicKeys");
+    // no shares are sent after a public key failure
+    assertThat(trustees.stream().mapToInt(t -> t.sentShares.get()).sum()).isEqualTo(0);
+  }
+
+  @Test
+  public void testReceiveSecretKeyShareFails() {
+    List<CountingTrustee> trustees = trustees();
+    trustees.get(2).failReceiveSecretKeyShare = true;
+
+    Result<KeyCeremonyResults, String> result = new ConcurrentKeyCeremonyExchange(new ArrayList<>(trustees), 2).run();
+    assertThat(result.component2()).contains("trustee3 receiveSecretKeyShare");
+  }
+
+  @Test
+  public void testRemoteTrusteesBatched() throws IOException, InterruptedException {
+    List<RunRemoteTrustee> remotes = new ArrayList<>();
+    List<Server> servers = new ArrayList<>();
+    List<RemoteTrusteeProxy> proxies = new ArrayList<>();
+    Map<String, String> urls = new HashMap<>();
+    try {
+      for (int i = 1; i <= NTRUSTEES; i++) {
+        String id = "trustee" + i;
+        String name = InProcessServerBuilder.generateName();
+        RunRemoteTrustee remote = new RunRemoteTrustee(id, i, QUORUM, tempDir.resolve(id).toString(), 2, 16);
+        remotes.add(remote);
+        servers.add(InProcessServerBuilder.forName(name).addService(remote).build().start());
+        urls.put(id, name);
+        proxies.add(RemoteTrusteeProxy.builder()
+                .setTrusteeId(id)
+                .setUrl(name)
+                .setChannel(InProcessChannelBuilder.forName(name).build())
+                .setCoordinate(i)
+                .setQuorum(QUORUM)
+                .setPackedEncoding(true)
+                .setTrusteeUrls(urls)
+                .build());
+      }
+
+      // all remote, so the keys go out in one receiveAllPublicKeys call to each trustee
+      Result<KeyCeremonyResults, String> result = new ConcurrentKeyCeremonyExchange(new ArrayList<>(proxies), 2).run();
+      assertThat(result.component2()).isNull();
+      List<PublicKeys> keys = result.component1().getPublicKeys();
+      assertThat(keys).hasSize(NTRUSTEES);
+      for (int i = 0; i < NTRUSTEES; i++) {
+        assertThat(keys.get(i).getGuardianId()).isEqualTo(remotes.get(i).sentPublicKeys.getGuardianId());
+        assertThat(keys.get(i).getCoefficientCommitments()).isEqualTo(remotes.get(i).sentPublicKeys.getCoefficientCommitments());
+        assertThat(remotes.get(i).sentShares).hasSize(NTRUSTEES - 1);
+      }
+    } finally {
+      proxies.forEach(RemoteTrusteeProxy::shutdown);
+      for (Server server : servers) {
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+      }
+      remotes.forEach(remote -> remote.cryptoExecutor.shutdownNow());
+    }
+  }
+
+  /** A KeyCeremonyTrustee that counts its calls, and can be made to fail. */
+  private static class CountingTrustee implements KeyCeremonyTrusteeIF {
+    private final KeyCeremonyTrustee delegate;
+    final AtomicInteger receivedKeys = new AtomicInteger();
+    final AtomicInteger sentShares = new AtomicInteger();
+    final AtomicInteger receivedShares = new AtomicInteger();
+    volatile boolean failSendPublicKeys;
+    volatile boolean failReceiveSecretKeyShare;
+
+    CountingTrustee(KeyCeremonyTrustee delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public String id() {
+      return delegate.id();
+    }
+
+    @Override
+    public int xCoordinate() {
+      return delegate.xCoordinate();
+    }
+
+    @Override
+    public List<ElementModP> coefficientCommitments() {
+      return delegate.coefficientCommitments();
+    }
+
+    @Override
+    public ElementModP electionPublicKey() {
+      return delegate.electionPublicKey();
+    }
+
+    @Override
+    public synchronized Result<PublicKeys, String> sendPublicKeys() {
+      if (failSendPublicKeys) {
+        return new Err("sendPublicKeys failed");
+      }
+      return delegate.sendPublicKeys();
+    }
+
+    @Override
+    public synchronized Result<PublicKeys, String> receivePublicKeys(PublicKeys keyset) {
+      receivedKeys.incrementAndGet();
+      return delegate.receivePublicKeys(keyset);
+    }
+
+    @Override
+    public synchronized Result<SecretKeyShare, String> sendSecretKeyShare(String guardianId) {
+      sentShares.incrementAndGet();
+      return delegate.sendSecretKeyShare(guardianId);
+    }
+
+    @Override
+    public synchronized Result<SecretKeyShare, String> receiveSecretKeyShare(SecretKeyShare share) {
+      receivedShares.incrementAndGet();
+      if (failReceiveSecretKeyShare) {
+        return new Err("receiveSecretKeyShare failed");
+      }
+      return delegate.receiveSecretKeyShare(share);
+    }
+  }
+}
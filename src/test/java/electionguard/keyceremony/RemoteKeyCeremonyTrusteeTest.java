@@ -1,15 +1,108 @@
 package electionguard.keyceremony;
 
+import electionguard.protogen2.CommonRpcProto;
 import electionguard.protogen2.RemoteKeyCeremonyTrusteeProto;
+import io.grpc.stub.StreamObserver;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.truth.Truth.assertThat;
 
 public class RemoteKeyCeremonyTrusteeTest {
 
+  @TempDir
+  Path tempDir;
+
   @Test
   public void testKeyCeremonyTrusteeGeneration() {
     RemoteKeyCeremonyTrusteeProto.PublicKeySet.Builder response = RemoteKeyCeremonyTrusteeProto.PublicKeySet.newBuilder();
     assertThat(response).isNotNull();
   }
+
+  @Test
+  public void testRepeatedRequestIsAnsweredFromTheFirst() throws Exception {
+    RunRemoteTrustee trustee1 = new RunRemoteTrustee("trustee1", 1, 2, tempDir.resolve("trustee1").toString(), 1, 8);
+    RunRemoteTrustee trustee2 = new RunRemoteTrustee("trustee2", 2, 2, tempDir.resolve("trustee2").toString(), 1, 8);
+    try {
+      Answer<RemoteKeyCeremonyTrusteeProto.PublicKeySet> keys = new Answer<>();
+      trustee2.sendPublicKeys(RemoteKeyCeremonyTrusteeProto.PublicKeySetRequest.getDefaultInstance(), keys);
+      RemoteKeyCeremonyTrusteeProto.PublicKeySet request = keys.answer().toBuilder().setRequestId("request1").build();
+
+      Answer<CommonRpcProto.ErrorResponse> first = new Answer<>();
+      trustee1.receivePublicKeys(request, first);
+      Answer<CommonRpcProto.ErrorResponse> retry = new Answer<>();
+      trustee1.receivePublicKeys(request, retry);
+
+      assertThat(first.answer().getError()).isEmpty();
+      // the retry wasnt given to the KeyCeremonyTrustee again
+      assertThat(retry.answer()).isSameInstanceAs(first.answer());
+    } finally {
+      trustee1.cryptoExecutor.shutdownNow();
+      trustee2.cryptoExecutor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testBadProofRejectsOnlyItsOwner() throws Exception {
+    RunRemoteTrustee trustee1 = new RunRemoteTrustee("trustee1", 1, 2, tempDir.resolve("trustee1").toString(), 1, 8);
+    RunRemoteTrustee trustee2 = new RunRemoteTrustee("trustee2", 2, 2, tempDir.resolve("trustee2").toString(), 1, 8);
+    RunRemoteTrustee trustee3 = new RunRemoteTrustee("trustee3", 3, 2, tempDir.resolve("trustee3").toString(), 1, 8);
+    try {
+      Answer<RemoteKeyCeremonyTrusteeProto.PublicKeySet> keys2 = new Answer<>();
+      trustee2.sendPublicKeys(RemoteKeyCeremonyTrusteeProto.PublicKeySetRequest.getDefaultInstance(), keys2);
+      Answer<RemoteKeyCeremonyTrusteeProto.PublicKeySet> keys3 = new Answer<>();
+      trustee3.sendPublicKeys(RemoteKeyCeremonyTrusteeProto.PublicKeySetRequest.getDefaultInstance(), keys3);
+      // the proof of trustee3's first coefficient is the one of its second, so it doesnt match the commitment
+      RemoteKeyCeremonyTrusteeProto.PublicKeySet bad = keys3.answer().toBuilder()
+              .setCoefficientProofs(0, keys3.answer().getCoefficientProofs(1))
+              .build();
+
+      Answer<RemoteKeyCeremonyTrusteeProto.PublicKeyVerdicts> verdicts = new Answer<>();
+      trustee1.receiveAllPublicKeys(RemoteKeyCeremonyTrusteeProto.PublicKeySets.newBuilder()
+              .addKeySets(bad)
+              .addKeySets(keys2.answer())
+              .build(), verdicts);
+
+      assertThat(verdicts.answer().getError()).isEmpty();
+      assertThat(verdicts.answer().getVerdictsCount()).isEqualTo(2);
+      assertThat(verdicts.answer().getVerdicts(0).getOwnerId()).isEqualTo("trustee3");
+      assertThat(verdicts.answer().getVerdicts(0).getError()).isNotEmpty();
+      assertThat(verdicts.answer().getVerdicts(1).getOwnerId()).isEqualTo("trustee2");
+      assertThat(verdicts.answer().getVerdicts(1).getError()).isEmpty();
+    } finally {
+      trustee1.cryptoExecutor.shutdownNow();
+      trustee2.cryptoExecutor.shutdownNow();
+      trustee3.cryptoExecutor.shutdownNow();
+    }
+  }
+
+  /** The one response of a unary call. */
+  private static class Answer<T> extends CompletableFuture<T> implements StreamObserver<T> {
+    @Override
+    public void onNext(T value) {
+      complete(value);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      completeExceptionally(t);
+    }
+
+    @Override
+    public void onCompleted() {
+    }
+
+    T answer() throws IOException {
+      try {
+        return get(10, TimeUnit.SECONDS);
+      } catch (Exception e) {
+        throw new IOException(e);
+      }
+    }
+  }
 }
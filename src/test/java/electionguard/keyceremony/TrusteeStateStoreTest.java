@@ -0,0 +1,90 @@
+package electionguard.keyceremony;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TrusteeStateStoreTest {
+
+  @Test
+  public void testSaveEachDurability(@TempDir Path dir) throws IOException {
+    for (TrusteeStateStore.Durability durability : TrusteeStateStore.Durability.values()) {
+      TrusteeStateStore store = new TrusteeStateStore("test", durability, 2);
+      try {
+        List<CompletableFuture<Long>> saves = Stream.of("guardian1", "guardian2", "guardian3")
+                .map(id -> store.save(id, dir, tmp -> Files.writeString(Path.of(tmp, id + ".state"), durability.toString())))
+                .toList();
+        saves.forEach(save -> assertThat(save.join()).isAtLeast(0L));
+
+        for (String id : List.of("guardian1", "guardian2", "guardian3")) {
+          assertThat(Files.readString(dir.resolve(id + ".state"))).isEqualTo(durability.toString());
+        }
+        assertThat(leftovers(dir)).isEmpty();
+        assertThat(store.stats()).contains("saves=3");
+      } finally {
+        store.shutdown();
+      }
+    }
+  }
+
+  @Test
+  public void testFailedSaveLeavesTheOldState(@TempDir Path dir) throws IOException {
+    TrusteeStateStore store = new TrusteeStateStore("test", TrusteeStateStore.Durability.GROUP, 1);
+    try {
+      store.save("guardian1", dir, tmp -> Files.writeString(Path.of(tmp, "guardian1.state"), "old")).join();
+
+      CompletableFuture<Long> failed = store.save("guardian1", dir, tmp -> {
+        Files.writeString(Path.of(tmp, "guardian1.state"), "half");
+        throw new IOException("disk full");
+      });
+      CompletionException e = assertThrows(CompletionException.class, failed::join);
+      assertThat(e).hasCauseThat().hasMessageThat().isEqualTo("disk full");
+
+      assertThat(Files.readString(dir.resolve("guardian1.state"))).isEqualTo("old");
+      assertThat(leftovers(dir)).isEmpty();
+    } finally {
+      store.shutdown();
+    }
+  }
+
+  @Test
+  public void testSavesRacingShutdownAllComplete(@TempDir Path dir) throws Exception {
+    for (TrusteeStateStore.Durability durability : TrusteeStateStore.Durability.values()) {
+      TrusteeStateStore store = new TrusteeStateStore("test", durability, 1);
+      List<CompletableFuture<Long>> saves = Collections.synchronizedList(new ArrayList<>());
+      Thread saver = new Thread(() -> {
+        for (int i = 0; i < 100; i++) {
+          String id = durability + "-" + i;
+          saves.add(store.save(id, dir, tmp -> Files.writeString(Path.of(tmp, id + ".state"), id)));
+        }
+      });
+      saver.start();
+      store.shutdown();
+      saver.join();
+
+      for (CompletableFuture<Long> save : saves) {
+        // each either saved or failed, none left waiting
+        save.handle((micros, failure) -> micros).get(10, TimeUnit.SECONDS);
+      }
+    }
+  }
+
+  private static List<Path> leftovers(Path dir) throws IOException {
+    try (Stream<Path> list = Files.list(dir)) {
+      return list.filter(path -> path.getFileName().toString().startsWith(".saving-")).toList();
+    }
+  }
+}
@@ -0,0 +1,42 @@
+package electionguard.util;
+
+import io.grpc.Deadline;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class BroadcastTest {
+
+  @Test
+  public void testStatusOfEachTarget() {
+    List<String> targets = List.of("ok", "failed", "error", "slow");
+    Broadcast.Outcome outcome = Broadcast.call("test", targets, t -> t, target -> {
+      switch (target) {
+        case "failed":
+          return false;
+        case "error":
+          throw new IllegalArgumentException("bad");
+        case "slow":
+          try {
+            Thread.sleep(10_000);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          return true;
+        default:
+          return true;
+      }
+    }, Deadline.after(500, TimeUnit.MILLISECONDS));
+
+    assertThat(outcome.allOk()).isFalse();
+    assertThat(outcome.results.stream().map(r -> r.id).toList()).containsExactlyElementsIn(targets).inOrder();
+    assertThat(outcome.results.stream().map(r -> r.status).toList()).containsExactly(
+            Broadcast.Status.OK, Broadcast.Status.FAILED, Broadcast.Status.ERROR, Broadcast.Status.TIMEOUT).inOrder();
+    assertThat(outcome.results.get(2).error).isEqualTo("bad");
+    // the calls were made at once, so the slow one didnt hold up the others, and was given up on at the deadline
+    assertThat(outcome.wallMsecs).isLessThan(5_000L);
+  }
+}
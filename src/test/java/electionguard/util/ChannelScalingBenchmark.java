@@ -0,0 +1,94 @@
+package electionguard.util;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import electionguard.protogen2.CommonRpcProto;
+import electionguard.protogen2.DecryptingTrusteeServiceGrpc;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.stub.StreamObserver;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the coordinator's threads and CPU time with 10, 50 and 200 trustee channels, each making
+ * ncalls small calls, all in flight at once. The trustees are one in-process server, the same for each mode.
+ * Run once for each mode, since the channel threads outlive the channels:
+ * Usage: ChannelScalingBenchmark [default|shared] [ncalls]
+ * <ul>
+ *   <li>default: each channel from ManagedChannelBuilder.forTarget(), as the proxies used to make them</li>
+ *   <li>shared: each channel from GrpcChannels.forTarget()</li>
+ * </ul>
+ */
+public class ChannelScalingBenchmark {
+  private static final com.sun.management.OperatingSystemMXBean os =
+          (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+
+  public static void main(String[] args) throws Exception {
+    boolean shared = args.length > 0 && args[0].equals("shared");
+    int ncalls = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+    Server server = ServerBuilder.forPort(0)
+            .addService(new DecryptingTrusteeServiceGrpc.DecryptingTrusteeServiceImplBase() {
+              @Override
+              public void finish(CommonRpcProto.FinishRequest request, StreamObserver<CommonRpcProto.ErrorResponse> responseObserver) {
+                responseObserver.onNext(CommonRpcProto.ErrorResponse.getDefaultInstance());
+                responseObserver.onCompleted();
+              }
+            })
+            .build().start();
+    String target = "localhost:" + server.getPort();
+    int baseThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+
+    System.out.printf("mode = %s ncalls = %d, base threads = %d%n", shared ? "shared" : "default", ncalls, baseThreads);
+    System.out.printf("%10s %12s %12s %12s %14s%n", "ntrustees", "peak threads", "msecs", "calls/sec", "cpu ms/1000");
+    run(target, shared, 10, ncalls, false); // warm up
+    for (int ntrustees : new int[]{10, 50, 200}) {
+      run(target, shared, ntrustees, ncalls, true);
+    }
+
+    server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    System.exit(0);
+  }
+
+  private static void run(String target, boolean shared, int ntrustees, int ncalls, boolean show) throws Exception {
+    ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+    List<ManagedChannel> channels = new ArrayList<>(ntrustees);
+    for (int i = 0; i < ntrustees; i++) {
+      ManagedChannelBuilder<?> builder = shared ? GrpcChannels.forTarget(target) :
+              ManagedChannelBuilder.forTarget(target).usePlaintext().keepAliveTime(1, TimeUnit.MINUTES);
+      channels.add(builder.build());
+    }
+    for (ManagedChannel channel : channels) {
+      GrpcChannels.awaitReady(channel, 10, TimeUnit.SECONDS);
+    }
+
+    CommonRpcProto.FinishRequest request = CommonRpcProto.FinishRequest.newBuilder().setAllOk(true).build();
+    long startCpu = os.getProcessCpuTime();
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    List<ListenableFuture<CommonRpcProto.ErrorResponse>> calls = new ArrayList<>(ntrustees * ncalls);
+    for (int call = 0; call < ncalls; call++) {
+      for (ManagedChannel channel : channels) {
+        calls.add(DecryptingTrusteeServiceGrpc.newFutureStub(channel).finish(request));
+      }
+    }
+    Futures.allAsList(calls).get();
+    long msecs = Math.max(1, stopwatch.elapsed(TimeUnit.MILLISECONDS));
+    long cpuMsecs = TimeUnit.NANOSECONDS.toMillis(os.getProcessCpuTime() - startCpu);
+    int peakThreads = ManagementFactory.getThreadMXBean().getPeakThreadCount();
+
+    if (show) {
+      System.out.printf("%10d %12d %12d %12.1f %14.1f%n", ntrustees, peakThreads, msecs,
+              1000.0 * calls.size() / msecs, 1000.0 * cpuMsecs / calls.size());
+    }
+    for (ManagedChannel channel : channels) {
+      channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    }
+  }
+}
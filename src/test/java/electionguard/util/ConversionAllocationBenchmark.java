@@ -0,0 +1,80 @@
+package electionguard.util;
+
+import com.google.protobuf.ByteString;
+import electionguard.core.ElGamalCiphertext;
+import electionguard.core.ElementModP;
+import electionguard.core.GroupContext;
+import electionguard.core.ProductionElementModP;
+import electionguard.core.ProductionGroupContext;
+import electionguard.protogen2.CommonProto;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static electionguard.util.KUtils.productionGroup;
+import static electionguard.util.RandomCiphertexts.randomCiphertexts;
+
+/**
+ * Measures bytes allocated per ciphertext when converting ElGamalCiphertext to and from proto,
+ * comparing the original copying conversions ("before") with ConvertCommonProto ("after").
+ * Usage: ConversionAllocationBenchmark [ntexts]
+ */
+public class ConversionAllocationBenchmark {
+  private static final com.sun.management.ThreadMXBean threadBean =
+          (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  public static void main(String[] args) {
+    int ntexts = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    GroupContext group = productionGroup();
+    List<ElGamalCiphertext> texts = randomCiphertexts(group, ntexts);
+    List<CommonProto.ElGamalCiphertext> protos = ConvertCommonProto.publishCiphertexts(texts);
+
+    System.out.printf("ntexts = %d%n", ntexts);
+    System.out.printf("%-8s %-8s %16s%n", "", "", "bytes/ciphertext");
+    for (int warmup = 0; warmup < 3; warmup++) {
+      boolean show = warmup == 2;
+      measure("before", "publish", ntexts, show, () -> publishBefore(texts));
+      measure("after", "publish", ntexts, show, () -> ConvertCommonProto.publishCiphertexts(texts));
+      measure("before", "import", ntexts, show, () -> importBefore(group, protos));
+      measure("after", "import", ntexts, show, () -> ConvertCommonProto.importCiphertexts(group, protos));
+    }
+  }
+
+  private static void measure(String version, String what, int n, boolean show, Supplier<List<?>> task) {
+    long tid = Thread.currentThread().getId();
+    long start = threadBean.getThreadAllocatedBytes(tid);
+    List<?> result = task.get();
+    long allocated = threadBean.getThreadAllocatedBytes(tid) - start;
+    if (show) {
+      System.out.printf("%-8s %-8s %16.1f%n", version, what, (double) allocated / n);
+    }
+    if (result.size() != n) {
+      throw new IllegalStateException();
+    }
+  }
+
+  // the conversions as they were, copying the bytes on each side
+
+  private static List<CommonProto.ElGamalCiphertext> publishBefore(List<ElGamalCiphertext> texts) {
+    return texts.stream().map(t -> CommonProto.ElGamalCiphertext.newBuilder()
+            .setPad(CommonProto.ElementModP.newBuilder().setValue(ByteString.copyFrom(t.getPad().byteArray())))
+            .setData(CommonProto.ElementModP.newBuilder().setValue(ByteString.copyFrom(t.getData().byteArray())))
+            .build()).toList();
+  }
+
+  private static List<ElGamalCiphertext> importBefore(GroupContext group, List<CommonProto.ElGamalCiphertext> protos) {
+    List<ElGamalCiphertext> result = new ArrayList<>();
+    for (CommonProto.ElGamalCiphertext proto : protos) {
+      result.add(new ElGamalCiphertext(importBefore(group, proto.getPad()), importBefore(group, proto.getData())));
+    }
+    return result;
+  }
+
+  private static ElementModP importBefore(GroupContext group, CommonProto.ElementModP modP) {
+    BigInteger elem = new BigInteger(1, modP.getValue().toByteArray());
+    return new ProductionElementModP(elem, (ProductionGroupContext) group);
+  }
+}
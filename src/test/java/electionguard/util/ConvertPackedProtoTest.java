@@ -0,0 +1,66 @@
+package electionguard.util;
+
+import electionguard.core.ElGamalCiphertext;
+import electionguard.core.ElementModP;
+import electionguard.core.ElementModQ;
+import electionguard.core.GroupContext;
+import electionguard.protogen2.CommonProto;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static com.google.common.truth.Truth.assertThat;
+import static electionguard.util.KUtils.productionGroup;
+import static electionguard.util.RandomCiphertexts.randomCiphertexts;
+import static electionguard.util.RandomCiphertexts.randomElementModQ;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ConvertPackedProtoTest {
+  private static final GroupContext group = productionGroup();
+
+  @Test
+  public void testCiphertextBatchRoundtrip() {
+    List<ElGamalCiphertext> texts = randomCiphertexts(group, 11);
+    CommonProto.CiphertextBatch batch = ConvertPackedProto.publishCiphertextBatch(group, texts);
+    assertThat(batch.getCount()).isEqualTo(11);
+    assertThat(batch.getWidth()).isEqualTo(512);
+    assertThat(batch.getPacked().size()).isEqualTo(11 * 2 * 512);
+    assertThat(ConvertPackedProto.importCiphertextBatch(group, batch)).isEqualTo(texts);
+  }
+
+  @Test
+  public void testElementBatchRoundtrip() {
+    List<ElementModQ> qs = IntStream.range(0, 7).mapToObj(i -> randomElementModQ(group)).toList();
+    CommonProto.ElementBatch qbatch = ConvertPackedProto.publishElementModQBatch(group, qs);
+    assertThat(qbatch.getWidth()).isEqualTo(32);
+    assertThat(ConvertPackedProto.importElementModQBatch(group, qbatch)).isEqualTo(qs);
+
+    List<ElementModP> ps = qs.stream().map(group::gPowP).toList();
+    CommonProto.ElementBatch pbatch = ConvertPackedProto.publishElementModPBatch(group, ps);
+    assertThat(ConvertPackedProto.importElementModPBatch(group, pbatch)).isEqualTo(ps);
+  }
+
+  @Test
+  public void testEmptyBatch() {
+    CommonProto.CiphertextBatch batch = ConvertPackedProto.publishCiphertextBatch(group, List.of());
+    assertThat(ConvertPackedProto.importCiphertextBatch(group, batch)).isEmpty();
+  }
+
+  @Test
+  public void testTruncatedBatchFails() {
+    CommonProto.CiphertextBatch batch = ConvertPackedProto.publishCiphertextBatch(group, randomCiphertexts(group, 2));
+    CommonProto.CiphertextBatch truncated = batch.toBuilder().setPacked(batch.getPacked().substring(1)).build();
+    assertThrows(IllegalArgumentException.class, () -> ConvertPackedProto.importCiphertextBatch(group, truncated));
+  }
+
+  @Test
+  public void testWrongWidthFails() {
+    List<ElementModQ> qs = IntStream.range(0, 4).mapToObj(i -> randomElementModQ(group)).toList();
+    CommonProto.ElementBatch qbatch = ConvertPackedProto.publishElementModQBatch(group, qs);
+    // the same bytes, read as 2 elements of twice the width
+    CommonProto.ElementBatch wide = qbatch.toBuilder().setCount(2).setWidth(64).build();
+    assertThrows(IllegalArgumentException.class, () -> ConvertPackedProto.importElementModQBatch(group, wide));
+    assertThrows(IllegalArgumentException.class, () -> ConvertPackedProto.importElementModPBatch(group, qbatch));
+  }
+}
@@ -0,0 +1,220 @@
+package electionguard.util;
+
+import io.grpc.Context;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class CryptoExecutorTest {
+
+  @Test
+  public void testRejectsWhenQueueIsFull() throws InterruptedException {
+    CryptoExecutor executor = new CryptoExecutor("test", 1, 2);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(3);
+    Runnable blocked = () -> {
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      done.countDown();
+    };
+
+    try {
+      assertThat(executor.execute("running", blocked)).isTrue();
+      assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+      assertThat(executor.execute("queued1", done::countDown)).isTrue();
+      assertThat(executor.execute("queued2", done::countDown)).isTrue();
+      assertThat(executor.inFlight()).isEqualTo(1);
+      assertThat(executor.queueDepth()).isEqualTo(2);
+
+      assertThat(executor.execute("rejected", done::countDown)).isFalse();
+      assertThat(executor.rejected()).isEqualTo(1);
+      StatusRuntimeException rejection = executor.rejection("rejected");
+      assertThat(rejection.getStatus().getCode()).isEqualTo(Status.Code.RESOURCE_EXHAUSTED);
+      assertThat(CryptoExecutor.retryAfterMsecs(rejection)).isAtLeast(100L);
+      assertThat(RpcPolicy.isTransient(rejection)).isTrue();
+
+      release.countDown();
+      assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testTallyBeforeSpoiled() throws InterruptedException {
+    CryptoExecutor executor = new CryptoExecutor("test", 1, 10, 60_000);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(4);
+    List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+    try {
+      executor.execute("blocker", () -> {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      });
+      assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+      Priority.SPOILED.wrap(() -> {
+        executor.execute("spoiled1", () -> { order.add("spoiled1"); done.countDown(); });
+        executor.execute("spoiled2", () -> { order.add("spoiled2"); done.countDown(); });
+      }).run();
+      executor.execute("tally1", () -> { order.add("tally1"); done.countDown(); });
+      executor.execute("tally2", () -> { order.add("tally2"); done.countDown(); });
+      assertThat(executor.queueDepth(Priority.SPOILED)).isEqualTo(2);
+      assertThat(executor.queueDepth(Priority.TALLY)).isEqualTo(2);
+
+      release.countDown();
+      assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+      assertThat(order).containsExactly("tally1", "tally2", "spoiled1", "spoiled2").inOrder();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testSpoiledIsNotStarved() throws InterruptedException {
+    CryptoExecutor executor = new CryptoExecutor("test", 1, 10, 0);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(2);
+    List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+    try {
+      executor.execute("blocker", () -> {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      });
+      assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+      Priority.SPOILED.wrap(() -> executor.execute("spoiled", () -> { order.add("spoiled"); done.countDown(); })).run();
+      Thread.sleep(10);
+      executor.execute("tally", () -> { order.add("tally"); done.countDown(); });
+
+      release.countDown();
+      assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+      assertThat(order).containsExactly("spoiled", "tally").inOrder();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testTenantsTakeTurns() throws InterruptedException {
+    CryptoExecutor executor = new CryptoExecutor("test", 1, 10);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(5);
+    List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+    try {
+      executor.execute("blocker", () -> {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      });
+      assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+      for (int i = 1; i <= 3; i++) {
+        String what = "a" + i;
+        executor.execute("trusteeA", what, () -> { order.add(what); done.countDown(); });
+      }
+      for (int i = 1; i <= 2; i++) {
+        String what = "b" + i;
+        executor.execute("trusteeB", what, () -> { order.add(what); done.countDown(); });
+      }
+      assertThat(executor.queueDepth(Priority.TALLY)).isEqualTo(5);
+
+      release.countDown();
+      assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+      assertThat(order).containsExactly("a1", "b1", "a2", "b2", "a3").inOrder();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testFailuresAreDelivered() throws InterruptedException {
+    CryptoExecutor executor = new CryptoExecutor("test", 1, 10);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch thrown = new CountDownLatch(1);
+
+    executor.execute("", "throws", () -> { throw new AssertionError("boom"); }, t -> { failures.add(t); thrown.countDown(); });
+    assertThat(thrown.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(failures.get(0)).isInstanceOf(AssertionError.class);
+
+    executor.execute("blocker", () -> {
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+    executor.execute("", "dropped", () -> failures.add(new IllegalStateException("ran")), failures::add);
+    executor.shutdownNow();
+
+    assertThat(failures).hasSize(2);
+    assertThat(((StatusRuntimeException) failures.get(1)).getStatus().getCode()).isEqualTo(Status.Code.UNAVAILABLE);
+  }
+
+  @Test
+  public void testCancelledWhileQueuedIsSkipped() throws InterruptedException {
+    CryptoExecutor executor = new CryptoExecutor("test", 1, 10);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(2);
+    List<String> ran = Collections.synchronizedList(new ArrayList<>());
+    List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+
+    try {
+      executor.execute("blocker", () -> {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      });
+      assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+      Context.CancellableContext call = Context.current().withCancellation();
+      call.run(() -> executor.execute("", "cancelled", () -> ran.add("cancelled"), t -> { failures.add(t); done.countDown(); }));
+      executor.execute("", "live", () -> { ran.add("live"); done.countDown(); }, failures::add);
+      call.cancel(null);
+
+      release.countDown();
+      assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+      assertThat(ran).containsExactly("live");
+      assertThat(failures).hasSize(1);
+      assertThat(((StatusRuntimeException) failures.get(0)).getStatus().getCode()).isEqualTo(Status.Code.CANCELLED);
+      assertThat(executor.cancelled()).isEqualTo(1);
+      assertThat(executor.stats()).contains("cancelled=1");
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
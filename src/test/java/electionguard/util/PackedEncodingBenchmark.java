@@ -0,0 +1,75 @@
+package electionguard.util;
+
+import com.google.common.base.Stopwatch;
+import com.google.protobuf.InvalidProtocolBufferException;
+import electionguard.core.ElGamalCiphertext;
+import electionguard.core.GroupContext;
+import electionguard.protogen2.DecryptingTrusteeProto;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static electionguard.util.KUtils.productionGroup;
+import static electionguard.util.RandomCiphertexts.randomCiphertexts;
+
+/**
+ * Compares the serialized size and encode/decode time of a DirectDecryptionRequest,
+ * using repeated ElGamalCiphertext vs a packed CiphertextBatch.
+ * Usage: PackedEncodingBenchmark [ntexts] [niterations]
+ */
+public class PackedEncodingBenchmark {
+
+  public static void main(String[] args) throws InvalidProtocolBufferException {
+    int ntexts = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    int niters = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+    GroupContext group = productionGroup();
+    List<ElGamalCiphertext> texts = randomCiphertexts(group, ntexts);
+
+    System.out.printf("ntexts = %d niterations = %d%n", ntexts, niters);
+    System.out.printf("%-10s %12s %12s %12s%n", "format", "bytes", "encode ms", "decode ms");
+    for (int warmup = 0; warmup < 2; warmup++) {
+      boolean show = warmup == 1;
+      run("repeated", niters, show, () -> DecryptingTrusteeProto.DirectDecryptionRequest.newBuilder()
+                      .addAllText(texts.stream().map(ConvertCommonProto::publishCiphertext).toList())
+                      .build().toByteArray(),
+              bytes -> DecryptingTrusteeProto.DirectDecryptionRequest.parseFrom(bytes).getTextList().stream()
+                      .map(t -> ConvertCommonProto.importCiphertext(group, t))
+                      .toList());
+
+      run("packed", niters, show, () -> DecryptingTrusteeProto.DirectDecryptionRequest.newBuilder()
+                      .setPackedText(ConvertPackedProto.publishCiphertextBatch(group, texts))
+                      .build().toByteArray(),
+              bytes -> ConvertPackedProto.importCiphertextBatch(group,
+                      DecryptingTrusteeProto.DirectDecryptionRequest.parseFrom(bytes).getPackedText()));
+    }
+  }
+
+  interface Encoder {
+    byte[] encode();
+  }
+
+  interface Decoder {
+    List<ElGamalCiphertext> decode(byte[] bytes) throws InvalidProtocolBufferException;
+  }
+
+  private static void run(String name, int niters, boolean show, Encoder encoder, Decoder decoder) throws InvalidProtocolBufferException {
+    byte[] bytes = null;
+    Stopwatch encodeTime = Stopwatch.createStarted();
+    for (int i = 0; i < niters; i++) {
+      bytes = encoder.encode();
+    }
+    encodeTime.stop();
+
+    Stopwatch decodeTime = Stopwatch.createStarted();
+    for (int i = 0; i < niters; i++) {
+      decoder.decode(bytes);
+    }
+    decodeTime.stop();
+
+    if (show) {
+      System.out.printf("%-10s %12d %12.1f %12.1f%n", name, bytes.length,
+              (double) encodeTime.elapsed(TimeUnit.MILLISECONDS) / niters,
+              (double) decodeTime.elapsed(TimeUnit.MILLISECONDS) / niters);
+    }
+  }
+}
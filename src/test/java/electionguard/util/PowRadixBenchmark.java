@@ -0,0 +1,69 @@
+package electionguard.util;
+
+import com.google.common.base.Stopwatch;
+import electionguard.core.ElementModQ;
+import electionguard.core.GroupContext;
+import electionguard.core.PowRadixOption;
+import electionguard.core.ProductionMode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static electionguard.util.RandomCiphertexts.randomElementModQ;
+
+/**
+ * Reports the memory of the g^x tables, the startup time to make the group and to do its first g^x,
+ * and the g^x throughput, of each PowRadixOption, to choose the -powRadix flag of the trustees and coordinators.
+ * The first option also pays for class loading and JIT; run with a single option name to time a cold start.
+ * Usage: PowRadixBenchmark [nexps] [option]
+ */
+public class PowRadixBenchmark {
+
+  public static void main(String[] args) {
+    int nexps = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    List<PowRadixOption> options = args.length > 1 ? List.of(PowRadixOption.valueOf(args[1])) : List.of(PowRadixOption.values());
+    List<GroupContext> keep = new ArrayList<>(); // so the tables arent collected before they are measured
+
+    System.out.printf("mode = %s nexps = %d%n", KUtils.DEFAULT_PRODUCTION_MODE, nexps);
+    System.out.printf("%-20s %10s %10s %12s %12s %8s%n", "option", "table MB", "make ms", "first g^x ms", "g^x/sec", "speedup");
+    double base = 0;
+    for (PowRadixOption option : options) {
+      long before = usedMemory();
+      Stopwatch setup = Stopwatch.createStarted();
+      GroupContext group = electionguard.core.GroupKt.productionGroup(option, KUtils.DEFAULT_PRODUCTION_MODE);
+      long makeMsecs = setup.elapsed(TimeUnit.MILLISECONDS);
+      group.gPowP(randomElementModQ(group)); // the tables may be built on first use
+      long firstMsecs = setup.elapsed(TimeUnit.MILLISECONDS) - makeMsecs;
+      keep.add(group);
+      double tableMB = (usedMemory() - before) / 1024.0 / 1024.0;
+
+      List<ElementModQ> exps = new ArrayList<>(nexps);
+      for (int i = 0; i < nexps; i++) {
+        exps.add(randomElementModQ(group));
+      }
+      for (int i = 0; i < Math.min(100, nexps); i++) { // warm up
+        group.gPowP(exps.get(i));
+      }
+      Stopwatch stopwatch = Stopwatch.createStarted();
+      for (ElementModQ exp : exps) {
+        group.gPowP(exp);
+      }
+      long msecs = Math.max(1, stopwatch.elapsed(TimeUnit.MILLISECONDS));
+      double perSec = 1000.0 * nexps / msecs;
+      if (base == 0) {
+        base = perSec;
+      }
+      System.out.printf("%-20s %10.1f %10d %12d %12.1f %8.2f%n", option, tableMB, makeMsecs, firstMsecs, perSec, perSec / base);
+    }
+    System.out.printf("(%d groups kept)%n", keep.size());
+  }
+
+  private static long usedMemory() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
@@ -0,0 +1,32 @@
+package electionguard.util;
+
+import electionguard.core.ElGamalCiphertext;
+import electionguard.core.ElementModQ;
+import electionguard.core.GroupContext;
+import electionguard.core.ProductionElementModQ;
+import electionguard.core.ProductionGroupContext;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** Random group elements for benchmarks; not for use in a real election. */
+public class RandomCiphertexts {
+  private static final Random random = new Random();
+
+  public static ElementModQ randomElementModQ(GroupContext group) {
+    // 255 bits is always less than Q
+    return new ProductionElementModQ(new BigInteger(255, random), (ProductionGroupContext) group);
+  }
+
+  public static List<ElGamalCiphertext> randomCiphertexts(GroupContext group, int n) {
+    List<ElGamalCiphertext> result = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      result.add(new ElGamalCiphertext(
+              group.gPowP(randomElementModQ(group)),
+              group.gPowP(randomElementModQ(group))));
+    }
+    return result;
+  }
+}
@@ -0,0 +1,76 @@
+package electionguard.util;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class RpcPolicyTest {
+
+  @Test
+  public void testHedgeWinsWhenFirstStalls() {
+    RpcPolicy policy = new RpcPolicy(1, 0, 1);
+    SettableFuture<String> stalled = SettableFuture.create();
+    AtomicInteger hedges = new AtomicInteger();
+
+    String answer = policy.callHedged("test", 0, deadline -> stalled, deadline -> {
+      hedges.incrementAndGet();
+      return Futures.immediateFuture("hedge");
+    });
+    assertThat(answer).isEqualTo("hedge");
+    assertThat(hedges.get()).isEqualTo(1);
+    assertThat(stalled.isCancelled()).isTrue();
+  }
+
+  @Test
+  public void testNoHedgeWhenFirstIsQuick() {
+    RpcPolicy policy = new RpcPolicy(1, 0, 1);
+    AtomicInteger hedges = new AtomicInteger();
+
+    String answer = policy.callHedged("test", 0, deadline -> Futures.immediateFuture("first"), deadline -> {
+      hedges.incrementAndGet();
+      return Futures.immediateFuture("hedge");
+    });
+    assertThat(answer).isEqualTo("first");
+    assertThat(hedges.get()).isEqualTo(0);
+  }
+
+  @Test
+  public void testResourceExhaustedWithoutRetryAfterIsNotRetried() {
+    RpcPolicy policy = new RpcPolicy(1, 0, 3);
+    AtomicInteger attempts = new AtomicInteger();
+
+    // eg the local "message too large" error
+    StatusRuntimeException e = assertThrows(StatusRuntimeException.class, () -> policy.call("test", 0, deadline -> {
+      attempts.incrementAndGet();
+      throw Status.RESOURCE_EXHAUSTED.withDescription("message too large").asRuntimeException();
+    }));
+    assertThat(e.getStatus().getCode()).isEqualTo(Status.Code.RESOURCE_EXHAUSTED);
+    assertThat(attempts.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void testBusyTrusteeIsRetried() {
+    RpcPolicy policy = new RpcPolicy(1, 0, 3);
+    CryptoExecutor executor = new CryptoExecutor("test", 1, 1);
+    AtomicInteger attempts = new AtomicInteger();
+    try {
+      String answer = policy.call("test", 0, deadline -> {
+        if (attempts.incrementAndGet() == 1) {
+          throw executor.rejection("test");
+        }
+        return "answer";
+      });
+      assertThat(answer).isEqualTo("answer");
+      assertThat(attempts.get()).isEqualTo(2);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}